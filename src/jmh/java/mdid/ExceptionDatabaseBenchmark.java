@@ -0,0 +1,115 @@
+/*
+** Copyright 2012 Phokham Nonava
+**
+** This file is part of Message Digest Integrity Database.
+**
+** Message Digest Integrity Database is free software: you can redistribute it and/or modify
+** it under the terms of the GNU Lesser General Public License as published by
+** the Free Software Foundation, either version 3 of the License, or
+** (at your option) any later version.
+**
+** Message Digest Integrity Database is distributed in the hope that it will be useful,
+** but WITHOUT ANY WARRANTY; without even the implied warranty of
+** MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+** GNU Lesser General Public License for more details.
+**
+** You should have received a copy of the GNU Lesser General Public License
+** along with Message Digest Integrity Database.  If not, see <http://www.gnu.org/licenses/>.
+*/
+package mdid;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures the exclusion check done for every visited path, for exact
+ * paths, subtrees and glob patterns.
+ *
+ * @author Phokham Nonava
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class ExceptionDatabaseBenchmark {
+
+    @Param({"10", "1000", "100000"})
+    private int exclusions;
+
+    @Param({"path", "subtree", "glob"})
+    private String kind;
+
+    private ExceptionDatabase exceptionDatabase = null;
+    private String hit = null;
+    private String miss = null;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        Path exceptionFile = Files.createTempFile("mdid", null);
+        try {
+            try (BufferedWriter bufferedWriter = Files.newBufferedWriter(exceptionFile, Charset.defaultCharset())) {
+                for (int i = 0; i < exclusions; ++i) {
+                    bufferedWriter.write(entry(i));
+                    bufferedWriter.newLine();
+                }
+            }
+
+            exceptionDatabase = new ExceptionDatabase(exceptionFile);
+        } finally {
+            Files.delete(exceptionFile);
+        }
+
+        hit = path(exclusions / 2) + File.separator + "file";
+        miss = "other" + File.separator + "directory" + File.separator + "file";
+        if (kind.equals("path")) {
+            hit = path(exclusions / 2);
+        }
+    }
+
+    @Benchmark
+    public boolean hit() {
+        return exceptionDatabase.contains(hit);
+    }
+
+    @Benchmark
+    public boolean miss() {
+        return exceptionDatabase.contains(miss);
+    }
+
+    private String entry(int i) {
+        switch (kind) {
+            case "subtree":
+                return path(i) + File.separator + "**";
+            case "glob":
+                return "glob:" + path(i) + File.separator + "*";
+            case "path":
+            default:
+                return path(i);
+        }
+    }
+
+    private static String path(int i) {
+        return "directory" + (i / 100) + File.separator + "subdirectory" + i;
+    }
+
+}
@@ -0,0 +1,116 @@
+/*
+** Copyright 2012 Phokham Nonava
+**
+** This file is part of Message Digest Integrity Database.
+**
+** Message Digest Integrity Database is free software: you can redistribute it and/or modify
+** it under the terms of the GNU Lesser General Public License as published by
+** the Free Software Foundation, either version 3 of the License, or
+** (at your option) any later version.
+**
+** Message Digest Integrity Database is distributed in the hope that it will be useful,
+** but WITHOUT ANY WARRANTY; without even the implied warranty of
+** MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+** GNU Lesser General Public License for more details.
+**
+** You should have received a copy of the GNU Lesser General Public License
+** along with Message Digest Integrity Database.  If not, see <http://www.gnu.org/licenses/>.
+*/
+package mdid;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Measures loading a hash file into a database and writing the database
+ * back, which happen at the start and the end of every run.
+ *
+ * @author Phokham Nonava
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgs = {"-Xmx4g"})
+public class HashDatabaseBenchmark {
+
+    @Param({"10000", "1000000"})
+    private int entries;
+
+    @Param({"TEXT", "BINARY"})
+    private HashDatabase.Format format;
+
+    private Path tempDirectory = null;
+    private Path hashFile = null;
+    private Path outputFile = null;
+    private HashDatabase hashDatabase = null;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        tempDirectory = Files.createTempDirectory("mdid");
+        hashFile = tempDirectory.resolve("mdid.db");
+        outputFile = tempDirectory.resolve("mdid.out");
+
+        try (HashDatabase database = new HashDatabase(hashFile, format)) {
+            for (int i = 0; i < entries; ++i) {
+                database.putAndMark(path(i), new HashEntry(digest(i), i, 1000L * i, null));
+            }
+        }
+        Files.deleteIfExists(Journal.getJournalFile(hashFile));
+
+        hashDatabase = new HashDatabase(hashFile, false);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        hashDatabase.close();
+
+        Files.deleteIfExists(outputFile);
+        Files.delete(hashFile);
+        Files.delete(tempDirectory);
+    }
+
+    @Benchmark
+    public void load(Blackhole blackhole) throws IOException {
+        try (HashDatabase database = new HashDatabase(hashFile, false)) {
+            blackhole.consume(database.getEntry(path(entries / 2)));
+        }
+    }
+
+    @Benchmark
+    public int write() throws IOException {
+        return hashDatabase.write(outputFile, format);
+    }
+
+    private static String path(int i) {
+        return "directory" + (i / 1000) + "/subdirectory" + (i / 100 % 10) + "/file" + i;
+    }
+
+    private static byte[] digest(int i) {
+        byte[] digest = new byte[20];
+        for (int j = 0; j < digest.length; ++j) {
+            digest[j] = (byte) (i * 31 + j);
+        }
+
+        return digest;
+    }
+
+}
@@ -0,0 +1,104 @@
+/*
+** Copyright 2012 Phokham Nonava
+**
+** This file is part of Message Digest Integrity Database.
+**
+** Message Digest Integrity Database is free software: you can redistribute it and/or modify
+** it under the terms of the GNU Lesser General Public License as published by
+** the Free Software Foundation, either version 3 of the License, or
+** (at your option) any later version.
+**
+** Message Digest Integrity Database is distributed in the hope that it will be useful,
+** but WITHOUT ANY WARRANTY; without even the implied warranty of
+** MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+** GNU Lesser General Public License for more details.
+**
+** You should have received a copy of the GNU Lesser General Public License
+** along with Message Digest Integrity Database.  If not, see <http://www.gnu.org/licenses/>.
+*/
+package mdid;
+
+import java.util.Hashtable;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Compares loading and marking entries in a path tree with a hash store
+ * against the two Hashtables the hash database used before. Scores are per
+ * entry.
+ *
+ * @author Phokham Nonava
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgs = {"-Xmx2g"})
+public class HashStoreBenchmark {
+
+    private static final int ENTRIES = 500000;
+    private static final int FILES_PER_DIRECTORY = 100;
+
+    private final String[] paths = new String[ENTRIES];
+    private final String[] hashes = new String[ENTRIES];
+    private final HashEntry[] entries = new HashEntry[ENTRIES];
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        for (int i = 0; i < ENTRIES; ++i) {
+            int directory = i / FILES_PER_DIRECTORY;
+            paths[i] = "/srv/storage/projects/project" + (directory / 100) + "/directory" + directory + "/file" + i + ".dat";
+            hashes[i] = String.format("%040x", i);
+            entries[i] = new HashEntry(hashes[i]);
+        }
+    }
+
+    /**
+     * Paths are copied before every operation, as the walker hands out new
+     * strings whose hash code has not been computed yet.
+     */
+    @Benchmark
+    @OperationsPerInvocation(ENTRIES)
+    public Hashtable<String, String> hashtable() {
+        Hashtable<String, String> table = new Hashtable<>();
+        Hashtable<String, String> marks = new Hashtable<>();
+        for (int i = 0; i < ENTRIES; ++i) {
+            table.put(new String(paths[i]), hashes[i]);
+        }
+        for (int i = 0; i < ENTRIES; ++i) {
+            String path = new String(paths[i]);
+            marks.put(path, table.remove(path));
+        }
+
+        return marks;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(ENTRIES)
+    public HashStore hashStore() {
+        PathTree pathTree = new PathTree((int) (ENTRIES * 1.25));
+        HashStore hashStore = new HashStore((int) (ENTRIES * 1.25));
+        for (int i = 0; i < ENTRIES; ++i) {
+            hashStore.put(pathTree.intern(new String(paths[i])), entries[i]);
+        }
+        for (int i = 0; i < ENTRIES; ++i) {
+            hashStore.mark(pathTree.find(new String(paths[i])));
+        }
+
+        return hashStore;
+    }
+
+}
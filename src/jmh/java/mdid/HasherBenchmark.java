@@ -0,0 +1,94 @@
+/*
+** Copyright 2012 Phokham Nonava
+**
+** This file is part of Message Digest Integrity Database.
+**
+** Message Digest Integrity Database is free software: you can redistribute it and/or modify
+** it under the terms of the GNU Lesser General Public License as published by
+** the Free Software Foundation, either version 3 of the License, or
+** (at your option) any later version.
+**
+** Message Digest Integrity Database is distributed in the hope that it will be useful,
+** but WITHOUT ANY WARRANTY; without even the implied warranty of
+** MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+** GNU Lesser General Public License for more details.
+**
+** You should have received a copy of the GNU Lesser General Public License
+** along with Message Digest Integrity Database.  If not, see <http://www.gnu.org/licenses/>.
+*/
+package mdid;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.NoSuchAlgorithmException;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures hashing a single file in the page cache, which is what the modes
+ * do for every file they visit.
+ *
+ * @author Phokham Nonava
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class HasherBenchmark {
+
+    @Param({"4096", "1048576", "67108864"})
+    private int fileSize;
+
+    @Param({Algorithms.SHA1, Algorithms.SHA256, Algorithms.SHA512, Algorithms.CRC32C, Algorithms.XXH64})
+    private String algorithm;
+
+    @Param({"READ", "MMAP"})
+    private Hasher.Strategy strategy;
+
+    private Path file = null;
+    private Hasher hasher = null;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException, NoSuchAlgorithmException {
+        file = Files.createTempFile("mdid", null);
+
+        byte[] bytes = new byte[fileSize];
+        new Random(42).nextBytes(bytes);
+        Files.write(file, bytes);
+
+        hasher = new Hasher(algorithm, Hasher.DEFAULT_BUFFER_SIZE, strategy);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        Files.delete(file);
+    }
+
+    @Benchmark
+    public byte[] digest() throws IOException {
+        return hasher.digest(file);
+    }
+
+    @Benchmark
+    public byte[] sample() throws IOException {
+        return hasher.sample(file);
+    }
+
+}
@@ -0,0 +1,125 @@
+/*
+** Copyright 2012 Phokham Nonava
+**
+** This file is part of Message Digest Integrity Database.
+**
+** Message Digest Integrity Database is free software: you can redistribute it and/or modify
+** it under the terms of the GNU Lesser General Public License as published by
+** the Free Software Foundation, either version 3 of the License, or
+** (at your option) any later version.
+**
+** Message Digest Integrity Database is distributed in the hope that it will be useful,
+** but WITHOUT ANY WARRANTY; without even the implied warranty of
+** MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+** GNU Lesser General Public License for more details.
+**
+** You should have received a copy of the GNU Lesser General Public License
+** along with Message Digest Integrity Database.  If not, see <http://www.gnu.org/licenses/>.
+*/
+package mdid;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures walking an indexed tree without hashing, so the walker, the
+ * exclusion checks and the database lookups dominate. Both analysis modes
+ * run in quick mode on unchanged files.
+ *
+ * @author Phokham Nonava
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(1)
+public class WalkBenchmark {
+
+    private static final int FILES_PER_DIRECTORY = 100;
+
+    @Param({"1000", "10000"})
+    private int files;
+
+    private Path tempDirectory = null;
+    private Path tree = null;
+    private Path hashFile = null;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        tempDirectory = Files.createTempDirectory("mdid");
+        tree = tempDirectory.resolve("tree");
+        hashFile = tempDirectory.resolve("mdid.db");
+
+        for (int i = 0; i < files; ++i) {
+            Path directory = tree.resolve("directory" + (i / FILES_PER_DIRECTORY));
+            Files.createDirectories(directory);
+            Files.write(directory.resolve("file" + i), new byte[] {(byte) i});
+        }
+
+        IndexingMode indexingMode = new IndexingMode(hashFile, null, newHashPipeline(), HashDatabase.Format.TEXT);
+        indexingMode.setReportWriter(newReportWriter());
+        indexingMode.run(tree);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        for (int i = 0; i < files; ++i) {
+            Files.delete(tree.resolve("directory" + (i / FILES_PER_DIRECTORY)).resolve("file" + i));
+        }
+        for (int i = 0; i < files; i += FILES_PER_DIRECTORY) {
+            Files.delete(tree.resolve("directory" + (i / FILES_PER_DIRECTORY)));
+        }
+        Files.delete(tree);
+        Files.delete(hashFile);
+        Files.delete(tempDirectory);
+    }
+
+    @Benchmark
+    public void analyze() throws Exception {
+        AnalysisMode analysisMode = new AnalysisMode(hashFile, null, newHashPipeline(), true);
+        analysisMode.setReportWriter(newReportWriter());
+        analysisMode.run(tree);
+    }
+
+    @Benchmark
+    public void analyzeStreaming() throws Exception {
+        StreamingAnalysisMode streamingAnalysisMode = new StreamingAnalysisMode(hashFile, null, newHashPipeline(), true);
+        streamingAnalysisMode.setReportWriter(newReportWriter());
+        streamingAnalysisMode.run(tree);
+    }
+
+    private static HashPipeline newHashPipeline() throws Exception {
+        return new HashPipeline(new Hasher(HashDatabase.MESSAGEDIGEST), 1);
+    }
+
+    private static ReportWriter newReportWriter() {
+        return new TextReportWriter(new OutputStream() {
+            @Override
+            public void write(int b) {
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) {
+            }
+        });
+    }
+
+}
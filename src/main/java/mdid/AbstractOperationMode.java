@@ -18,16 +18,16 @@
 */
 package mdid;
 
-import java.io.FileInputStream;
 import java.io.IOException;
-import java.math.BigInteger;
 import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
 import java.nio.file.Path;
 import java.nio.file.SimpleFileVisitor;
 import java.nio.file.attribute.BasicFileAttributes;
-import java.security.DigestInputStream;
-import java.security.MessageDigest;
-import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
 import java.util.Objects;
 
 import org.slf4j.Logger;
@@ -36,25 +36,67 @@ import org.slf4j.LoggerFactory;
 /**
  * @author Phokham Nonava
  */
-public abstract class AbstractOperationMode extends SimpleFileVisitor<Path> {
+public abstract class AbstractOperationMode extends SimpleFileVisitor<Path> implements OperationMode {
 
     protected static final String SKIPPING = "SKIPPING";
     protected static final String NEW =      "NEW     ";
     protected static final String EQUAL =    "EQUAL   ";
     protected static final String MODIFIED = "MODIFIED";
     protected static final String DELETED =  "DELETED ";
+    protected static final String COMPLETE = "COMPLETE";
+    protected static final String SAMPLED =  "SAMPLED ";
 
     private static final Logger logger = LoggerFactory.getLogger(AbstractOperationMode.class);
 
     protected final HashDatabase hashDatabase;
     protected final ExceptionDatabase exceptionDatabase;
-    private final MessageDigest messageDigest;
+    protected final HashPipeline hashPipeline;
+    protected final BlockManifest blockManifest;
 
-    public AbstractOperationMode(Path hashFile, Path exceptionFile) throws NoSuchAlgorithmException, IOException {
+    protected ReportWriter reportWriter = new TextReportWriter(System.out);
+    protected Metrics metrics = new Metrics();
+
+    // The file keys of all files hashed so far, and the tracked link of each
+    // file with further links not seen yet by file key
+    private final FileKeySet fileKeys = new FileKeySet();
+    private final Map<String, Link> links = new HashMap<>();
+    private long linkCount = 0;
+
+    private boolean resume = false;
+    private long sampleThreshold = -1;
+    private long blockThreshold = -1;
+
+    public AbstractOperationMode(Path hashFile, Path exceptionFile, HashPipeline hashPipeline, HashDatabase.Format format) throws IOException {
+        Objects.requireNonNull(hashFile);
+        Objects.requireNonNull(hashPipeline);
+
+        hashDatabase = new HashDatabase(hashFile, format, hashPipeline.getAlgorithm());
+        blockManifest = new BlockManifest(BlockManifest.getManifestFile(hashFile), hashPipeline.getAlgorithm());
+
+        exceptionDatabase = createExceptionDatabase(hashFile, exceptionFile);
+
+        this.hashPipeline = hashPipeline;
+    }
+
+    public AbstractOperationMode(Path hashFile, Path exceptionFile, HashPipeline hashPipeline, boolean writable) throws IOException {
         Objects.requireNonNull(hashFile);
+        Objects.requireNonNull(hashPipeline);
+
+        checkAlgorithm(hashFile, hashPipeline);
+        hashDatabase = new HashDatabase(hashFile, writable);
+        blockManifest = new BlockManifest(BlockManifest.getManifestFile(hashFile), hashPipeline.getAlgorithm());
+
+        exceptionDatabase = createExceptionDatabase(hashFile, exceptionFile);
 
-        hashDatabase = new HashDatabase(hashFile);
+        this.hashPipeline = hashPipeline;
+    }
 
+    /**
+     * Creates the exception database, which also excludes the hash file, its
+     * journal and block manifest and the exception file themselves.
+     */
+    static ExceptionDatabase createExceptionDatabase(Path hashFile, Path exceptionFile) throws IOException {
+        ExceptionDatabase exceptionDatabase;
         if (exceptionFile == null) {
             exceptionDatabase = new ExceptionDatabase();
         } else {
@@ -63,25 +105,178 @@ public abstract class AbstractOperationMode extends SimpleFileVisitor<Path> {
         }
 
         exceptionDatabase.put(hashFile.toString());
+        exceptionDatabase.put(Journal.getJournalFile(hashFile).toString());
+        exceptionDatabase.put(BlockManifest.getManifestFile(hashFile).toString());
 
-        messageDigest = MessageDigest.getInstance(HashDatabase.MESSAGEDIGEST);
+        return exceptionDatabase;
     }
 
-    public AbstractOperationMode(Path hashFile, Path exceptionFile, boolean writable) throws NoSuchAlgorithmException, IOException {
-        Objects.requireNonNull(hashFile);
+    /**
+     * Refuses to compare the entries of the hash file with digests of another
+     * algorithm.
+     */
+    static void checkAlgorithm(Path hashFile, HashPipeline hashPipeline) throws IOException {
+        String algorithm = HashDatabase.readAlgorithm(hashFile);
+        if (!algorithm.equals(hashPipeline.getAlgorithm())) {
+            throw new IOException("Hash file " + hashFile.toString() + " uses " + algorithm + ", but " + hashPipeline.getAlgorithm() + " was selected");
+        }
+    }
 
-        hashDatabase = new HashDatabase(hashFile, writable);
+    @Override
+    public void run(Path path) throws IOException {
+        Objects.requireNonNull(path);
 
-        if (exceptionFile == null) {
-            exceptionDatabase = new ExceptionDatabase();
+        begin(path);
+
+        metrics.startPhase("walk");
+        Files.walkFileTree(path, this);
+        flush();
+        doFinal();
+    }
+
+    /**
+     * Starts journaling the changes of a writable database for the run over
+     * the tree at the path.
+     */
+    protected void begin(Path path) throws IOException {
+        if (hashDatabase.isWritable()) {
+            hashDatabase.begin(path.toAbsolutePath().normalize().toString());
+        }
+    }
+
+    /**
+     * Sets the writer receiving the results. It is flushed, but not closed
+     * at the end of the run.
+     */
+    public void setReportWriter(ReportWriter reportWriter) {
+        Objects.requireNonNull(reportWriter);
+
+        this.reportWriter = reportWriter;
+    }
+
+    /**
+     * Sets the metrics to record the run in.
+     */
+    public void setMetrics(Metrics metrics) {
+        Objects.requireNonNull(metrics);
+
+        this.metrics = metrics;
+    }
+
+    /**
+     * Skips directories which an interrupted previous run has completed.
+     */
+    public void setResume(boolean resume) {
+        this.resume = resume;
+    }
+
+    /**
+     * Stores sampled fingerprints instead of full digests for new entries of
+     * files larger than the threshold in bytes. A threshold of -1 disables
+     * sampling, which is the default.
+     */
+    public void setSampleThreshold(long sampleThreshold) {
+        if (sampleThreshold < -1) {
+            throw new IllegalArgumentException("Invalid sample threshold: " + sampleThreshold);
+        }
+
+        this.sampleThreshold = sampleThreshold;
+    }
+
+    /**
+     * Stores tree digests instead of full digests for new entries of files
+     * larger than the threshold in bytes, unless they are sampled. Their
+     * blocks are hashed in parallel. A threshold of -1 disables tree
+     * hashing, which is the default.
+     */
+    public void setBlockThreshold(long blockThreshold) {
+        if (blockThreshold < -1) {
+            throw new IllegalArgumentException("Invalid block threshold: " + blockThreshold);
+        }
+
+        this.blockThreshold = blockThreshold;
+    }
+
+    /**
+     * Returns the kind of a new entry for the file.
+     */
+    protected HashEntry.Kind getKind(BasicFileAttributes attrs) {
+        if (sampleThreshold != -1 && attrs.size() > sampleThreshold) {
+            return HashEntry.Kind.SAMPLED;
+        } else if (blockThreshold != -1 && attrs.size() > blockThreshold) {
+            return HashEntry.Kind.TREE;
         } else {
-            exceptionDatabase = new ExceptionDatabase(exceptionFile);
-            exceptionDatabase.put(exceptionFile.toString());
+            return HashEntry.Kind.FULL;
         }
+    }
 
-        exceptionDatabase.put(hashFile.toString());
+    /**
+     * Hashes the file the way the kind of entry requires. The block digests
+     * of a tree hash are kept in the block manifest.
+     *
+     * A file with several hard links is read at most twice per run. The link
+     * count is only read once a file key shows up again, which spares a stat
+     * for files with a single link. From then on, further links get the
+     * digest of the second one as soon as it is done, if the file has not
+     * changed in between, until all links have been seen.
+     */
+    protected void hash(Path file, final String path, BasicFileAttributes attrs, HashEntry.Kind kind, final HashPipeline.Callback callback) throws IOException {
+        HashPipeline.Callback hashCallback = callback;
+        String fileKey = HashEntry.toFileKey(attrs);
+        if (fileKey != null && !fileKeys.add(fileKey)) {
+            final Link link = links.get(fileKey);
+            if (link != null && link.matches(attrs, kind)) {
+                if (--link.unseen <= 0) {
+                    links.remove(fileKey);
+                }
+                hashPipeline.submit(new HashPipeline.Callback() {
+                    @Override
+                    public void done(byte[] digest) throws IOException {
+                        link.apply(path, callback);
+                    }
+                });
+                return;
+            }
 
-        messageDigest = MessageDigest.getInstance(HashDatabase.MESSAGEDIGEST);
+            // The earlier link was not tracked or the file has changed since,
+            // so this one is read again
+            int unseen = getLinkCount(file) - 2;
+            if (unseen > 0) {
+                Link tracked = new Link(path, attrs, kind, unseen);
+                links.put(fileKey, tracked);
+                hashCallback = new LinkCallback(tracked, callback);
+            } else {
+                links.remove(fileKey);
+            }
+        }
+
+        if (kind == HashEntry.Kind.TREE) {
+            hashPipeline.submitTree(file, fileKey, attrs.size(), null, new ManifestCallback(path, hashCallback));
+        } else {
+            hashPipeline.submit(file, fileKey, kind == HashEntry.Kind.SAMPLED, hashCallback);
+        }
+    }
+
+    /**
+     * Returns the number of hard links to the file, or 1 if the file system
+     * does not tell.
+     */
+    private static int getLinkCount(Path file) {
+        try {
+            return (Integer) Files.getAttribute(file, "unix:nlink", LinkOption.NOFOLLOW_LINKS);
+        } catch (IOException | UnsupportedOperationException | IllegalArgumentException e) {
+            // Hashing the file reports a problem reading it
+            return 1;
+        }
+    }
+
+    /**
+     * Forgets the digests of the files hashed so far, so further links to
+     * them are read again.
+     */
+    protected void clearLinks() {
+        fileKeys.clear();
+        links.clear();
     }
 
     @Override
@@ -90,30 +285,78 @@ public abstract class AbstractOperationMode extends SimpleFileVisitor<Path> {
         Objects.requireNonNull(attrs);
 
         if (exceptionDatabase.contains(dir.toString())) {
-            logger.info("{} {}", SKIPPING, dir.toString());
+            report(SKIPPING, dir.toString());
+            return FileVisitResult.SKIP_SUBTREE;
+        } else if (resume && hashDatabase.isComplete(dir.toString())) {
+            report(COMPLETE, dir.toString());
             return FileVisitResult.SKIP_SUBTREE;
         } else {
             return FileVisitResult.CONTINUE;
         }
     }
 
-    protected String getHash(Path file) throws IOException {
-        Objects.requireNonNull(file);
+    @Override
+    public FileVisitResult postVisitDirectory(Path dir, IOException exc) throws IOException {
+        Objects.requireNonNull(dir);
 
-        try (DigestInputStream digestInputStream = new DigestInputStream(new FileInputStream(file.toFile()), messageDigest)) {
-            byte[] buffer = new byte[1024];
-            while (digestInputStream.read(buffer) != -1) {
+        if (exc != null) {
+            throw exc;
+        }
+
+        // Checkpoint the directory once the results of its subtree are applied
+        final String path = dir.toString();
+        hashPipeline.submit(new HashPipeline.Callback() {
+            @Override
+            public void done(byte[] digest) throws IOException {
+                hashDatabase.complete(path);
             }
+        });
 
-            byte[] hashValue = messageDigest.digest();
-            BigInteger bi = new BigInteger(1, hashValue);
-            String hash = String.format("%0" + (hashValue.length << 1) + "x", bi);
+        return FileVisitResult.CONTINUE;
+    }
 
-            return hash;
-        }
+    /**
+     * Reports the result in submission order, after all pending hashes are
+     * done.
+     */
+    protected void report(final String result, final String path) throws IOException {
+        hashPipeline.submit(new HashPipeline.Callback() {
+            @Override
+            public void done(byte[] digest) throws IOException {
+                reportWriter.write(result, path);
+            }
+        });
+    }
+
+    /**
+     * Waits for all pending hashes and applies their results.
+     */
+    public void flush() throws IOException {
+        hashPipeline.flush();
     }
 
     public void doFinal() {
+        metrics.startPhase("close");
+        hashPipeline.close();
+
+        if (linkCount > 0) {
+            logger.info("Reused the digests of {} hard links", linkCount);
+        }
+
+        try {
+            reportWriter.flush();
+        } catch (IOException e) {
+            logger.warn("Cannot write report");
+        }
+
+        try {
+            if (blockManifest.isModified()) {
+                blockManifest.write(hashDatabase);
+            }
+        } catch (IOException e) {
+            logger.warn("Cannot write block manifest");
+        }
+
         try {
             hashDatabase.close();
         } catch (IOException e) {
@@ -121,4 +364,142 @@ public abstract class AbstractOperationMode extends SimpleFileVisitor<Path> {
         }
     }
 
+    /**
+     * Puts the block digests of a tree hash into the block manifest before
+     * passing the root digest on.
+     */
+    private final class ManifestCallback implements HashPipeline.TreeCallback, HashPipeline.ErrorCallback {
+
+        private final String path;
+        private final HashPipeline.Callback callback;
+
+        private byte[][] blocks = null;
+
+        private ManifestCallback(String path, HashPipeline.Callback callback) {
+            this.path = path;
+            this.callback = callback;
+        }
+
+        @Override
+        public void blocks(byte[][] digests) {
+            blocks = digests;
+        }
+
+        @Override
+        public void done(byte[] digest) throws IOException {
+            blockManifest.put(path, digest, blocks);
+            callback.done(digest);
+        }
+
+        @Override
+        public void failed(IOException exception) throws IOException {
+            if (callback instanceof HashPipeline.ErrorCallback) {
+                ((HashPipeline.ErrorCallback) callback).failed(exception);
+            } else {
+                throw exception;
+            }
+        }
+
+    }
+
+    /**
+     * The tracked link of a file and, once it is hashed, its digest or the
+     * reason it could not be hashed.
+     */
+    private final class Link {
+
+        private final String path;
+        private final long size;
+        private final long lastModified;
+        private final HashEntry.Kind kind;
+
+        // The number of further links not seen yet
+        private int unseen;
+
+        private boolean done = false;
+        private byte[] digest = null;
+        private IOException exception = null;
+
+        private Link(String path, BasicFileAttributes attrs, HashEntry.Kind kind, int unseen) {
+            this.path = path;
+            this.size = attrs.size();
+            this.lastModified = attrs.lastModifiedTime().toMillis();
+            this.kind = kind;
+            this.unseen = unseen;
+        }
+
+        /**
+         * Returns whether the digest can be reused for another link, which
+         * is the case while the file is unchanged and the same kind of digest
+         * is needed.
+         */
+        private boolean matches(BasicFileAttributes attrs, HashEntry.Kind kind) {
+            return this.kind == kind
+                && size == attrs.size()
+                && lastModified == attrs.lastModifiedTime().toMillis();
+        }
+
+        /**
+         * Passes the result of the tracked link to the callback of another
+         * link. Called in submission order, so the tracked link is done.
+         */
+        private void apply(String linkPath, HashPipeline.Callback callback) throws IOException {
+            if (!done) {
+                throw new IllegalStateException("Link has not been hashed yet: " + path);
+            }
+
+            if (exception != null) {
+                if (callback instanceof HashPipeline.ErrorCallback) {
+                    ((HashPipeline.ErrorCallback) callback).failed(exception);
+                    return;
+                }
+                throw exception;
+            }
+
+            if (kind == HashEntry.Kind.TREE) {
+                byte[][] blocks = blockManifest.get(path, digest);
+                if (blocks != null) {
+                    blockManifest.put(linkPath, digest, blocks);
+                }
+            }
+
+            ++linkCount;
+            callback.done(Arrays.copyOf(digest, digest.length));
+        }
+
+    }
+
+    /**
+     * Records the result of the tracked link of a file before passing it on.
+     */
+    private static final class LinkCallback implements HashPipeline.ErrorCallback {
+
+        private final Link link;
+        private final HashPipeline.Callback callback;
+
+        private LinkCallback(Link link, HashPipeline.Callback callback) {
+            this.link = link;
+            this.callback = callback;
+        }
+
+        @Override
+        public void done(byte[] digest) throws IOException {
+            link.done = true;
+            link.digest = digest;
+            callback.done(digest);
+        }
+
+        @Override
+        public void failed(IOException exception) throws IOException {
+            link.done = true;
+            link.exception = exception;
+            if (callback instanceof HashPipeline.ErrorCallback) {
+                ((HashPipeline.ErrorCallback) callback).failed(exception);
+            } else {
+                throw exception;
+            }
+        }
+
+    }
+
 }
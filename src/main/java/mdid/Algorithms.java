@@ -0,0 +1,79 @@
+/*
+** Copyright 2012 Phokham Nonava
+**
+** This file is part of Message Digest Integrity Database.
+**
+** Message Digest Integrity Database is free software: you can redistribute it and/or modify
+** it under the terms of the GNU Lesser General Public License as published by
+** the Free Software Foundation, either version 3 of the License, or
+** (at your option) any later version.
+**
+** Message Digest Integrity Database is distributed in the hope that it will be useful,
+** but WITHOUT ANY WARRANTY; without even the implied warranty of
+** MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+** GNU Lesser General Public License for more details.
+**
+** You should have received a copy of the GNU Lesser General Public License
+** along with Message Digest Integrity Database.  If not, see <http://www.gnu.org/licenses/>.
+*/
+package mdid;
+
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Objects;
+
+/**
+ * The supported digest algorithms. The SHA algorithms come from the Java
+ * security providers, the checksums are implemented here.
+ *
+ * @author Phokham Nonava
+ */
+public final class Algorithms {
+
+    public static final String SHA1 = "SHA-1";
+    public static final String SHA256 = "SHA-256";
+    public static final String SHA512 = "SHA-512";
+    public static final String CRC32C = CRC32CDigest.ALGORITHM;
+    public static final String XXH64 = XXHash64Digest.ALGORITHM;
+
+    private static final List<String> NAMES = Collections.unmodifiableList(Arrays.asList(SHA1, SHA256, SHA512, CRC32C, XXH64));
+
+    private Algorithms() {
+    }
+
+    public static List<String> getNames() {
+        return NAMES;
+    }
+
+    /**
+     * Returns the canonical name of the algorithm ignoring case, or null if
+     * the algorithm is not supported.
+     */
+    public static String find(String name) {
+        Objects.requireNonNull(name);
+
+        for (String algorithm : NAMES) {
+            if (algorithm.equalsIgnoreCase(name)) {
+                return algorithm;
+            }
+        }
+
+        return null;
+    }
+
+    public static MessageDigest getInstance(String algorithm) throws NoSuchAlgorithmException {
+        Objects.requireNonNull(algorithm);
+
+        if (algorithm.equals(CRC32C)) {
+            return new CRC32CDigest();
+        } else if (algorithm.equals(XXH64)) {
+            return new XXHash64Digest();
+        } else {
+            return MessageDigest.getInstance(algorithm);
+        }
+    }
+
+}
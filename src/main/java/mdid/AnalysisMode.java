@@ -22,7 +22,7 @@ import java.io.IOException;
 import java.nio.file.FileVisitResult;
 import java.nio.file.Path;
 import java.nio.file.attribute.BasicFileAttributes;
-import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
 import java.util.Objects;
 
 import org.slf4j.Logger;
@@ -35,8 +35,24 @@ public class AnalysisMode extends AbstractOperationMode {
 
     private static final Logger logger = LoggerFactory.getLogger(AnalysisMode.class);
 
-    public AnalysisMode(Path hashFile, Path exceptionFile) throws IOException, NoSuchAlgorithmException {
-        super(hashFile, exceptionFile, false);
+    private final boolean quick;
+
+    /**
+     * Creates an analysis mode. In quick mode a file is reported as equal
+     * without hashing it if its size, last modified time and file key are
+     * the same as stored in the hash database.
+     *
+     * Files with a sampled entry are only compared by their fingerprint and
+     * reported as sampled instead of equal if it matches.
+     *
+     * The blocks of files with a tree entry are verified in parallel against
+     * the block manifest, stopping at the first block which differs. The
+     * changed byte ranges found are logged.
+     */
+    public AnalysisMode(Path hashFile, Path exceptionFile, HashPipeline hashPipeline, boolean quick) throws IOException {
+        super(hashFile, exceptionFile, hashPipeline, false);
+
+        this.quick = quick;
     }
 
     @Override
@@ -44,30 +60,92 @@ public class AnalysisMode extends AbstractOperationMode {
         Objects.requireNonNull(file);
         Objects.requireNonNull(attrs);
 
-        if (exceptionDatabase.contains(file.toString())) {
-            logger.info("{} {}", SKIPPING, file.toString());
+        final String path = file.toString();
+        if (exceptionDatabase.contains(path)) {
+            report(SKIPPING, path);
         } else {
-            String oldHash = hashDatabase.get(file.toString());
-            if (oldHash == null) {
-                logger.info("{} {}", NEW, file.toString());
+            HashEntry entry = hashDatabase.getEntry(path);
+            if (entry == null) {
+                report(NEW, path);
+            } else if (quick && entry.matches(attrs)) {
+                report(EQUAL, path);
+                hashDatabase.mark(path);
+            } else if (entry.isTree()) {
+                verify(file, attrs, entry.getDigest());
+                hashDatabase.mark(path);
             } else {
-                String hash = getHash(file);
-                if (hash.equalsIgnoreCase(oldHash)) {
-                    logger.info("{} {}", EQUAL, file.toString());
-                } else {
-                    logger.info("{} {}", MODIFIED, file.toString());
-                }
-                hashDatabase.mark(file.toString());
+                final byte[] oldDigest = entry.getDigest();
+                final boolean sampled = entry.isSampled();
+                hash(file, path, attrs, entry.getKind(), new HashPipeline.Callback() {
+                    @Override
+                    public void done(byte[] digest) throws IOException {
+                        if (Arrays.equals(digest, oldDigest)) {
+                            reportWriter.write(sampled ? SAMPLED : EQUAL, path);
+                        } else {
+                            reportWriter.write(MODIFIED, path);
+                        }
+                    }
+                });
+                hashDatabase.mark(path);
             }
         }
 
         return FileVisitResult.CONTINUE;
     }
 
+    private void verify(Path file, BasicFileAttributes attrs, final byte[] oldDigest) throws IOException {
+        final String path = file.toString();
+        final long size = attrs.size();
+        final byte[][] expected = blockManifest.get(path, oldDigest);
+        hashPipeline.submitTree(file, HashEntry.toFileKey(attrs), size, expected, new HashPipeline.TreeCallback() {
+            private byte[][] blocks = null;
+
+            @Override
+            public void blocks(byte[][] digests) {
+                blocks = digests;
+            }
+
+            @Override
+            public void done(byte[] digest) throws IOException {
+                if (Arrays.equals(digest, oldDigest)) {
+                    reportWriter.write(EQUAL, path);
+                } else {
+                    reportWriter.write(MODIFIED, path);
+                    if (expected != null) {
+                        logChanges(path, size, expected, blocks);
+                    }
+                }
+            }
+        });
+    }
+
+    /**
+     * Logs the byte ranges of the hashed blocks which differ from the
+     * manifest. Adjacent blocks are merged into one range.
+     */
+    private static void logChanges(String path, long size, byte[][] expected, byte[][] blocks) {
+        int start = -1;
+        for (int i = 0; i <= blocks.length; ++i) {
+            boolean changed = i < blocks.length && blocks[i] != null
+                && (i >= expected.length || !Arrays.equals(blocks[i], expected[i]));
+            if (changed && start == -1) {
+                start = i;
+            } else if (!changed && start != -1) {
+                long end = Math.min((long) i * Hasher.BLOCK_SIZE, size);
+                logger.info("Bytes {} to {} of {} changed", (long) start * Hasher.BLOCK_SIZE, end, path);
+                start = -1;
+            }
+        }
+    }
+
     @Override
     public void doFinal() {
-        for (String path : hashDatabase.getUnmarked()) {
-            logger.info("{} {}", DELETED, path);
+        try {
+            for (String path : hashDatabase.getUnmarked()) {
+                reportWriter.write(DELETED, path);
+            }
+        } catch (IOException e) {
+            logger.warn("Cannot write report");
         }
 
         super.doFinal();
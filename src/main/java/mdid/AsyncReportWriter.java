@@ -0,0 +1,207 @@
+/*
+** Copyright 2012 Phokham Nonava
+**
+** This file is part of Message Digest Integrity Database.
+**
+** Message Digest Integrity Database is free software: you can redistribute it and/or modify
+** it under the terms of the GNU Lesser General Public License as published by
+** the Free Software Foundation, either version 3 of the License, or
+** (at your option) any later version.
+**
+** Message Digest Integrity Database is distributed in the hope that it will be useful,
+** but WITHOUT ANY WARRANTY; without even the implied warranty of
+** MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+** GNU Lesser General Public License for more details.
+**
+** You should have received a copy of the GNU Lesser General Public License
+** along with Message Digest Integrity Database.  If not, see <http://www.gnu.org/licenses/>.
+*/
+package mdid;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+
+/**
+ * Hands results to a background thread, which writes them to another report
+ * writer in batches. The caller only pays for putting a result into a queue.
+ * A quiet writer drops equal results.
+ *
+ * Failures of the background thread are thrown by the next call.
+ *
+ * @author Phokham Nonava
+ */
+public class AsyncReportWriter implements ReportWriter {
+
+    private static final int CAPACITY = 64 * 1024;
+    private static final int BATCH_SIZE = 4 * 1024;
+
+    private final ReportWriter reportWriter;
+    private final boolean quiet;
+    private final BlockingQueue<Item> queue = new ArrayBlockingQueue<>(CAPACITY);
+    private final Thread thread;
+
+    private volatile IOException failure = null;
+    private boolean closed = false;
+
+    public AsyncReportWriter(ReportWriter reportWriter, boolean quiet) {
+        Objects.requireNonNull(reportWriter);
+
+        this.reportWriter = reportWriter;
+        this.quiet = quiet;
+
+        thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                drain();
+            }
+        }, "mdid-reporter");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    @Override
+    public void write(String result, String path) throws IOException {
+        Objects.requireNonNull(result);
+        Objects.requireNonNull(path);
+
+        if (quiet && (result.equals(AbstractOperationMode.EQUAL) || result.equals(AbstractOperationMode.SAMPLED))) {
+            return;
+        }
+
+        put(new Item(result, path, null));
+    }
+
+    /**
+     * Waits until all results so far are written.
+     */
+    @Override
+    public void flush() throws IOException {
+        CountDownLatch latch = new CountDownLatch(1);
+        put(new Item(null, null, latch));
+        await(latch);
+        checkFailure();
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+
+        try {
+            put(Item.END);
+            thread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while closing report");
+        } finally {
+            reportWriter.close();
+        }
+        checkFailure();
+    }
+
+    private void put(Item item) throws IOException {
+        checkFailure();
+        if (closed && item != Item.END) {
+            throw new IOException("Report is closed");
+        }
+
+        try {
+            queue.put(item);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while writing report");
+        }
+    }
+
+    private static void await(CountDownLatch latch) throws IOException {
+        try {
+            latch.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while flushing report");
+        }
+    }
+
+    private void checkFailure() throws IOException {
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    private void drain() {
+        List<Item> batch = new ArrayList<>(BATCH_SIZE);
+        try {
+            while (true) {
+                batch.add(queue.take());
+                queue.drainTo(batch, BATCH_SIZE - 1);
+
+                for (Item item : batch) {
+                    if (item == Item.END) {
+                        reportWriter.flush();
+                        return;
+                    } else if (item.latch != null) {
+                        reportWriter.flush();
+                        item.latch.countDown();
+                    } else {
+                        reportWriter.write(item.result, item.path);
+                    }
+                }
+                batch.clear();
+
+                reportWriter.flush();
+            }
+        } catch (IOException e) {
+            failure = e;
+
+            // Keep releasing waiting callers
+            for (Item item : batch) {
+                if (item.latch != null) {
+                    item.latch.countDown();
+                }
+            }
+            discard();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void discard() {
+        try {
+            while (true) {
+                Item item = queue.take();
+                if (item == Item.END) {
+                    return;
+                } else if (item.latch != null) {
+                    item.latch.countDown();
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static final class Item {
+
+        private static final Item END = new Item(null, null, null);
+
+        private final String result;
+        private final String path;
+        private final CountDownLatch latch;
+
+        private Item(String result, String path, CountDownLatch latch) {
+            this.result = result;
+            this.path = path;
+            this.latch = latch;
+        }
+
+    }
+
+}
@@ -0,0 +1,390 @@
+/*
+** Copyright 2012 Phokham Nonava
+**
+** This file is part of Message Digest Integrity Database.
+**
+** Message Digest Integrity Database is free software: you can redistribute it and/or modify
+** it under the terms of the GNU Lesser General Public License as published by
+** the Free Software Foundation, either version 3 of the License, or
+** (at your option) any later version.
+**
+** Message Digest Integrity Database is distributed in the hope that it will be useful,
+** but WITHOUT ANY WARRANTY; without even the implied warranty of
+** MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+** GNU Lesser General Public License for more details.
+**
+** You should have received a copy of the GNU Lesser General Public License
+** along with Message Digest Integrity Database.  If not, see <http://www.gnu.org/licenses/>.
+*/
+package mdid;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Objects;
+
+/**
+ * A memory-mapped binary hash file. The file consists of a header, a string
+ * region holding the UTF-8 encoded paths, file keys and directory paths,
+ * fixed-width records sorted by {@link PathComparator} and fixed-width
+ * directory records in the same order.
+ *
+ * <pre>
+ * header: magic[8] version:int digestLength:int count:long recordsOffset:long algorithm[16]
+ *         directoryDigestLength:int directoryCount:int directoriesOffset:long
+ * record: digest[digestLength] size:long lastModified:long stringOffset:long pathLength:int keyLength:int flags:int
+ * directory: digest[directoryDigestLength] stringOffset:long pathLength:int first:int end:int
+ * </pre>
+ *
+ * The algorithm is the ASCII name of the digest algorithm padded with zeros.
+ * Version 1 files lack it and were written with SHA-1.
+ *
+ * Every directory containing an entry has a Merkle digest over the names,
+ * types and digests of its children, so equal digests mean equal subtrees.
+ * The entries of its subtree are the records from first (inclusive) to end
+ * (exclusive). The root is the empty path. Files before version 3 have no
+ * directories.
+ *
+ * The flags of a record mark sampled and tree entries. Files before version
+ * 4 have no flags.
+ *
+ * Opening the file only maps it. Lookups are done by binary search without
+ * loading the entries onto the heap.
+ *
+ * @author Phokham Nonava
+ */
+public final class BinaryHashFile implements Closeable {
+
+    static final byte[] MAGIC = {'M', 'D', 'I', 'D', 'H', 'A', 'S', 'H'};
+    static final int VERSION = 4;
+    static final int ALGORITHM_SIZE = 16;
+    static final int HEADER_SIZE = MAGIC.length + 4 + 4 + 8 + 8 + ALGORITHM_SIZE + 4 + 4 + 8;
+    static final Charset CHARSET = Charset.forName("UTF-8");
+    static final int SAMPLED = 1;
+    static final int TREE = 2;
+
+    private static final int VERSION_1 = 1;
+    private static final int VERSION_1_HEADER_SIZE = MAGIC.length + 4 + 4 + 8 + 8;
+    private static final int VERSION_2 = 2;
+    private static final int VERSION_2_HEADER_SIZE = VERSION_1_HEADER_SIZE + ALGORITHM_SIZE;
+    private static final int VERSION_3 = 3;
+
+    private final FileChannel channel;
+    private final String algorithm;
+    private final int digestLength;
+    private final int recordSize;
+    private final boolean flags;
+    private final int count;
+    private final MappedByteBuffer strings;
+    private final MappedByteBuffer records;
+
+    private final int directoryDigestLength;
+    private final int directoryRecordSize;
+    private final int directoryCount;
+    private final MappedByteBuffer directories;
+
+    public BinaryHashFile(Path hashFile) throws IOException {
+        Objects.requireNonNull(hashFile);
+
+        channel = FileChannel.open(hashFile, StandardOpenOption.READ);
+        try {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            while (header.hasRemaining() && channel.read(header) != -1) {
+            }
+            header.flip();
+
+            byte[] magic = new byte[MAGIC.length];
+            if (header.remaining() < VERSION_1_HEADER_SIZE || !Arrays.equals(MAGIC, readBytes(header, magic))) {
+                throw new IOException("Invalid binary hash file: " + hashFile.toString());
+            }
+            int version = header.getInt();
+            int headerSize;
+            if (version == VERSION || version == VERSION_3) {
+                headerSize = HEADER_SIZE;
+            } else if (version == VERSION_2) {
+                headerSize = VERSION_2_HEADER_SIZE;
+            } else if (version == VERSION_1) {
+                headerSize = VERSION_1_HEADER_SIZE;
+            } else {
+                throw new IOException("Unsupported binary hash file version: " + version);
+            }
+            if (header.limit() < headerSize) {
+                throw new IOException("Invalid binary hash file: " + hashFile.toString());
+            }
+            digestLength = header.getInt();
+            long entries = header.getLong();
+            long recordsOffset = header.getLong();
+            if (version >= VERSION_2) {
+                algorithm = readAlgorithm(header);
+            } else {
+                algorithm = HashDatabase.MESSAGEDIGEST;
+            }
+            long directoriesOffset;
+            if (version >= VERSION_3) {
+                directoryDigestLength = header.getInt();
+                directoryCount = header.getInt();
+                directoriesOffset = header.getLong();
+            } else {
+                directoryDigestLength = 0;
+                directoryCount = 0;
+                directoriesOffset = channel.size();
+            }
+
+            flags = version >= VERSION;
+            recordSize = recordSize(digestLength, flags);
+            directoryRecordSize = directoryRecordSize(directoryDigestLength);
+            if (digestLength < 0 || entries < 0 || entries > Integer.MAX_VALUE / recordSize
+                    || recordsOffset < headerSize || recordsOffset + entries * recordSize != directoriesOffset
+                    || directoryDigestLength < 0 || directoryCount < 0 || directoryCount > Integer.MAX_VALUE / directoryRecordSize
+                    || directoriesOffset + (long) directoryCount * directoryRecordSize != channel.size()) {
+                throw new IOException("Invalid binary hash file: " + hashFile.toString());
+            }
+            if (recordsOffset - headerSize > Integer.MAX_VALUE) {
+                throw new IOException("Binary hash file is too large: " + hashFile.toString());
+            }
+            count = (int) entries;
+
+            strings = channel.map(FileChannel.MapMode.READ_ONLY, headerSize, recordsOffset - headerSize);
+            records = channel.map(FileChannel.MapMode.READ_ONLY, recordsOffset, entries * recordSize);
+            directories = channel.map(FileChannel.MapMode.READ_ONLY, directoriesOffset, (long) directoryCount * directoryRecordSize);
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Returns whether the file starts with the binary hash file magic.
+     */
+    public static boolean isBinary(Path hashFile) throws IOException {
+        Objects.requireNonNull(hashFile);
+
+        try (FileChannel fileChannel = FileChannel.open(hashFile, StandardOpenOption.READ)) {
+            ByteBuffer magic = ByteBuffer.allocate(MAGIC.length);
+            while (magic.hasRemaining() && fileChannel.read(magic) != -1) {
+            }
+
+            return !magic.hasRemaining() && Arrays.equals(MAGIC, magic.array());
+        }
+    }
+
+    static int recordSize(int digestLength) {
+        return recordSize(digestLength, true);
+    }
+
+    private static int recordSize(int digestLength, boolean flags) {
+        return digestLength + 8 + 8 + 8 + 4 + 4 + (flags ? 4 : 0);
+    }
+
+    static int directoryRecordSize(int digestLength) {
+        return digestLength + 8 + 4 + 4 + 4;
+    }
+
+    public int size() {
+        return count;
+    }
+
+    public String getAlgorithm() {
+        return algorithm;
+    }
+
+    public int getDigestLength() {
+        return digestLength;
+    }
+
+    /**
+     * Returns the index of the path or -1 if the path is not in the file.
+     */
+    public int find(String path) {
+        Objects.requireNonNull(path);
+
+        PathComparator comparator = PathComparator.getInstance();
+
+        int low = 0;
+        int high = count - 1;
+        while (low <= high) {
+            int middle = (low + high) >>> 1;
+            int result = comparator.compare(getPath(middle), path);
+            if (result < 0) {
+                low = middle + 1;
+            } else if (result > 0) {
+                high = middle - 1;
+            } else {
+                return middle;
+            }
+        }
+
+        return -1;
+    }
+
+    /**
+     * Returns the index of the first entry not sorted before the path, which
+     * is the size if there is none.
+     */
+    public int findFirst(String path) {
+        Objects.requireNonNull(path);
+
+        PathComparator comparator = PathComparator.getInstance();
+
+        int low = 0;
+        int high = count;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (comparator.compare(getPath(middle), path) < 0) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+
+        return low;
+    }
+
+    public String getPath(int index) {
+        int position = index * recordSize + digestLength + 8 + 8;
+        long offset = records.getLong(position);
+        int pathLength = records.getInt(position + 8);
+
+        return getString(offset, pathLength);
+    }
+
+    public HashEntry getEntry(int index) {
+        int position = index * recordSize;
+
+        byte[] digest = new byte[digestLength];
+        ByteBuffer view = records.duplicate();
+        view.position(position);
+        view.get(digest);
+
+        long size = view.getLong();
+        long lastModified = view.getLong();
+        long offset = view.getLong();
+        int pathLength = view.getInt();
+        int keyLength = view.getInt();
+        HashEntry.Kind kind = HashEntry.Kind.FULL;
+        if (flags) {
+            int recordFlags = view.getInt();
+            if ((recordFlags & SAMPLED) != 0) {
+                kind = HashEntry.Kind.SAMPLED;
+            } else if ((recordFlags & TREE) != 0) {
+                kind = HashEntry.Kind.TREE;
+            }
+        }
+
+        String fileKey = null;
+        if (keyLength >= 0) {
+            fileKey = getString(offset + pathLength, keyLength);
+        }
+
+        return new HashEntry(digest, size, lastModified, fileKey, kind);
+    }
+
+    public int getDirectoryCount() {
+        return directoryCount;
+    }
+
+    /**
+     * Returns the index of the directory or -1 if the directory is not in the
+     * file.
+     */
+    public int findDirectory(String path) {
+        Objects.requireNonNull(path);
+
+        PathComparator comparator = PathComparator.getInstance();
+
+        int low = 0;
+        int high = directoryCount - 1;
+        while (low <= high) {
+            int middle = (low + high) >>> 1;
+            int result = comparator.compare(getDirectoryPath(middle), path);
+            if (result < 0) {
+                low = middle + 1;
+            } else if (result > 0) {
+                high = middle - 1;
+            } else {
+                return middle;
+            }
+        }
+
+        return -1;
+    }
+
+    public String getDirectoryPath(int index) {
+        int position = index * directoryRecordSize + directoryDigestLength;
+        long offset = directories.getLong(position);
+        int pathLength = directories.getInt(position + 8);
+
+        return getString(offset, pathLength);
+    }
+
+    public byte[] getDirectoryDigest(int index) {
+        byte[] digest = new byte[directoryDigestLength];
+        ByteBuffer view = directories.duplicate();
+        view.position(index * directoryRecordSize);
+        view.get(digest);
+
+        return digest;
+    }
+
+    /**
+     * Returns the index of the first entry below the directory.
+     */
+    public int getDirectoryFirst(int index) {
+        return directories.getInt(index * directoryRecordSize + directoryDigestLength + 8 + 4);
+    }
+
+    /**
+     * Returns the index after the last entry below the directory.
+     */
+    public int getDirectoryEnd(int index) {
+        return directories.getInt(index * directoryRecordSize + directoryDigestLength + 8 + 4 + 4);
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    private String getString(long offset, int length) {
+        byte[] bytes = new byte[length];
+        ByteBuffer view = strings.duplicate();
+        view.position((int) offset);
+        view.get(bytes);
+
+        return new String(bytes, CHARSET);
+    }
+
+    /**
+     * Encodes the algorithm name for the header.
+     */
+    static byte[] encodeAlgorithm(String algorithm) {
+        byte[] name = algorithm.getBytes(CHARSET);
+        if (name.length > ALGORITHM_SIZE) {
+            throw new IllegalArgumentException("Algorithm name too long: " + algorithm);
+        }
+
+        return Arrays.copyOf(name, ALGORITHM_SIZE);
+    }
+
+    private static String readAlgorithm(ByteBuffer header) {
+        byte[] name = readBytes(header, new byte[ALGORITHM_SIZE]);
+        int length = 0;
+        while (length < name.length && name[length] != 0) {
+            ++length;
+        }
+
+        return new String(name, 0, length, CHARSET);
+    }
+
+    private static byte[] readBytes(ByteBuffer buffer, byte[] bytes) {
+        buffer.get(bytes);
+        return bytes;
+    }
+
+}
@@ -0,0 +1,99 @@
+/*
+** Copyright 2012 Phokham Nonava
+**
+** This file is part of Message Digest Integrity Database.
+**
+** Message Digest Integrity Database is free software: you can redistribute it and/or modify
+** it under the terms of the GNU Lesser General Public License as published by
+** the Free Software Foundation, either version 3 of the License, or
+** (at your option) any later version.
+**
+** Message Digest Integrity Database is distributed in the hope that it will be useful,
+** but WITHOUT ANY WARRANTY; without even the implied warranty of
+** MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+** GNU Lesser General Public License for more details.
+**
+** You should have received a copy of the GNU Lesser General Public License
+** along with Message Digest Integrity Database.  If not, see <http://www.gnu.org/licenses/>.
+*/
+package mdid;
+
+import java.io.IOException;
+import java.nio.file.Path;
+
+/**
+ * Reads the entries of a {@link BinaryHashFile} in record order.
+ *
+ * @author Phokham Nonava
+ */
+public class BinaryHashFileReader implements HashFileReader {
+
+    private final BinaryHashFile binaryHashFile;
+
+    private int index = -1;
+
+    public BinaryHashFileReader(Path hashFile) throws IOException {
+        binaryHashFile = new BinaryHashFile(hashFile);
+    }
+
+    @Override
+    public String getAlgorithm() {
+        return binaryHashFile.getAlgorithm();
+    }
+
+    @Override
+    public boolean next() {
+        if (index < binaryHashFile.size()) {
+            ++index;
+        }
+
+        return index < binaryHashFile.size();
+    }
+
+    @Override
+    public String getPath() {
+        if (index < 0 || index >= binaryHashFile.size()) {
+            return null;
+        }
+
+        return binaryHashFile.getPath(index);
+    }
+
+    @Override
+    public HashEntry getEntry() {
+        if (index < 0 || index >= binaryHashFile.size()) {
+            return null;
+        }
+
+        return binaryHashFile.getEntry(index);
+    }
+
+    BinaryHashFile getBinaryHashFile() {
+        return binaryHashFile;
+    }
+
+    /**
+     * Returns the index of the current entry.
+     */
+    int getIndex() {
+        return index;
+    }
+
+    /**
+     * Makes the entry at the index the current entry, skipping the ones in
+     * between.
+     */
+    void skipTo(int newIndex) {
+        if (newIndex < index || newIndex > binaryHashFile.size()) {
+            throw new IllegalArgumentException("Invalid index: " + newIndex);
+        }
+
+        index = newIndex;
+    }
+
+    @Override
+    public void close() throws IOException {
+        binaryHashFile.close();
+    }
+
+}
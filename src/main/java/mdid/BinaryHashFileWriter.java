@@ -0,0 +1,294 @@
+/*
+** Copyright 2012 Phokham Nonava
+**
+** This file is part of Message Digest Integrity Database.
+**
+** Message Digest Integrity Database is free software: you can redistribute it and/or modify
+** it under the terms of the GNU Lesser General Public License as published by
+** the Free Software Foundation, either version 3 of the License, or
+** (at your option) any later version.
+**
+** Message Digest Integrity Database is distributed in the hope that it will be useful,
+** but WITHOUT ANY WARRANTY; without even the implied warranty of
+** MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+** GNU Lesser General Public License for more details.
+**
+** You should have received a copy of the GNU Lesser General Public License
+** along with Message Digest Integrity Database.  If not, see <http://www.gnu.org/licenses/>.
+*/
+package mdid;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.Objects;
+
+/**
+ * Writes a {@link BinaryHashFile}. The strings are written directly behind
+ * the header while the records are collected in a temporary file and
+ * appended on close.
+ *
+ * The directory digests are computed on the fly. As the entries arrive in
+ * path order, the open directories form a stack from the root to the parent
+ * of the current entry. A directory is complete as soon as an entry outside
+ * of it arrives.
+ *
+ * @author Phokham Nonava
+ */
+public class BinaryHashFileWriter implements HashFileWriter {
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private static final byte FILE = 'F';
+    private static final byte DIRECTORY = 'D';
+
+    private final FileChannel channel;
+    private final FileChannel recordChannel;
+    private final ByteBuffer stringBuffer = ByteBuffer.allocate(BUFFER_SIZE);
+    private final ByteBuffer recordBuffer = ByteBuffer.allocate(BUFFER_SIZE);
+    private final String algorithm;
+    private final char separator = PathComparator.getInstance().getSeparator();
+
+    private int digestLength = -1;
+    private long count = 0;
+    private long stringOffset = 0;
+    private String lastPath = null;
+
+    // Directories in path order, and the ones still open
+    private final List<Directory> directories = new ArrayList<>();
+    private final Deque<Directory> openDirectories = new ArrayDeque<>();
+
+    public BinaryHashFileWriter(Path hashFile, String algorithm) throws IOException {
+        Objects.requireNonNull(hashFile);
+        Objects.requireNonNull(algorithm);
+
+        this.algorithm = algorithm;
+        BinaryHashFile.encodeAlgorithm(algorithm);
+
+        channel = FileChannel.open(hashFile, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE);
+        try {
+            Path recordFile = Files.createTempFile(hashFile.toAbsolutePath().getParent(), "mdid", null);
+            recordChannel = FileChannel.open(recordFile, StandardOpenOption.READ, StandardOpenOption.WRITE, StandardOpenOption.DELETE_ON_CLOSE);
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+        channel.position(BinaryHashFile.HEADER_SIZE);
+
+        openDirectory("");
+    }
+
+    @Override
+    public void write(String path, HashEntry entry) throws IOException {
+        Objects.requireNonNull(path);
+        Objects.requireNonNull(entry);
+
+        if (lastPath != null && PathComparator.getInstance().compare(lastPath, path) >= 0) {
+            throw new IllegalArgumentException("Entries are not sorted: " + path);
+        }
+        lastPath = path;
+
+        byte[] digest = entry.getDigest();
+        if (digestLength == -1) {
+            digestLength = digest.length;
+        } else if (digestLength != digest.length) {
+            throw new IOException("Inconsistent digest length: " + path);
+        }
+
+        // Complete the directories not containing the path and open the ones
+        // between the innermost remaining directory and the path
+        while (!contains(openDirectories.peek().path, path)) {
+            closeDirectory();
+        }
+        int start = openDirectories.peek().path.length() + 1;
+        for (int index = path.indexOf(separator, start); index != -1; index = path.indexOf(separator, index + 1)) {
+            if (index > 0) {
+                openDirectory(path.substring(0, index));
+            }
+        }
+        addChild(openDirectories.peek(), path, FILE, digest);
+
+        byte[] pathBytes = path.getBytes(BinaryHashFile.CHARSET);
+        byte[] keyBytes = null;
+        if (entry.getFileKey() != null) {
+            keyBytes = entry.getFileKey().getBytes(BinaryHashFile.CHARSET);
+        }
+
+        if (recordBuffer.remaining() < BinaryHashFile.recordSize(digestLength)) {
+            flush(recordChannel, recordBuffer);
+        }
+        recordBuffer.put(digest);
+        recordBuffer.putLong(entry.getSize());
+        recordBuffer.putLong(entry.getLastModified());
+        recordBuffer.putLong(stringOffset);
+        recordBuffer.putInt(pathBytes.length);
+        if (keyBytes == null) {
+            recordBuffer.putInt(-1);
+        } else {
+            recordBuffer.putInt(keyBytes.length);
+        }
+        if (entry.isSampled()) {
+            recordBuffer.putInt(BinaryHashFile.SAMPLED);
+        } else if (entry.isTree()) {
+            recordBuffer.putInt(BinaryHashFile.TREE);
+        } else {
+            recordBuffer.putInt(0);
+        }
+
+        putString(pathBytes);
+        if (keyBytes != null) {
+            putString(keyBytes);
+        }
+
+        ++count;
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            while (!openDirectories.isEmpty()) {
+                closeDirectory();
+            }
+
+            flush(channel, stringBuffer);
+            flush(recordChannel, recordBuffer);
+
+            long recordsOffset = channel.position();
+            long size = recordChannel.size();
+            long position = 0;
+            while (position < size) {
+                position += recordChannel.transferTo(position, size - position, channel);
+            }
+
+            long directoriesOffset = recordsOffset + size;
+            int directoryDigestLength = directories.get(0).digest.length;
+            ByteBuffer directoryBuffer = ByteBuffer.allocate(BUFFER_SIZE);
+            for (Directory directory : directories) {
+                if (directoryBuffer.remaining() < BinaryHashFile.directoryRecordSize(directoryDigestLength)) {
+                    flush(channel, directoryBuffer);
+                }
+                directoryBuffer.put(directory.digest);
+                directoryBuffer.putLong(directory.stringOffset);
+                directoryBuffer.putInt(directory.pathLength);
+                directoryBuffer.putInt(directory.first);
+                directoryBuffer.putInt(directory.end);
+            }
+            flush(channel, directoryBuffer);
+
+            ByteBuffer header = ByteBuffer.allocate(BinaryHashFile.HEADER_SIZE);
+            header.put(BinaryHashFile.MAGIC);
+            header.putInt(BinaryHashFile.VERSION);
+            header.putInt(Math.max(digestLength, 0));
+            header.putLong(count);
+            header.putLong(recordsOffset);
+            header.put(BinaryHashFile.encodeAlgorithm(algorithm));
+            header.putInt(directoryDigestLength);
+            header.putInt(directories.size());
+            header.putLong(directoriesOffset);
+            header.flip();
+            while (header.hasRemaining()) {
+                channel.write(header, header.position());
+            }
+        } finally {
+            recordChannel.close();
+            channel.close();
+        }
+    }
+
+    /**
+     * Returns whether the path lies below the directory. Every path lies
+     * below the root, which is the empty path.
+     */
+    private boolean contains(String directory, String path) {
+        return directory.isEmpty()
+            || (path.length() > directory.length() && path.charAt(directory.length()) == separator && path.startsWith(directory));
+    }
+
+    private void openDirectory(String path) throws IOException {
+        Directory directory = new Directory();
+        directory.path = path;
+        try {
+            directory.messageDigest = Algorithms.getInstance(algorithm);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IOException("Unknown algorithm: " + algorithm, e);
+        }
+        directory.first = (int) count;
+
+        byte[] pathBytes = path.getBytes(BinaryHashFile.CHARSET);
+        directory.stringOffset = stringOffset;
+        directory.pathLength = pathBytes.length;
+        putString(pathBytes);
+
+        directories.add(directory);
+        openDirectories.push(directory);
+    }
+
+    private void closeDirectory() {
+        Directory directory = openDirectories.pop();
+        directory.digest = directory.messageDigest.digest();
+        directory.messageDigest = null;
+        directory.end = (int) count;
+
+        if (!openDirectories.isEmpty()) {
+            addChild(openDirectories.peek(), directory.path, DIRECTORY, directory.digest);
+        }
+    }
+
+    /**
+     * Adds the name, type and digest of a child to the directory digest. The
+     * children arrive in path order, so equal subtrees give equal digests.
+     */
+    private void addChild(Directory directory, String path, byte type, byte[] digest) {
+        int start = directory.path.isEmpty() ? 0 : directory.path.length() + 1;
+        directory.messageDigest.update(path.substring(start).getBytes(BinaryHashFile.CHARSET));
+        directory.messageDigest.update((byte) 0);
+        directory.messageDigest.update(type);
+        directory.messageDigest.update(digest);
+    }
+
+    private void putString(byte[] bytes) throws IOException {
+        if (stringBuffer.remaining() < bytes.length) {
+            flush(channel, stringBuffer);
+        }
+        if (bytes.length > stringBuffer.capacity()) {
+            ByteBuffer buffer = ByteBuffer.wrap(bytes);
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+        } else {
+            stringBuffer.put(bytes);
+        }
+
+        stringOffset += bytes.length;
+    }
+
+    private static void flush(FileChannel fileChannel, ByteBuffer buffer) throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            fileChannel.write(buffer);
+        }
+        buffer.clear();
+    }
+
+    private static final class Directory {
+
+        private String path;
+        private MessageDigest messageDigest;
+        private byte[] digest;
+        private long stringOffset;
+        private int pathLength;
+        private int first;
+        private int end;
+
+    }
+
+}
@@ -0,0 +1,231 @@
+/*
+** Copyright 2012 Phokham Nonava
+**
+** This file is part of Message Digest Integrity Database.
+**
+** Message Digest Integrity Database is free software: you can redistribute it and/or modify
+** it under the terms of the GNU Lesser General Public License as published by
+** the Free Software Foundation, either version 3 of the License, or
+** (at your option) any later version.
+**
+** Message Digest Integrity Database is distributed in the hope that it will be useful,
+** but WITHOUT ANY WARRANTY; without even the implied warranty of
+** MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+** GNU Lesser General Public License for more details.
+**
+** You should have received a copy of the GNU Lesser General Public License
+** along with Message Digest Integrity Database.  If not, see <http://www.gnu.org/licenses/>.
+*/
+package mdid;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Holds the block digests of the tree entries of a hash database. The
+ * manifest lives next to the hash file as text lines of the form
+ *
+ * <pre>
+ * <root digest>:<block digest>:<block digest>... <path>
+ * </pre>
+ *
+ * The first line is a header naming the digest algorithm and the block size.
+ * A manifest of another algorithm or block size is ignored.
+ *
+ * The block digests only tell where a file changed. A tree entry can always
+ * be verified by its root digest, so a missing or outdated manifest costs
+ * nothing but the early stop and the changed ranges.
+ *
+ * @author Phokham Nonava
+ */
+public class BlockManifest {
+
+    public static final String SUFFIX = ".blocks";
+
+    private static final String HEADER = "# mdid blocks ";
+    private static final char SEPARATOR = ':';
+
+    private static final Logger logger = LoggerFactory.getLogger(BlockManifest.class);
+
+    private final Path manifestFile;
+    private final String algorithm;
+
+    private final Map<String, byte[][]> manifests = new HashMap<>();
+    private boolean modified = false;
+
+    /**
+     * Reads the manifest file if it exists.
+     */
+    public BlockManifest(Path manifestFile, String algorithm) throws IOException {
+        Objects.requireNonNull(manifestFile);
+        Objects.requireNonNull(algorithm);
+
+        this.manifestFile = manifestFile;
+        this.algorithm = algorithm;
+
+        if (Files.exists(manifestFile)) {
+            read();
+        }
+    }
+
+    public static Path getManifestFile(Path hashFile) {
+        Objects.requireNonNull(hashFile);
+
+        return hashFile.resolveSibling(hashFile.getFileName().toString() + SUFFIX);
+    }
+
+    /**
+     * Returns the block digests of the file, or null if there are none for
+     * the root digest.
+     */
+    public byte[][] get(String path, byte[] root) {
+        Objects.requireNonNull(path);
+        Objects.requireNonNull(root);
+
+        byte[][] manifest = manifests.get(path);
+        if (manifest == null || !Arrays.equals(manifest[0], root)) {
+            return null;
+        }
+
+        return Arrays.copyOfRange(manifest, 1, manifest.length);
+    }
+
+    public void put(String path, byte[] root, byte[][] blocks) {
+        Objects.requireNonNull(path);
+        Objects.requireNonNull(root);
+        Objects.requireNonNull(blocks);
+
+        byte[][] manifest = new byte[blocks.length + 1][];
+        manifest[0] = root;
+        System.arraycopy(blocks, 0, manifest, 1, blocks.length);
+
+        manifests.put(path, manifest);
+        modified = true;
+    }
+
+    public boolean isModified() {
+        return modified;
+    }
+
+    /**
+     * Writes the manifests of the current tree entries of the database to a
+     * temporary file, which is synced and then atomically moved over the
+     * manifest file. The manifest file is removed if there are none.
+     */
+    public void write(HashDatabase hashDatabase) throws IOException {
+        Objects.requireNonNull(hashDatabase);
+
+        List<String> paths = new ArrayList<>();
+        for (Map.Entry<String, byte[][]> entry : manifests.entrySet()) {
+            HashEntry hashEntry = hashDatabase.getEntry(entry.getKey());
+            if (hashEntry != null && hashEntry.isTree() && Arrays.equals(hashEntry.getDigest(), entry.getValue()[0])) {
+                paths.add(entry.getKey());
+            }
+        }
+        Collections.sort(paths, PathComparator.getInstance());
+
+        if (paths.isEmpty()) {
+            Files.deleteIfExists(manifestFile);
+            modified = false;
+            return;
+        }
+
+        Path tempFile = HashDatabase.createTempFile(manifestFile);
+        try {
+            try (BufferedWriter bufferedWriter = Files.newBufferedWriter(tempFile, Charset.defaultCharset())) {
+                bufferedWriter.write(getHeader());
+                bufferedWriter.newLine();
+
+                for (String path : paths) {
+                    byte[][] manifest = manifests.get(path);
+                    for (int i = 0; i < manifest.length; ++i) {
+                        if (i > 0) {
+                            bufferedWriter.write(SEPARATOR);
+                        }
+                        bufferedWriter.write(HexCodec.encode(manifest[i]));
+                    }
+                    bufferedWriter.write(' ');
+                    bufferedWriter.write(path);
+                    bufferedWriter.newLine();
+                }
+            }
+            try (FileChannel channel = FileChannel.open(tempFile, StandardOpenOption.WRITE)) {
+                channel.force(true);
+            }
+            Files.move(tempFile, manifestFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+
+            logger.info("Wrote {} block manifests", paths.size());
+        } finally {
+            Files.deleteIfExists(tempFile);
+        }
+
+        modified = false;
+    }
+
+    private void read() throws IOException {
+        try (BufferedReader bufferedReader = Files.newBufferedReader(manifestFile, Charset.defaultCharset())) {
+            String line = bufferedReader.readLine();
+            if (line == null || !line.equals(getHeader())) {
+                logger.warn("Ignoring block manifest {} of another algorithm or block size", manifestFile.toString());
+                return;
+            }
+
+            line = bufferedReader.readLine();
+            while (line != null) {
+                int index = line.indexOf(' ');
+                byte[][] manifest = index == -1 ? null : parse(line.substring(0, index));
+                if (manifest == null) {
+                    logger.warn("Invalid line format {}", line);
+                } else {
+                    manifests.put(line.substring(index + 1), manifest);
+                }
+
+                line = bufferedReader.readLine();
+            }
+        }
+    }
+
+    private String getHeader() {
+        return HEADER + algorithm + " " + Hasher.BLOCK_SIZE;
+    }
+
+    /**
+     * Parses the root and block digests, or returns null if the token is
+     * malformed.
+     */
+    private static byte[][] parse(String token) {
+        String[] fields = token.split(String.valueOf(SEPARATOR), -1);
+        if (fields.length < 2) {
+            return null;
+        }
+
+        try {
+            byte[][] manifest = new byte[fields.length][];
+            for (int i = 0; i < fields.length; ++i) {
+                manifest[i] = HexCodec.decode(fields[i]);
+            }
+
+            return manifest;
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+
+}
@@ -0,0 +1,144 @@
+/*
+** Copyright 2012 Phokham Nonava
+**
+** This file is part of Message Digest Integrity Database.
+**
+** Message Digest Integrity Database is free software: you can redistribute it and/or modify
+** it under the terms of the GNU Lesser General Public License as published by
+** the Free Software Foundation, either version 3 of the License, or
+** (at your option) any later version.
+**
+** Message Digest Integrity Database is distributed in the hope that it will be useful,
+** but WITHOUT ANY WARRANTY; without even the implied warranty of
+** MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+** GNU Lesser General Public License for more details.
+**
+** You should have received a copy of the GNU Lesser General Public License
+** along with Message Digest Integrity Database.  If not, see <http://www.gnu.org/licenses/>.
+*/
+package mdid;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.security.MessageDigest;
+
+/**
+ * A CRC-32C (Castagnoli) checksum as message digest. The checksum is computed
+ * eight bytes at a time with lookup tables and returned as four big-endian
+ * bytes, like the common crc32c tools print it. Buffers are read in place
+ * instead of being copied into an array first.
+ *
+ * It only detects accidental changes and is no cryptographic hash.
+ *
+ * @author Phokham Nonava
+ */
+public final class CRC32CDigest extends MessageDigest {
+
+    public static final String ALGORITHM = "CRC32C";
+
+    private static final int POLYNOMIAL = 0x82F63B78;
+    private static final int[][] TABLES = new int[8][256];
+
+    static {
+        for (int i = 0; i < 256; ++i) {
+            int crc = i;
+            for (int j = 0; j < 8; ++j) {
+                crc = (crc >>> 1) ^ (POLYNOMIAL & -(crc & 1));
+            }
+            TABLES[0][i] = crc;
+        }
+        for (int i = 0; i < 256; ++i) {
+            for (int table = 1; table < TABLES.length; ++table) {
+                int previous = TABLES[table - 1][i];
+                TABLES[table][i] = (previous >>> 8) ^ TABLES[0][previous & 0xFF];
+            }
+        }
+    }
+
+    private int crc = 0xFFFFFFFF;
+
+    public CRC32CDigest() {
+        super(ALGORITHM);
+    }
+
+    @Override
+    protected int engineGetDigestLength() {
+        return 4;
+    }
+
+    @Override
+    protected void engineUpdate(byte input) {
+        crc = (crc >>> 8) ^ TABLES[0][(crc ^ input) & 0xFF];
+    }
+
+    @Override
+    protected void engineUpdate(byte[] input, int offset, int length) {
+        int value = crc;
+        int i = offset;
+        int end = offset + length;
+        for (; i + 8 <= end; i += 8) {
+            int low = (input[i] & 0xFF)
+                | (input[i + 1] & 0xFF) << 8
+                | (input[i + 2] & 0xFF) << 16
+                | (input[i + 3] & 0xFF) << 24;
+            int high = (input[i + 4] & 0xFF)
+                | (input[i + 5] & 0xFF) << 8
+                | (input[i + 6] & 0xFF) << 16
+                | (input[i + 7] & 0xFF) << 24;
+            value = update(value, low, high);
+        }
+        for (; i < end; ++i) {
+            value = (value >>> 8) ^ TABLES[0][(value ^ input[i]) & 0xFF];
+        }
+
+        crc = value;
+    }
+
+    @Override
+    protected void engineUpdate(ByteBuffer input) {
+        if (input.hasArray()) {
+            engineUpdate(input.array(), input.arrayOffset() + input.position(), input.remaining());
+            input.position(input.limit());
+            return;
+        }
+
+        ByteBuffer buffer = input.slice().order(ByteOrder.LITTLE_ENDIAN);
+        int value = crc;
+        int i = 0;
+        int end = buffer.limit();
+        for (; i + 8 <= end; i += 8) {
+            long word = buffer.getLong(i);
+            value = update(value, (int) word, (int) (word >>> 32));
+        }
+        for (; i < end; ++i) {
+            value = (value >>> 8) ^ TABLES[0][(value ^ buffer.get(i)) & 0xFF];
+        }
+
+        crc = value;
+        input.position(input.limit());
+    }
+
+    @Override
+    protected byte[] engineDigest() {
+        int value = ~crc;
+        engineReset();
+
+        return new byte[] {(byte) (value >>> 24), (byte) (value >>> 16), (byte) (value >>> 8), (byte) value};
+    }
+
+    @Override
+    protected void engineReset() {
+        crc = 0xFFFFFFFF;
+    }
+
+    /**
+     * Advances the checksum by eight bytes given as two little-endian ints.
+     */
+    private static int update(int crc, int low, int high) {
+        low ^= crc;
+
+        return TABLES[7][low & 0xFF] ^ TABLES[6][(low >>> 8) & 0xFF] ^ TABLES[5][(low >>> 16) & 0xFF] ^ TABLES[4][low >>> 24]
+            ^ TABLES[3][high & 0xFF] ^ TABLES[2][(high >>> 8) & 0xFF] ^ TABLES[1][(high >>> 16) & 0xFF] ^ TABLES[0][high >>> 24];
+    }
+
+}
@@ -36,8 +36,11 @@ public final class Configuration {
 
     private static final Configuration instance = new Configuration();
 
-    public AbstractOperationMode mode = null;
+    public OperationMode mode = null;
     public Path path = null;
+    public ReportWriter reportWriter = null;
+    // Only set for the modes hashing files
+    public Metrics metrics = null;
 
     private Configuration() {
     }
@@ -51,6 +54,22 @@ public final class Configuration {
         OptionParser parser = new OptionParser();
         OptionSpec<Path> hashDatabaseArg = parser.accepts("f").withRequiredArg().withValuesConvertedBy(new PathConverter()).defaultsTo(Paths.get(HashDatabase.FILENAME));
         OptionSpec<Path> exceptionDatabaseArg = parser.accepts("e").withRequiredArg().withValuesConvertedBy(new PathConverter());
+        parser.accepts("q");
+        parser.accepts("s");
+        parser.accepts("resume");
+        parser.accepts("quiet");
+        parser.accepts("per-device");
+        OptionSpec<Integer> threadsArg = parser.accepts("j").withRequiredArg().ofType(Integer.class).defaultsTo(1);
+        OptionSpec<Integer> bufferSizeArg = parser.accepts("b").withRequiredArg().ofType(Integer.class).defaultsTo(Hasher.DEFAULT_BUFFER_SIZE / 1024);
+        OptionSpec<String> strategyArg = parser.accepts("m").withRequiredArg().defaultsTo("read");
+        OptionSpec<String> formatArg = parser.accepts("t").withRequiredArg().defaultsTo("text");
+        OptionSpec<String> algorithmArg = parser.accepts("a").withRequiredArg();
+        OptionSpec<String> reportArg = parser.accepts("report").withRequiredArg().defaultsTo("text");
+        OptionSpec<Long> sampleArg = parser.accepts("sample").withRequiredArg().ofType(Long.class);
+        OptionSpec<Long> blocksArg = parser.accepts("blocks").withRequiredArg().ofType(Long.class);
+        OptionSpec<Long> rateArg = parser.accepts("rate").withRequiredArg().ofType(Long.class).defaultsTo(0L);
+        OptionSpec<Long> fileRateArg = parser.accepts("file-rate").withRequiredArg().ofType(Long.class).defaultsTo(0L);
+        OptionSpec<Long> backoffArg = parser.accepts("backoff").withRequiredArg().ofType(Long.class).defaultsTo(0L);
 
         // Parse arguments
         OptionSet options = parser.parse(args);
@@ -77,15 +96,190 @@ public final class Configuration {
             }
         }
 
+        // Get the number of hashing threads, which is per device if files
+        // are scheduled per device
+        int threads = threadsArg.value(options);
+        if (threads < 1) {
+            throw new OptionException("Invalid number of threads: " + threads);
+        }
+
+        // Get the read buffer size in kilobytes
+        int bufferSize = bufferSizeArg.value(options);
+        if (bufferSize < 1 || bufferSize > Integer.MAX_VALUE / 1024) {
+            throw new OptionException("Invalid buffer size: " + bufferSize);
+        }
+
+        // Get the read strategy
+        Hasher.Strategy strategy;
+        if (strategyArg.value(options).equalsIgnoreCase("read")) {
+            strategy = Hasher.Strategy.READ;
+        } else if (strategyArg.value(options).equalsIgnoreCase("mmap")) {
+            strategy = Hasher.Strategy.MMAP;
+        } else {
+            throw new OptionException("Unknown read strategy: " + strategyArg.value(options));
+        }
+
+        // Get the format of new hash files
+        HashDatabase.Format format;
+        if (formatArg.value(options).equalsIgnoreCase("text")) {
+            format = HashDatabase.Format.TEXT;
+        } else if (formatArg.value(options).equalsIgnoreCase("binary")) {
+            format = HashDatabase.Format.BINARY;
+        } else {
+            throw new OptionException("Unknown hash file format: " + formatArg.value(options));
+        }
+
+        // Get the digest algorithm. Existing hash files default to the
+        // algorithm they were written with.
+        String algorithm;
+        if (options.hasArgument(algorithmArg)) {
+            algorithm = Algorithms.find(algorithmArg.value(options));
+            if (algorithm == null) {
+                throw new OptionException("Unknown algorithm: " + algorithmArg.value(options) + ", use one of " + Algorithms.getNames());
+            }
+        } else if (!nonOptionArgs.get(0).equalsIgnoreCase("index") && Files.exists(hashDatabase)) {
+            algorithm = HashDatabase.readAlgorithm(hashDatabase);
+        } else {
+            algorithm = HashDatabase.MESSAGEDIGEST;
+        }
+
+        // Get the size in megabytes above which files are sampled
+        long sampleThreshold = -1;
+        if (options.hasArgument(sampleArg)) {
+            sampleThreshold = sampleArg.value(options);
+            if (sampleThreshold < 0 || sampleThreshold > Long.MAX_VALUE / (1024 * 1024)) {
+                throw new OptionException("Invalid sample threshold: " + sampleThreshold);
+            }
+            sampleThreshold *= 1024 * 1024;
+        }
+
+        // Get the size in megabytes above which files are hashed as blocks
+        long blockThreshold = -1;
+        if (options.hasArgument(blocksArg)) {
+            blockThreshold = blocksArg.value(options);
+            if (blockThreshold < 0 || blockThreshold > Long.MAX_VALUE / (1024 * 1024)) {
+                throw new OptionException("Invalid block threshold: " + blockThreshold);
+            }
+            blockThreshold *= 1024 * 1024;
+        }
+
+        // Get the report format. Results go to standard output, the log to
+        // standard error.
+        ReportWriter formatWriter;
+        if (reportArg.value(options).equalsIgnoreCase("text")) {
+            formatWriter = new TextReportWriter(System.out);
+        } else if (reportArg.value(options).equalsIgnoreCase("json")) {
+            formatWriter = new JsonReportWriter(System.out);
+        } else {
+            throw new OptionException("Unknown report format: " + reportArg.value(options));
+        }
+        reportWriter = new AsyncReportWriter(formatWriter, options.has("quiet"));
+
+        // Convert and diff only read hash files, they need no hashers
+        String modeName = nonOptionArgs.get(0);
+        if (modeName.equalsIgnoreCase("convert")) {
+            if (nonOptionArgs.size() != 2) {
+                throw new OptionException("Please specify a target hash file");
+            }
+
+            mode = new ConversionMode(hashDatabase, format);
+            path = Paths.get(nonOptionArgs.get(1)).normalize();
+            return;
+        } else if (modeName.equalsIgnoreCase("diff")) {
+            if (nonOptionArgs.size() != 2) {
+                throw new OptionException("Please specify a hash file to compare with");
+            }
+
+            DiffMode diffMode = new DiffMode(hashDatabase);
+            diffMode.setReportWriter(reportWriter);
+            mode = diffMode;
+            path = Paths.get(nonOptionArgs.get(1)).normalize();
+            if (!Files.exists(path)) {
+                throw new OptionException("File does not exist: " + path.toString());
+            }
+            return;
+        } else if (!modeName.equalsIgnoreCase("index")
+                && !modeName.equalsIgnoreCase("update")
+                && !modeName.equalsIgnoreCase("watch")
+                && !modeName.equalsIgnoreCase("analyze")
+                && !modeName.equalsIgnoreCase("dupes")) {
+            throw new OptionException("Unknown operation mode: " + modeName);
+        }
+
+        // Get the limits of the hashers, which are zero if unlimited
+        long rate = rateArg.value(options);
+        if (rate < 0 || rate > Long.MAX_VALUE / (1024 * 1024)) {
+            throw new OptionException("Invalid rate: " + rate);
+        }
+        long fileRate = fileRateArg.value(options);
+        if (fileRate < 0) {
+            throw new OptionException("Invalid file rate: " + fileRate);
+        }
+        long backoff = backoffArg.value(options);
+        if (backoff < 0) {
+            throw new OptionException("Invalid backoff latency: " + backoff);
+        }
+
+        // Collect metrics, which are available over JMX during the run
+        metrics = new Metrics();
+        metrics.register();
+        metrics.startPhase("load");
+        reportWriter = metrics.newReportWriter(reportWriter);
+
+        // The throttle is always registered, so limits can be set during the
+        // run
+        Throttle throttle = new Throttle();
+        throttle.setBytesPerSecond(rate * 1024 * 1024);
+        throttle.setFilesPerSecond(fileRate);
+        throttle.setLatencyTargetMillis(backoff);
+        throttle.register();
+
+        Hasher hasher = new Hasher(algorithm, bufferSize * 1024, strategy);
+        hasher.setThrottle(throttle);
+        HashPipeline hashPipeline = new HashPipeline(hasher, threads, options.has("per-device"));
+        hashPipeline.setMetrics(metrics);
+
         // Get the operation mode
-        if (nonOptionArgs.get(0).equalsIgnoreCase("index")) {
-            mode = new IndexingMode(hashDatabase, exceptionDatabase);
-        } else if (nonOptionArgs.get(0).equalsIgnoreCase("update")) {
-            mode = new UpdateMode(hashDatabase, exceptionDatabase);
-        } else if (nonOptionArgs.get(0).equalsIgnoreCase("analyze")) {
-            mode = new AnalysisMode(hashDatabase, exceptionDatabase);
+        if (modeName.equalsIgnoreCase("index")) {
+            IndexingMode indexingMode = new IndexingMode(hashDatabase, exceptionDatabase, hashPipeline, format);
+            indexingMode.setResume(options.has("resume"));
+            indexingMode.setSampleThreshold(sampleThreshold);
+            indexingMode.setBlockThreshold(blockThreshold);
+            indexingMode.setReportWriter(reportWriter);
+            indexingMode.setMetrics(metrics);
+            mode = indexingMode;
+        } else if (modeName.equalsIgnoreCase("update")) {
+            UpdateMode updateMode = new UpdateMode(hashDatabase, exceptionDatabase, hashPipeline);
+            updateMode.setResume(options.has("resume"));
+            updateMode.setSampleThreshold(sampleThreshold);
+            updateMode.setBlockThreshold(blockThreshold);
+            updateMode.setReportWriter(reportWriter);
+            updateMode.setMetrics(metrics);
+            mode = updateMode;
+        } else if (modeName.equalsIgnoreCase("watch")) {
+            WatchMode watchMode = new WatchMode(hashDatabase, exceptionDatabase, hashPipeline);
+            watchMode.setSampleThreshold(sampleThreshold);
+            watchMode.setBlockThreshold(blockThreshold);
+            watchMode.setReportWriter(reportWriter);
+            watchMode.setMetrics(metrics);
+            mode = watchMode;
+        } else if (modeName.equalsIgnoreCase("analyze")) {
+            if (options.has("s")) {
+                StreamingAnalysisMode streamingAnalysisMode = new StreamingAnalysisMode(hashDatabase, exceptionDatabase, hashPipeline, options.has("q"));
+                streamingAnalysisMode.setReportWriter(reportWriter);
+                streamingAnalysisMode.setMetrics(metrics);
+                mode = streamingAnalysisMode;
+            } else {
+                AnalysisMode analysisMode = new AnalysisMode(hashDatabase, exceptionDatabase, hashPipeline, options.has("q"));
+                analysisMode.setReportWriter(reportWriter);
+                analysisMode.setMetrics(metrics);
+                mode = analysisMode;
+            }
         } else {
-            throw new OptionException("Unknown operation mode: " + nonOptionArgs.get(0));
+            DupesMode dupesMode = new DupesMode(hashDatabase, exceptionDatabase, hashPipeline);
+            dupesMode.setReportWriter(reportWriter);
+            dupesMode.setMetrics(metrics);
+            mode = dupesMode;
         }
 
         // Get the path
@@ -0,0 +1,65 @@
+/*
+** Copyright 2012 Phokham Nonava
+**
+** This file is part of Message Digest Integrity Database.
+**
+** Message Digest Integrity Database is free software: you can redistribute it and/or modify
+** it under the terms of the GNU Lesser General Public License as published by
+** the Free Software Foundation, either version 3 of the License, or
+** (at your option) any later version.
+**
+** Message Digest Integrity Database is distributed in the hope that it will be useful,
+** but WITHOUT ANY WARRANTY; without even the implied warranty of
+** MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+** GNU Lesser General Public License for more details.
+**
+** You should have received a copy of the GNU Lesser General Public License
+** along with Message Digest Integrity Database.  If not, see <http://www.gnu.org/licenses/>.
+*/
+package mdid;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Objects;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Converts a hash database into a hash file of the given format.
+ *
+ * @author Phokham Nonava
+ */
+public class ConversionMode implements OperationMode {
+
+    private static final Logger logger = LoggerFactory.getLogger(ConversionMode.class);
+
+    private final Path hashFile;
+    private final HashDatabase.Format format;
+
+    public ConversionMode(Path hashFile, HashDatabase.Format format) {
+        Objects.requireNonNull(hashFile);
+        Objects.requireNonNull(format);
+
+        this.hashFile = hashFile;
+        this.format = format;
+    }
+
+    @Override
+    public void run(Path targetFile) throws IOException {
+        Objects.requireNonNull(targetFile);
+
+        // Writing the target would truncate the mapped source
+        if (Files.exists(targetFile) && Files.isSameFile(hashFile, targetFile)) {
+            throw new IOException("Cannot convert hash file into itself: " + targetFile.toString());
+        }
+
+        try (HashDatabase hashDatabase = new HashDatabase(hashFile, false)) {
+            logger.info("Converting hash file {} to {}", hashFile.toString(), targetFile.toString());
+            int count = hashDatabase.write(targetFile, format);
+            logger.info("Wrote {} entries to {}", count, targetFile.toString());
+        }
+    }
+
+}
@@ -0,0 +1,195 @@
+/*
+** Copyright 2012 Phokham Nonava
+**
+** This file is part of Message Digest Integrity Database.
+**
+** Message Digest Integrity Database is free software: you can redistribute it and/or modify
+** it under the terms of the GNU Lesser General Public License as published by
+** the Free Software Foundation, either version 3 of the License, or
+** (at your option) any later version.
+**
+** Message Digest Integrity Database is distributed in the hope that it will be useful,
+** but WITHOUT ANY WARRANTY; without even the implied warranty of
+** MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+** GNU Lesser General Public License for more details.
+**
+** You should have received a copy of the GNU Lesser General Public License
+** along with Message Digest Integrity Database.  If not, see <http://www.gnu.org/licenses/>.
+*/
+package mdid;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.FileStore;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Runs hashing jobs on a separate pool of workers per device, so a slow disk
+ * neither holds up the others nor gets more concurrent reads than it can
+ * take. Jobs are collected into batches. When a batch is dispatched, the
+ * jobs of each device are queued in the order of the inode numbers of their
+ * files, which roughly follows their layout on disk.
+ *
+ * Devices and inode numbers come from the file keys of the attributes the
+ * walk has already read, like (dev=fe00,ino=12042404), see {@link FileKey}.
+ * Without a file key of that form, files are grouped by file store and keep
+ * their submission order.
+ *
+ * The scheduler is used by {@link HashPipeline} on the submitting thread
+ * only.
+ *
+ * @author Phokham Nonava
+ */
+final class DeviceScheduler implements Closeable {
+
+    private final int threads;
+    private final ThreadFactory threadFactory;
+
+    private final Map<Object, ExecutorService> executors = new HashMap<>();
+    private final List<Job> batch = new ArrayList<>();
+
+    // The file store of the last directory, for files without a file key
+    private Path lastDirectory = null;
+    private FileStore lastStore = null;
+
+    DeviceScheduler(int threads, ThreadFactory threadFactory) {
+        Objects.requireNonNull(threadFactory);
+        if (threads < 1) {
+            throw new IllegalArgumentException("Invalid number of threads: " + threads);
+        }
+
+        this.threads = threads;
+        this.threadFactory = threadFactory;
+    }
+
+    /**
+     * Adds the job for the file with the file key to the current batch. It
+     * runs once the batch is dispatched. The file key may be null.
+     */
+    Future<byte[]> schedule(Path file, String fileKey, Callable<byte[]> callable) {
+        Objects.requireNonNull(file);
+        Objects.requireNonNull(callable);
+
+        Job job = new Job(callable);
+        FileKey unixKey = FileKey.parse(fileKey);
+        if (unixKey != null) {
+            job.device = unixKey.getDevice();
+            job.inode = unixKey.getInode();
+        } else {
+            locate(file, job);
+        }
+        batch.add(job);
+
+        return job.task;
+    }
+
+    /**
+     * Returns the number of jobs in the current batch.
+     */
+    int size() {
+        return batch.size();
+    }
+
+    /**
+     * Queues the jobs of the current batch with the workers of their devices.
+     */
+    void dispatch() {
+        if (batch.isEmpty()) {
+            return;
+        }
+
+        Map<Object, List<Job>> devices = new LinkedHashMap<>();
+        for (Job job : batch) {
+            List<Job> jobs = devices.get(job.device);
+            if (jobs == null) {
+                jobs = new ArrayList<>();
+                devices.put(job.device, jobs);
+            }
+            jobs.add(job);
+        }
+        batch.clear();
+
+        for (Map.Entry<Object, List<Job>> entry : devices.entrySet()) {
+            // The sort is stable, so the blocks of a file stay in order
+            List<Job> jobs = entry.getValue();
+            Collections.sort(jobs, InodeComparator.INSTANCE);
+
+            ExecutorService executor = getExecutor(entry.getKey());
+            for (Job job : jobs) {
+                executor.execute(job.task);
+            }
+        }
+    }
+
+    @Override
+    public void close() {
+        for (ExecutorService executor : executors.values()) {
+            executor.shutdownNow();
+        }
+        batch.clear();
+    }
+
+    private ExecutorService getExecutor(Object device) {
+        ExecutorService executor = executors.get(device);
+        if (executor == null) {
+            executor = Executors.newFixedThreadPool(threads, threadFactory);
+            executors.put(device, executor);
+        }
+
+        return executor;
+    }
+
+    private void locate(Path file, Job job) {
+        try {
+            Path directory = file.toAbsolutePath().getParent();
+            if (lastStore == null || !Objects.equals(directory, lastDirectory)) {
+                lastStore = Files.getFileStore(file);
+                lastDirectory = directory;
+            }
+            job.device = lastStore;
+        } catch (IOException e) {
+            // The job reports the problem when it opens the file
+            job.device = null;
+        }
+    }
+
+    private static final class Job {
+
+        private final FutureTask<byte[]> task;
+
+        private Object device = null;
+        private long inode = 0;
+
+        private Job(Callable<byte[]> callable) {
+            task = new FutureTask<>(callable);
+        }
+
+    }
+
+    private static final class InodeComparator implements Comparator<Job> {
+
+        private static final InodeComparator INSTANCE = new InodeComparator();
+
+        @Override
+        public int compare(Job first, Job second) {
+            return Long.compare(first.inode, second.inode);
+        }
+
+    }
+
+}
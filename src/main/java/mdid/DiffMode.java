@@ -0,0 +1,94 @@
+/*
+** Copyright 2012 Phokham Nonava
+**
+** This file is part of Message Digest Integrity Database.
+**
+** Message Digest Integrity Database is free software: you can redistribute it and/or modify
+** it under the terms of the GNU Lesser General Public License as published by
+** the Free Software Foundation, either version 3 of the License, or
+** (at your option) any later version.
+**
+** Message Digest Integrity Database is distributed in the hope that it will be useful,
+** but WITHOUT ANY WARRANTY; without even the implied warranty of
+** MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+** GNU Lesser General Public License for more details.
+**
+** You should have received a copy of the GNU Lesser General Public License
+** along with Message Digest Integrity Database.  If not, see <http://www.gnu.org/licenses/>.
+*/
+package mdid;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Objects;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Compares two hash files without touching the file system. Both files are
+ * streamed in path order, so memory use does not depend on their size.
+ * Entries only in the target file are reported as new, entries only in the
+ * hash file as deleted.
+ *
+ * @author Phokham Nonava
+ */
+public class DiffMode implements OperationMode {
+
+    private static final Logger logger = LoggerFactory.getLogger(DiffMode.class);
+
+    private final Path hashFile;
+
+    private ReportWriter reportWriter = new TextReportWriter(System.out);
+
+    public DiffMode(Path hashFile) {
+        Objects.requireNonNull(hashFile);
+
+        this.hashFile = hashFile;
+    }
+
+    /**
+     * Sets the writer receiving the results. It is flushed, but not closed
+     * at the end of the run.
+     */
+    public void setReportWriter(ReportWriter reportWriter) {
+        Objects.requireNonNull(reportWriter);
+
+        this.reportWriter = reportWriter;
+    }
+
+    @Override
+    public void run(Path targetFile) throws IOException {
+        Objects.requireNonNull(targetFile);
+
+        logger.info("Comparing hash file {} with {}", hashFile.toString(), targetFile.toString());
+        try (HashFileReader oldReader = HashDatabase.newReader(hashFile); HashFileReader newReader = HashDatabase.newReader(targetFile)) {
+            HashFileComparison comparison = new HashFileComparison(oldReader, newReader, new HashFileComparison.Handler() {
+                @Override
+                public void added(String path, HashEntry entry) throws IOException {
+                    reportWriter.write(AbstractOperationMode.NEW, path);
+                }
+
+                @Override
+                public void modified(String path, HashEntry oldEntry, HashEntry newEntry) throws IOException {
+                    reportWriter.write(AbstractOperationMode.MODIFIED, path);
+                }
+
+                @Override
+                public void removed(String path, HashEntry entry) throws IOException {
+                    reportWriter.write(AbstractOperationMode.DELETED, path);
+                }
+            });
+            comparison.run();
+            reportWriter.flush();
+
+            if (comparison.getSkipped() > 0) {
+                logger.info("Skipped {} entries in equal directories", comparison.getSkipped());
+            }
+            if (comparison.getIncomparable() > 0) {
+                logger.warn("Could not compare {} entries hashed differently, like sampled and full digests", comparison.getIncomparable());
+            }
+        }
+    }
+
+}
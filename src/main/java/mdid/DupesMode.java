@@ -0,0 +1,343 @@
+/*
+** Copyright 2012 Phokham Nonava
+**
+** This file is part of Message Digest Integrity Database.
+**
+** Message Digest Integrity Database is free software: you can redistribute it and/or modify
+** it under the terms of the GNU Lesser General Public License as published by
+** the Free Software Foundation, either version 3 of the License, or
+** (at your option) any later version.
+**
+** Message Digest Integrity Database is distributed in the hope that it will be useful,
+** but WITHOUT ANY WARRANTY; without even the implied warranty of
+** MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+** GNU Lesser General Public License for more details.
+**
+** You should have received a copy of the GNU Lesser General Public License
+** along with Message Digest Integrity Database.  If not, see <http://www.gnu.org/licenses/>.
+*/
+package mdid;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Finds files with the same content. Files are grouped by size first, which
+ * the walk provides for free. Files sharing their size are grouped by a hash
+ * of their first and last few kilobytes, and only files still sharing that
+ * hash are hashed completely. A file whose entry in the hash database
+ * matches its metadata is not hashed at all.
+ *
+ * Empty files and further hard links to the same file are ignored, as
+ * removing them reclaims nothing.
+ *
+ * Each group is reported as its digest, followed by its files.
+ *
+ * @author Phokham Nonava
+ */
+public class DupesMode extends SimpleFileVisitor<Path> implements OperationMode {
+
+    static final int EDGE_SIZE = 4 * 1024;
+
+    static final String GROUP =     "GROUP    ";
+    static final String DUPLICATE = "DUPLICATE";
+
+    private static final Logger logger = LoggerFactory.getLogger(DupesMode.class);
+
+    private final Path hashFile;
+    private final ExceptionDatabase exceptionDatabase;
+    private final HashPipeline hashPipeline;
+
+    private final Map<Long, List<Candidate>> sizes = new LinkedHashMap<>();
+    private final Set<String> fileKeys = new HashSet<>();
+
+    private ReportWriter reportWriter = new TextReportWriter(System.out);
+    private Metrics metrics = new Metrics();
+
+    private long reused = 0;
+    private long partiallyHashed = 0;
+    private long hashed = 0;
+
+    public DupesMode(Path hashFile, Path exceptionFile, HashPipeline hashPipeline) throws IOException {
+        Objects.requireNonNull(hashFile);
+        Objects.requireNonNull(hashPipeline);
+
+        this.hashFile = hashFile;
+        this.exceptionDatabase = AbstractOperationMode.createExceptionDatabase(hashFile, exceptionFile);
+        this.hashPipeline = hashPipeline;
+    }
+
+    /**
+     * Sets the writer receiving the groups. It is flushed, but not closed at
+     * the end of the run.
+     */
+    public void setReportWriter(ReportWriter reportWriter) {
+        Objects.requireNonNull(reportWriter);
+
+        this.reportWriter = reportWriter;
+    }
+
+    /**
+     * Sets the metrics to record the run in.
+     */
+    public void setMetrics(Metrics metrics) {
+        Objects.requireNonNull(metrics);
+
+        this.metrics = metrics;
+    }
+
+    @Override
+    public void run(Path path) throws IOException {
+        Objects.requireNonNull(path);
+
+        HashDatabase hashDatabase = null;
+        try {
+            metrics.startPhase("walk");
+            Files.walkFileTree(path, this);
+
+            if (Files.exists(hashFile)) {
+                String algorithm = HashDatabase.readAlgorithm(hashFile);
+                if (algorithm.equals(hashPipeline.getAlgorithm())) {
+                    hashDatabase = new HashDatabase(hashFile, false);
+                } else {
+                    logger.info("Not reusing hash file {} using {}", hashFile.toString(), algorithm);
+                }
+            }
+
+            List<List<Candidate>> candidates = new ArrayList<>();
+            for (List<Candidate> sameSize : sizes.values()) {
+                if (sameSize.size() > 1) {
+                    candidates.add(sameSize);
+                }
+            }
+            sizes.clear();
+
+            metrics.startPhase("hash");
+            List<List<Candidate>> groups = findDuplicates(candidates, hashDatabase);
+
+            report(groups);
+        } finally {
+            hashPipeline.close();
+            if (hashDatabase != null) {
+                hashDatabase.close();
+            }
+        }
+    }
+
+    @Override
+    public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) throws IOException {
+        Objects.requireNonNull(dir);
+        Objects.requireNonNull(attrs);
+
+        if (exceptionDatabase.contains(dir.toString())) {
+            reportWriter.write(AbstractOperationMode.SKIPPING, dir.toString());
+            return FileVisitResult.SKIP_SUBTREE;
+        }
+
+        return FileVisitResult.CONTINUE;
+    }
+
+    @Override
+    public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+        Objects.requireNonNull(file);
+        Objects.requireNonNull(attrs);
+
+        if (!attrs.isRegularFile() || attrs.size() == 0 || exceptionDatabase.contains(file.toString())) {
+            return FileVisitResult.CONTINUE;
+        }
+
+        String fileKey = HashEntry.toFileKey(attrs);
+        if (fileKey != null && !fileKeys.add(fileKey)) {
+            // Another hard link to a file we have already seen
+            return FileVisitResult.CONTINUE;
+        }
+
+        List<Candidate> candidates = sizes.get(attrs.size());
+        if (candidates == null) {
+            candidates = new ArrayList<>(1);
+            sizes.put(attrs.size(), candidates);
+        }
+        candidates.add(new Candidate(file, attrs.size(), attrs.lastModifiedTime().toMillis(), fileKey));
+
+        return FileVisitResult.CONTINUE;
+    }
+
+    /**
+     * Narrows groups of files of the same size down to groups of equal
+     * content. The partial hashes of all groups are computed first, then the
+     * full hashes of all files still sharing their partial hash, so the
+     * pipeline stays busy across groups.
+     */
+    private List<List<Candidate>> findDuplicates(List<List<Candidate>> candidates, HashDatabase hashDatabase) throws IOException {
+        List<List<Candidate>> incomplete = new ArrayList<>();
+        List<List<Candidate>> complete = new ArrayList<>();
+        for (List<Candidate> sameSize : candidates) {
+            if (reuse(sameSize, hashDatabase)) {
+                complete.add(sameSize);
+            } else {
+                incomplete.add(sameSize);
+            }
+        }
+
+        for (List<Candidate> sameSize : incomplete) {
+            // Small files are hashed completely by the partial hash
+            boolean small = sameSize.get(0).size <= 2L * EDGE_SIZE;
+            for (final Candidate candidate : sameSize) {
+                if (small && candidate.digest != null) {
+                    continue;
+                }
+
+                hashPipeline.submit(candidate.file, candidate.fileKey, EDGE_SIZE, new HashPipeline.Callback() {
+                    @Override
+                    public void done(byte[] digest) {
+                        if (candidate.size <= 2L * EDGE_SIZE) {
+                            candidate.digest = digest;
+                        } else {
+                            candidate.partialDigest = digest;
+                        }
+                    }
+                });
+                ++partiallyHashed;
+            }
+        }
+        hashPipeline.flush();
+
+        for (List<Candidate> sameSize : incomplete) {
+            if (sameSize.get(0).size <= 2L * EDGE_SIZE) {
+                complete.add(sameSize);
+                continue;
+            }
+
+            List<Candidate> remaining = new ArrayList<>();
+            for (List<Candidate> group : group(sameSize, true)) {
+                remaining.addAll(group);
+            }
+
+            for (final Candidate candidate : remaining) {
+                if (candidate.digest == null) {
+                    hashPipeline.submit(candidate.file, candidate.fileKey, new HashPipeline.Callback() {
+                        @Override
+                        public void done(byte[] digest) {
+                            candidate.digest = digest;
+                        }
+                    });
+                    ++hashed;
+                }
+            }
+            complete.add(remaining);
+        }
+        hashPipeline.flush();
+
+        List<List<Candidate>> groups = new ArrayList<>();
+        for (List<Candidate> sameSize : complete) {
+            groups.addAll(group(sameSize, false));
+        }
+
+        return groups;
+    }
+
+    /**
+     * Takes the digests of files whose entries in the hash database match
+     * their metadata.
+     *
+     * @return whether all files have a digest.
+     */
+    private boolean reuse(List<Candidate> candidates, HashDatabase hashDatabase) {
+        boolean complete = true;
+        for (Candidate candidate : candidates) {
+            if (hashDatabase != null) {
+                HashEntry entry = hashDatabase.getEntry(candidate.file.toString());
+                if (entry != null && entry.getKind() == HashEntry.Kind.FULL && entry.matches(candidate.size, candidate.lastModified, candidate.fileKey)) {
+                    candidate.digest = entry.getDigest();
+                    ++reused;
+                }
+            }
+            complete &= candidate.digest != null;
+        }
+
+        return complete;
+    }
+
+    /**
+     * Groups the candidates by their partial or full digest and returns the
+     * groups with more than one candidate.
+     */
+    private static List<List<Candidate>> group(List<Candidate> candidates, boolean partial) {
+        Map<ByteBuffer, List<Candidate>> groups = new LinkedHashMap<>();
+        for (Candidate candidate : candidates) {
+            ByteBuffer key = ByteBuffer.wrap(partial ? candidate.partialDigest : candidate.digest);
+            List<Candidate> group = groups.get(key);
+            if (group == null) {
+                group = new ArrayList<>(2);
+                groups.put(key, group);
+            }
+            group.add(candidate);
+        }
+
+        List<List<Candidate>> result = new ArrayList<>();
+        for (List<Candidate> group : groups.values()) {
+            if (group.size() > 1) {
+                result.add(group);
+            }
+        }
+
+        return result;
+    }
+
+    /**
+     * Reports each group by its digest, followed by its files.
+     */
+    private void report(List<List<Candidate>> groups) throws IOException {
+        long files = 0;
+        long reclaimable = 0;
+
+        for (List<Candidate> group : groups) {
+            reportWriter.write(GROUP, HexCodec.encode(group.get(0).digest));
+            for (Candidate candidate : group) {
+                reportWriter.write(DUPLICATE, candidate.file.toString());
+            }
+
+            files += group.size();
+            reclaimable += group.get(0).size * (group.size() - 1);
+        }
+        reportWriter.flush();
+
+        logger.info("Found {} duplicate groups with {} files, {} bytes reclaimable", groups.size(), files, reclaimable);
+        logger.info("Reused {} digests, hashed {} files partially and {} files completely", reused, partiallyHashed, hashed);
+    }
+
+    private static final class Candidate {
+
+        private final Path file;
+        private final long size;
+        private final long lastModified;
+        private final String fileKey;
+
+        private byte[] partialDigest = null;
+        private byte[] digest = null;
+
+        private Candidate(Path file, long size, long lastModified, String fileKey) {
+            this.file = file;
+            this.size = size;
+            this.lastModified = lastModified;
+            this.fileKey = fileKey;
+        }
+
+    }
+
+}
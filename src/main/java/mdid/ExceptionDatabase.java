@@ -19,24 +19,55 @@
 package mdid;
 
 import java.io.BufferedReader;
+import java.io.File;
 import java.io.IOException;
 import java.nio.charset.Charset;
+import java.nio.file.FileSystems;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.nio.file.Paths;
 import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
 import java.util.Objects;
+import java.util.Set;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 /**
+ * Holds the paths excluded from a walk. An exception file contains one entry
+ * per line, which is one of
+ *
+ * <pre>
+ * /exact/path            the path itself
+ * /some/directory/**     the directory and everything below it
+ * **&#47;*.log              a glob pattern
+ * glob:pattern           an explicit glob pattern
+ * regex:pattern          a regular expression
+ * </pre>
+ *
+ * Exact paths are kept in a hash set and subtrees in a trie of path
+ * components, so their lookups do not depend on the number of entries.
+ * Patterns are compiled once and matched one after another.
+ *
  * @author Phokham Nonava
  */
 public class ExceptionDatabase {
 
     private static final Logger logger = LoggerFactory.getLogger(ExceptionDatabase.class);
 
-    private ArrayList<String> table = new ArrayList<>();
+    private static final String SUBTREE = File.separator + "**";
+    private static final String GLOB = "glob:";
+    private static final String REGEX = "regex:";
+    private static final String GLOB_CHARACTERS = "*?[{";
+
+    private final Set<String> paths = new HashSet<>();
+    private final Node subtrees = new Node();
+    private final List<PathMatcher> patterns = new ArrayList<>();
 
     public ExceptionDatabase() {
         // Create an empty database
@@ -53,8 +84,12 @@ public class ExceptionDatabase {
             while (line != null) {
                 line = line.trim();
                 if (!line.equalsIgnoreCase("")) {
-                    table.add(line);
-                    ++count;
+                    try {
+                        add(line);
+                        ++count;
+                    } catch (IllegalArgumentException e) {
+                        logger.warn("Invalid pattern {}", line);
+                    }
                 }
 
                 line = bufferedReader.readLine();
@@ -67,13 +102,102 @@ public class ExceptionDatabase {
     public boolean contains(String file) {
         Objects.requireNonNull(file);
 
-        return table.contains(file);
+        if (paths.contains(file) || containsSubtree(file)) {
+            return true;
+        }
+
+        if (!patterns.isEmpty()) {
+            Path path = Paths.get(file);
+            for (PathMatcher pattern : patterns) {
+                if (pattern.matches(path)) {
+                    return true;
+                }
+            }
+        }
+
+        return false;
     }
 
     public void put(String file) {
         Objects.requireNonNull(file);
 
-        table.add(file);
+        paths.add(file);
+    }
+
+    private void add(String entry) {
+        if (entry.startsWith(GLOB) || entry.startsWith(REGEX)) {
+            patterns.add(FileSystems.getDefault().getPathMatcher(entry));
+        } else if (entry.endsWith(SUBTREE) && !isGlob(entry.substring(0, entry.length() - SUBTREE.length()))) {
+            addSubtree(entry.substring(0, entry.length() - SUBTREE.length()));
+        } else if (isGlob(entry)) {
+            patterns.add(FileSystems.getDefault().getPathMatcher(GLOB + entry));
+        } else {
+            paths.add(entry);
+        }
+    }
+
+    private static boolean isGlob(String entry) {
+        for (int i = 0; i < entry.length(); ++i) {
+            if (GLOB_CHARACTERS.indexOf(entry.charAt(i)) != -1) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    private void addSubtree(String directory) {
+        Node node = subtrees;
+
+        int start = 0;
+        while (start <= directory.length()) {
+            int end = directory.indexOf(File.separatorChar, start);
+            if (end == -1) {
+                end = directory.length();
+            }
+
+            String component = directory.substring(start, end);
+            Node child = node.children.get(component);
+            if (child == null) {
+                child = new Node();
+                node.children.put(component, child);
+            }
+            node = child;
+
+            start = end + 1;
+        }
+
+        node.excluded = true;
+    }
+
+    private boolean containsSubtree(String file) {
+        Node node = subtrees;
+
+        int start = 0;
+        while (start <= file.length() && !node.children.isEmpty()) {
+            int end = file.indexOf(File.separatorChar, start);
+            if (end == -1) {
+                end = file.length();
+            }
+
+            node = node.children.get(file.substring(start, end));
+            if (node == null) {
+                return false;
+            } else if (node.excluded) {
+                return true;
+            }
+
+            start = end + 1;
+        }
+
+        return false;
+    }
+
+    private static final class Node {
+
+        private final Map<String, Node> children = new HashMap<>();
+        private boolean excluded = false;
+
     }
 
 }
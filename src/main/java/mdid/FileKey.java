@@ -0,0 +1,101 @@
+/*
+** Copyright 2012 Phokham Nonava
+**
+** This file is part of Message Digest Integrity Database.
+**
+** Message Digest Integrity Database is free software: you can redistribute it and/or modify
+** it under the terms of the GNU Lesser General Public License as published by
+** the Free Software Foundation, either version 3 of the License, or
+** (at your option) any later version.
+**
+** Message Digest Integrity Database is distributed in the hope that it will be useful,
+** but WITHOUT ANY WARRANTY; without even the implied warranty of
+** MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+** GNU Lesser General Public License for more details.
+**
+** You should have received a copy of the GNU Lesser General Public License
+** along with Message Digest Integrity Database.  If not, see <http://www.gnu.org/licenses/>.
+*/
+package mdid;
+
+/**
+ * Reads the device and inode number from a file key of the form
+ * (dev=fe00,ino=42). This is what toString() of sun.nio.fs.UnixFileKey, the
+ * file key of the unix file systems of OpenJDK, returns. The form is internal
+ * to the JDK and not specified, so it is checked by FileKeyTest, and callers
+ * have to handle other forms as opaque strings.
+ *
+ * @author Phokham Nonava
+ */
+final class FileKey {
+
+    private static final String DEVICE = "(dev=";
+    private static final String INODE = ",ino=";
+    private static final String END = ")";
+
+    private final long device;
+    private final long inode;
+
+    FileKey(long device, long inode) {
+        this.device = device;
+        this.inode = inode;
+    }
+
+    /**
+     * Parses the file key.
+     *
+     * @return the file key or null if it is not of the expected form or
+     *         would not format to the same string again.
+     */
+    static FileKey parse(String fileKey) {
+        if (fileKey == null || !fileKey.startsWith(DEVICE) || !fileKey.endsWith(END)) {
+            return null;
+        }
+
+        int index = fileKey.indexOf(INODE);
+        if (index == -1) {
+            return null;
+        }
+
+        // The device is an unsigned hex number
+        int start = DEVICE.length();
+        if (index == start || index - start > 16) {
+            return null;
+        }
+        long device = 0;
+        for (int i = start; i < index; ++i) {
+            int digit = Character.digit(fileKey.charAt(i), 16);
+            if (digit == -1) {
+                return null;
+            }
+            device = (device << 4) | digit;
+        }
+
+        FileKey result;
+        try {
+            result = new FileKey(device, Long.parseLong(fileKey.substring(index + INODE.length(), fileKey.length() - END.length())));
+        } catch (NumberFormatException e) {
+            return null;
+        }
+
+        if (!result.toString().equals(fileKey)) {
+            return null;
+        }
+
+        return result;
+    }
+
+    long getDevice() {
+        return device;
+    }
+
+    long getInode() {
+        return inode;
+    }
+
+    @Override
+    public String toString() {
+        return DEVICE + Long.toHexString(device) + INODE + inode + END;
+    }
+
+}
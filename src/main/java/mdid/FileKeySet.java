@@ -0,0 +1,101 @@
+/*
+** Copyright 2012 Phokham Nonava
+**
+** This file is part of Message Digest Integrity Database.
+**
+** Message Digest Integrity Database is free software: you can redistribute it and/or modify
+** it under the terms of the GNU Lesser General Public License as published by
+** the Free Software Foundation, either version 3 of the License, or
+** (at your option) any later version.
+**
+** Message Digest Integrity Database is distributed in the hope that it will be useful,
+** but WITHOUT ANY WARRANTY; without even the implied warranty of
+** MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+** GNU Lesser General Public License for more details.
+**
+** You should have received a copy of the GNU Lesser General Public License
+** along with Message Digest Integrity Database.  If not, see <http://www.gnu.org/licenses/>.
+*/
+package mdid;
+
+/**
+ * Remembers which file keys have been seen, using 64 bits per key. Keys are
+ * reduced to fingerprints, so a key may rarely be reported as seen although
+ * it was not. The set is meant as a filter in front of an exact lookup.
+ *
+ * @author Phokham Nonava
+ */
+final class FileKeySet {
+
+    private static final int INITIAL_CAPACITY = 1024;
+
+    // Open addressing, zero marks an empty slot
+    private long[] slots = new long[INITIAL_CAPACITY];
+    private int size = 0;
+
+    /**
+     * Adds the file key.
+     *
+     * @return whether the file key has not been seen before.
+     */
+    boolean add(String fileKey) {
+        long fingerprint = fingerprint(fileKey);
+
+        int mask = slots.length - 1;
+        int slot = (int) (fingerprint ^ (fingerprint >>> 32)) & mask;
+        while (slots[slot] != 0) {
+            if (slots[slot] == fingerprint) {
+                return false;
+            }
+            slot = (slot + 1) & mask;
+        }
+        slots[slot] = fingerprint;
+        ++size;
+
+        // Keep the load factor at or below one half
+        if (size * 2 > slots.length) {
+            rehash(slots.length * 2);
+        }
+
+        return true;
+    }
+
+    void clear() {
+        slots = new long[INITIAL_CAPACITY];
+        size = 0;
+    }
+
+    private void rehash(int capacity) {
+        long[] oldSlots = slots;
+        slots = new long[capacity];
+
+        int mask = capacity - 1;
+        for (long fingerprint : oldSlots) {
+            if (fingerprint != 0) {
+                int slot = (int) (fingerprint ^ (fingerprint >>> 32)) & mask;
+                while (slots[slot] != 0) {
+                    slot = (slot + 1) & mask;
+                }
+                slots[slot] = fingerprint;
+            }
+        }
+    }
+
+    private static long fingerprint(String fileKey) {
+        long fingerprint;
+        FileKey unixKey = FileKey.parse(fileKey);
+        if (unixKey != null) {
+            fingerprint = unixKey.getDevice() * 0x9E3779B97F4A7C15L ^ unixKey.getInode();
+        } else {
+            fingerprint = fileKey.hashCode();
+        }
+
+        // Spread the bits, so the low bits pick the slot
+        fingerprint ^= fingerprint >>> 33;
+        fingerprint *= 0xFF51AFD7ED558CCDL;
+        fingerprint ^= fingerprint >>> 33;
+
+        return fingerprint == 0 ? 1 : fingerprint;
+    }
+
+}
@@ -18,18 +18,25 @@
 */
 package mdid;
 
-import java.io.BufferedReader;
-import java.io.BufferedWriter;
 import java.io.Closeable;
 import java.io.IOException;
-import java.nio.charset.Charset;
+import java.nio.channels.FileChannel;
+import java.nio.file.FileAlreadyExistsException;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.PosixFileAttributeView;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
-import java.util.Hashtable;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashSet;
 import java.util.List;
-import java.util.Map.Entry;
 import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ThreadLocalRandom;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -39,28 +46,69 @@ import org.slf4j.LoggerFactory;
  */
 public class HashDatabase implements Closeable {
 
+    /**
+     * The on-disk format of a hash file.
+     */
+    public enum Format {
+        TEXT,
+        BINARY
+    }
+
     public static final String FILENAME = "sha1sum";
     public static final String MESSAGEDIGEST = "SHA-1";
 
     private static final Logger logger = LoggerFactory.getLogger(HashDatabase.class);
 
+    // Every directory is a node too, reserve some room for them
+    private static final double NODES_PER_ENTRY = 1.25;
+
     private final Path hashFile;
     private final boolean writable;
+    private final Format format;
+    private final String algorithm;
+
+    // Paths are interned in a tree, entries are stored by node
+    private PathTree pathTree = new PathTree();
+    private HashStore hashStore = new HashStore(0);
+
+    // Entries of a binary hash file stay on disk. Marked and removed (or
+    // replaced) entries are tracked by their index.
+    private BinaryHashFile binaryHashFile = null;
+    private final BitSet binaryMarks = new BitSet();
+    private final BitSet binaryRemoved = new BitSet();
 
-    private Hashtable<String, String> table = new Hashtable<>();
-    private Hashtable<String, String> marks = new Hashtable<>();
+    private final boolean newDatabase;
+    private Journal journal = null;
+    private String root = null;
+    private final Set<String> completed = new HashSet<>();
 
     public HashDatabase(Path hashFile) throws IOException {
+        this(hashFile, Format.TEXT);
+    }
+
+    public HashDatabase(Path hashFile, Format format) throws IOException {
+        this(hashFile, format, MESSAGEDIGEST);
+    }
+
+    /**
+     * Creates a new database whose entries are digests of the given
+     * algorithm.
+     */
+    public HashDatabase(Path hashFile, Format format, String algorithm) throws IOException {
         Objects.requireNonNull(hashFile);
+        Objects.requireNonNull(format);
+        Objects.requireNonNull(algorithm);
 
         this.hashFile = hashFile;
         this.writable = true;
+        this.newDatabase = true;
+        this.format = format;
+        this.algorithm = algorithm;
 
         logger.info("Opening database in writable mode");
 
-        Files.deleteIfExists(hashFile);
-        Files.createFile(hashFile);
-        logger.info("Created hash file {}", hashFile.toString());
+        // An existing hash file is only replaced on close
+        logger.info("Creating hash file {} using {}", hashFile.toString(), algorithm);
     }
 
     public HashDatabase(Path hashFile, boolean writable) throws IOException {
@@ -68,6 +116,7 @@ public class HashDatabase implements Closeable {
 
         this.hashFile = hashFile;
         this.writable = writable;
+        this.newDatabase = false;
 
         if (writable) {
             logger.info("Opening database in writable mode");
@@ -75,114 +124,568 @@ public class HashDatabase implements Closeable {
             logger.info("Opening database in read only mode");
         }
 
-        logger.info("Reading hash file {}", hashFile.toString());
-        try (BufferedReader bufferedReader = Files.newBufferedReader(hashFile, Charset.defaultCharset())) {
-            int count = 0;
+        if (BinaryHashFile.isBinary(hashFile)) {
+            format = Format.BINARY;
+
+            logger.info("Mapping binary hash file {}", hashFile.toString());
+            binaryHashFile = new BinaryHashFile(hashFile);
+            algorithm = binaryHashFile.getAlgorithm();
+            logger.info("Mapped {} entries from hash file", binaryHashFile.size());
+        } else {
+            format = Format.TEXT;
 
-            String line = bufferedReader.readLine();
-            while (line != null) {
-                // A hash line consists of <hash value> <path>
-                // Search for the first space
-                int index = line.indexOf(" ");
-                if (index != -1) {
-                    String hash = line.substring(0, index).trim();
-                    String path = line.substring(index).trim();
+            logger.info("Reading hash file {}", hashFile.toString());
 
-                    table.put(path, hash);
-                    ++count;
-                } else {
-                    logger.warn("Invalid line format {}", line);
-                }
+            try (TextHashFileLoader loader = new TextHashFileLoader(hashFile, Runtime.getRuntime().availableProcessors())) {
+                algorithm = loader.getAlgorithm();
+
+                int capacity = (int) (loader.estimateLines() * NODES_PER_ENTRY);
+                pathTree = new PathTree(capacity);
+                hashStore = new HashStore(capacity);
 
-                line = bufferedReader.readLine();
+                int count = loader.load(new TextHashFileLoader.Handler() {
+                    @Override
+                    public void entry(String path, HashEntry entry) {
+                        hashStore.put(pathTree.intern(path), entry);
+                    }
+                });
+
+                logger.info("Read {} entries from hash file", count);
             }
+        }
+    }
+
+    public boolean isWritable() {
+        return writable;
+    }
+
+    public Format getFormat() {
+        return format;
+    }
 
-            logger.info("Read {} entries from hash file", count);
+    /**
+     * Returns the digest algorithm of the entries.
+     */
+    public String getAlgorithm() {
+        return algorithm;
+    }
+
+    /**
+     * Starts journaling the changes of a run over the tree at the root. The
+     * changes of an unfinished previous run over the same root are replayed
+     * first. Changes before are only written on close.
+     */
+    public synchronized void begin(String root) throws IOException {
+        Objects.requireNonNull(root);
+
+        if (!writable) {
+            throw new IllegalStateException("Database is read only");
+        }
+        if (journal != null) {
+            throw new IllegalStateException("Run already started");
+        }
+
+        this.root = root;
+        openJournal();
+    }
+
+    /**
+     * Writes all buffered changes to the journal.
+     */
+    public void flush() throws IOException {
+        if (journal != null) {
+            journal.flush();
         }
     }
 
+    /**
+     * Compacts the database into the hash file. The entries are written to a
+     * temporary file, which is synced and then atomically moved over the hash
+     * file. Only then the journal is removed.
+     */
     public void close() throws IOException {
-        if (writable) {
-            logger.info("Writing hash file {}", hashFile.toString());
-            try (BufferedWriter bufferedWriter = Files.newBufferedWriter(hashFile, Charset.defaultCharset())) {
-                int count = 0;
+        try {
+            if (writable) {
+                writeHashFile();
+
+                if (journal != null) {
+                    journal.delete();
+                    journal = null;
+                }
+            }
+        } finally {
+            if (journal != null) {
+                journal.close();
+            }
+            if (binaryHashFile != null) {
+                binaryHashFile.close();
+            }
+        }
+    }
+
+    /**
+     * Compacts the database into the hash file like {@link #close()}, but
+     * keeps the database open. The journal starts over afterwards.
+     */
+    public synchronized void checkpoint() throws IOException {
+        if (!writable) {
+            throw new IllegalStateException("Database is read only");
+        }
 
-                for (Entry<String, String> entry : table.entrySet()) {
-                    String line = entry.getValue() + " " + entry.getKey();
+        writeHashFile();
 
-                    bufferedWriter.write(line);
-                    bufferedWriter.newLine();
-                    ++count;
+        if (journal != null) {
+            journal.delete();
+            journal = new Journal(Journal.getJournalFile(hashFile), false, algorithm, root);
+        }
+    }
+
+    /**
+     * Returns the paths of all entries below the directory. The empty path
+     * contains all relative paths. Only the subtree of the directory is
+     * visited.
+     */
+    public synchronized List<String> getPaths(String dir) {
+        Objects.requireNonNull(dir);
+
+        if (dir.isEmpty()) {
+            return getPaths();
+        }
+
+        char separator = PathComparator.getInstance().getSeparator();
+        String prefix = dir;
+        if (prefix.charAt(prefix.length() - 1) == separator) {
+            dir = dir.substring(0, dir.length() - 1);
+        } else {
+            prefix += separator;
+        }
+
+        List<String> paths = new ArrayList<>();
+        int node = pathTree.find(dir);
+        if (node != -1) {
+            Deque<Integer> nodes = new ArrayDeque<>();
+            nodes.push(node);
+            while (!nodes.isEmpty()) {
+                for (int child = pathTree.getFirstChild(nodes.pop()); child != -1; child = pathTree.getNextSibling(child)) {
+                    if (hashStore.contains(child)) {
+                        paths.add(pathTree.getPath(child));
+                    }
+                    nodes.push(child);
+                }
+            }
+        }
+
+        // The entries below a directory are contiguous in path order
+        if (binaryHashFile != null) {
+            for (int i = binaryHashFile.findFirst(prefix); i < binaryHashFile.size(); ++i) {
+                String path = binaryHashFile.getPath(i);
+                if (!path.startsWith(prefix)) {
+                    break;
+                }
+                if (!binaryRemoved.get(i)) {
+                    paths.add(path);
                 }
+            }
+        }
+
+        return paths;
+    }
+
+    private List<String> getPaths() {
+        List<String> paths = new ArrayList<>();
+        for (int node = hashStore.nextEntry(0); node != -1; node = hashStore.nextEntry(node + 1)) {
+            paths.add(pathTree.getPath(node));
+        }
 
-                for (Entry<String, String> entry : marks.entrySet()) {
-                    String line = entry.getValue() + " " + entry.getKey();
+        if (binaryHashFile != null) {
+            for (int i = binaryRemoved.nextClearBit(0); i < binaryHashFile.size(); i = binaryRemoved.nextClearBit(i + 1)) {
+                paths.add(binaryHashFile.getPath(i));
+            }
+        }
 
-                    bufferedWriter.write(line);
-                    bufferedWriter.newLine();
-                    ++count;
+        return paths;
+    }
+
+    /**
+     * Writes all entries sorted by path to the file in the given format.
+     *
+     * @return the number of entries written.
+     */
+    public synchronized int write(Path file, Format fileFormat) throws IOException {
+        Objects.requireNonNull(file);
+        Objects.requireNonNull(fileFormat);
+
+        List<String> paths = new ArrayList<>(hashStore.size());
+        for (int node = hashStore.nextEntry(0); node != -1; node = hashStore.nextEntry(node + 1)) {
+            paths.add(pathTree.getPath(node));
+        }
+        Collections.sort(paths, PathComparator.getInstance());
+
+        int count = 0;
+
+        try (HashFileWriter writer = newWriter(file, fileFormat, algorithm)) {
+            // Merge the sorted binary entries with the sorted paths
+            int binarySize = 0;
+            if (binaryHashFile != null) {
+                binarySize = binaryHashFile.size();
+            }
+
+            int binaryIndex = binaryRemoved.nextClearBit(0);
+            int pathIndex = 0;
+            while (binaryIndex < binarySize || pathIndex < paths.size()) {
+                String path = null;
+                if (pathIndex < paths.size()) {
+                    path = paths.get(pathIndex);
                 }
 
-                logger.info("Wrote {} entries to the hash file", count);
+                if (binaryIndex < binarySize) {
+                    String binaryPath = binaryHashFile.getPath(binaryIndex);
+                    if (path == null || PathComparator.getInstance().compare(binaryPath, path) < 0) {
+                        writer.write(binaryPath, binaryHashFile.getEntry(binaryIndex));
+                        binaryIndex = binaryRemoved.nextClearBit(binaryIndex + 1);
+                        ++count;
+                        continue;
+                    }
+                }
+
+                writer.write(path, getEntry(path));
+                ++pathIndex;
+                ++count;
             }
         }
+
+        return count;
     }
 
-    public String get(String file) {
+    public synchronized String get(String file) {
         Objects.requireNonNull(file);
 
-        String hash = table.get(file);
-        if (hash == null) {
-            hash = marks.get(file);
+        int node = pathTree.find(file);
+        if (node != -1 && hashStore.contains(node)) {
+            return hashStore.getHash(node);
         }
 
-        return hash;
+        int index = findBinary(file);
+        if (index == -1) {
+            return null;
+        }
+
+        return binaryHashFile.getEntry(index).getHash();
     }
 
-    public List<String> getUnmarked() {
-        return new ArrayList<>(table.keySet());
+    public synchronized HashEntry getEntry(String file) {
+        Objects.requireNonNull(file);
+
+        HashEntry entry = null;
+        int node = pathTree.find(file);
+        if (node != -1) {
+            entry = hashStore.get(node);
+        }
+        if (entry == null) {
+            int index = findBinary(file);
+            if (index != -1) {
+                entry = binaryHashFile.getEntry(index);
+            }
+        }
+
+        return entry;
     }
 
-    public String putAndMark(String path, String hash) {
-        Objects.requireNonNull(path);
+    public synchronized List<String> getUnmarked() {
+        List<String> unmarked = new ArrayList<>();
+        for (int node = hashStore.nextEntry(0); node != -1; node = hashStore.nextEntry(node + 1)) {
+            if (!hashStore.isMarked(node)) {
+                unmarked.add(pathTree.getPath(node));
+            }
+        }
+
+        if (binaryHashFile != null) {
+            for (int i = 0; i < binaryHashFile.size(); ++i) {
+                if (!binaryMarks.get(i) && !binaryRemoved.get(i)) {
+                    unmarked.add(binaryHashFile.getPath(i));
+                }
+            }
+        }
+
+        return unmarked;
+    }
+
+    public String putAndMark(String path, String hash) throws IOException {
         Objects.requireNonNull(hash);
 
-        String oldTableHash = table.remove(path);
-        String oldMarksHash = marks.put(path, hash);
-        assert !(oldTableHash != null && oldMarksHash != null);
+        return putAndMark(path, new HashEntry(hash));
+    }
+
+    public synchronized String putAndMark(String path, HashEntry entry) throws IOException {
+        Objects.requireNonNull(path);
+        Objects.requireNonNull(entry);
+
+        if (journal != null) {
+            journal.putAndMark(path, entry);
+        }
+
+        int node = pathTree.intern(path);
+        String oldHash = hashStore.getHash(node);
+        hashStore.put(node, entry);
+        hashStore.mark(node);
 
-        if (oldTableHash != null) {
-            return oldTableHash;
+        if (oldHash != null) {
+            return oldHash;
         } else {
-            return oldMarksHash;
+            // The new entry replaces a binary entry
+            return removeBinary(path);
         }
     }
 
-    public String mark(String file) {
+    public synchronized String mark(String file) throws IOException {
         Objects.requireNonNull(file);
 
-        String hash = table.remove(file);
-        if (hash != null) {
-            marks.put(file, hash);
+        if (journal != null) {
+            journal.mark(file);
+        }
+
+        int node = pathTree.find(file);
+        if (node != -1 && hashStore.contains(node)) {
+            hashStore.mark(node);
+            return hashStore.getHash(node);
+        }
+
+        int index = findBinary(file);
+        if (index == -1) {
+            return null;
+        }
+
+        binaryMarks.set(index);
+
+        return binaryHashFile.getEntry(index).getHash();
+    }
+
+    public synchronized String remove(String file) throws IOException {
+        Objects.requireNonNull(file);
+
+        if (journal != null) {
+            journal.remove(file);
+        }
+
+        int node = pathTree.find(file);
+        if (node != -1 && hashStore.contains(node)) {
+            String hash = hashStore.getHash(node);
+            hashStore.remove(node);
             return hash;
+        }
+
+        return removeBinary(file);
+    }
+
+    public synchronized void removeUnmarked() throws IOException {
+        if (journal != null) {
+            journal.removeUnmarked();
+        }
+
+        hashStore.removeUnmarked();
+
+        if (binaryHashFile != null) {
+            for (int i = binaryMarks.nextClearBit(0); i < binaryHashFile.size(); i = binaryMarks.nextClearBit(i + 1)) {
+                binaryRemoved.set(i);
+            }
+        }
+    }
+
+    /**
+     * Records that all entries of the directory's subtree have been applied.
+     */
+    public synchronized void complete(String dir) throws IOException {
+        Objects.requireNonNull(dir);
+
+        if (journal != null) {
+            journal.complete(dir);
+        }
+    }
+
+    /**
+     * Returns whether an interrupted previous run has completed the
+     * directory's subtree according to the replayed journal.
+     */
+    public synchronized boolean isComplete(String dir) {
+        Objects.requireNonNull(dir);
+
+        return completed.contains(dir);
+    }
+
+    /**
+     * Writes the entries to a temporary file, which is synced and then
+     * atomically moved over the hash file.
+     */
+    private void writeHashFile() throws IOException {
+        logger.info("Writing hash file {}", hashFile.toString());
+
+        Path tempFile = createTempFile(hashFile);
+        try {
+            int count = write(tempFile, format);
+            try (FileChannel channel = FileChannel.open(tempFile, StandardOpenOption.WRITE)) {
+                channel.force(true);
+            }
+            Files.move(tempFile, hashFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+
+            logger.info("Wrote {} entries to the hash file", count);
+        } finally {
+            Files.deleteIfExists(tempFile);
+        }
+    }
+
+    /**
+     * Creates an empty temporary file next to the file it is going to
+     * replace. Unlike {@link Files#createTempFile(Path, String, String)},
+     * which restricts it to the owner, it gets the default permissions of new
+     * files or the permissions of the existing file.
+     */
+    static Path createTempFile(Path file) throws IOException {
+        Path directory = file.toAbsolutePath().getParent();
+
+        Path tempFile;
+        while (true) {
+            tempFile = directory.resolve("mdid" + Long.toHexString(ThreadLocalRandom.current().nextLong()) + ".tmp");
+            try {
+                Files.createFile(tempFile);
+                break;
+            } catch (FileAlreadyExistsException e) {
+                // Try another name
+            }
+        }
+
+        try {
+            if (Files.exists(file) && Files.getFileAttributeView(file, PosixFileAttributeView.class) != null) {
+                Files.setPosixFilePermissions(tempFile, Files.getPosixFilePermissions(file));
+            }
+        } catch (IOException e) {
+            Files.delete(tempFile);
+            throw e;
+        }
+
+        return tempFile;
+    }
+
+    /**
+     * Opens the journal, replaying the changes of an unfinished previous run
+     * on the same kind of database with the same algorithm and root first.
+     */
+    private void openJournal() throws IOException {
+        Path journalFile = Journal.getJournalFile(hashFile);
+
+        if (Files.exists(journalFile)) {
+            if (Journal.isCompatible(journalFile, newDatabase, algorithm, root)) {
+                logger.info("Recovering changes from journal {}", journalFile.toString());
+                int count = Journal.replay(journalFile, new Journal.Handler() {
+                    @Override
+                    public void putAndMark(String path, HashEntry entry) {
+                        try {
+                            HashDatabase.this.putAndMark(path, entry);
+                        } catch (IOException e) {
+                            // We are not journaling yet
+                            throw new IllegalStateException(e);
+                        }
+                    }
+
+                    @Override
+                    public void mark(String path) {
+                        try {
+                            HashDatabase.this.mark(path);
+                        } catch (IOException e) {
+                            throw new IllegalStateException(e);
+                        }
+                    }
+
+                    @Override
+                    public void remove(String path) {
+                        try {
+                            HashDatabase.this.remove(path);
+                        } catch (IOException e) {
+                            throw new IllegalStateException(e);
+                        }
+                    }
+
+                    @Override
+                    public void removeUnmarked() {
+                        try {
+                            HashDatabase.this.removeUnmarked();
+                        } catch (IOException e) {
+                            throw new IllegalStateException(e);
+                        }
+                    }
+
+                    @Override
+                    public void complete(String path) {
+                        completed.add(path);
+                    }
+                });
+                logger.info("Recovered {} changes from journal", count);
+            } else {
+                logger.warn("Discarding journal {} of a different run", journalFile.toString());
+                Files.delete(journalFile);
+            }
+        }
+
+        journal = new Journal(journalFile, newDatabase, algorithm, root);
+    }
+
+    /**
+     * Opens a reader on the hash file, detecting its format.
+     */
+    public static HashFileReader newReader(Path file) throws IOException {
+        Objects.requireNonNull(file);
+
+        if (BinaryHashFile.isBinary(file)) {
+            return new BinaryHashFileReader(file);
         } else {
-            return marks.get(file);
+            return new TextHashFileReader(file);
         }
     }
 
-    public String remove(String file) {
+    /**
+     * Returns the digest algorithm recorded in the hash file.
+     */
+    public static String readAlgorithm(Path file) throws IOException {
+        try (HashFileReader reader = newReader(file)) {
+            return reader.getAlgorithm();
+        }
+    }
+
+    public static HashFileWriter newWriter(Path file, Format fileFormat, String algorithm) throws IOException {
         Objects.requireNonNull(file);
+        Objects.requireNonNull(fileFormat);
+        Objects.requireNonNull(algorithm);
+
+        switch (fileFormat) {
+            case BINARY:
+                return new BinaryHashFileWriter(file, algorithm);
+            case TEXT:
+            default:
+                return new TextHashFileWriter(file, algorithm);
+        }
+    }
 
-        String hash = table.remove(file);
-        if (hash == null) {
-            hash = marks.remove(file);
+    private int findBinary(String file) {
+        if (binaryHashFile == null) {
+            return -1;
         }
 
-        return hash;
+        int index = binaryHashFile.find(file);
+        if (index == -1 || binaryRemoved.get(index)) {
+            return -1;
+        }
+
+        return index;
     }
 
-    public void removeUnmarked() {
-        table.clear();
+    private String removeBinary(String file) {
+        int index = findBinary(file);
+        if (index == -1) {
+            return null;
+        }
+
+        binaryRemoved.set(index);
+
+        return binaryHashFile.getEntry(index).getHash();
     }
 
 }
@@ -0,0 +1,363 @@
+/*
+** Copyright 2012 Phokham Nonava
+**
+** This file is part of Message Digest Integrity Database.
+**
+** Message Digest Integrity Database is free software: you can redistribute it and/or modify
+** it under the terms of the GNU Lesser General Public License as published by
+** the Free Software Foundation, either version 3 of the License, or
+** (at your option) any later version.
+**
+** Message Digest Integrity Database is distributed in the hope that it will be useful,
+** but WITHOUT ANY WARRANTY; without even the implied warranty of
+** MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+** GNU Lesser General Public License for more details.
+**
+** You should have received a copy of the GNU Lesser General Public License
+** along with Message Digest Integrity Database.  If not, see <http://www.gnu.org/licenses/>.
+*/
+package mdid;
+
+import java.nio.charset.Charset;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Objects;
+
+/**
+ * A hash database entry. Besides the hash value it optionally stores the size,
+ * the last modified time and the file key of the file at the time it was
+ * hashed. If the metadata is missing, the size and the last modified time are
+ * -1 and the file key is null.
+ *
+ * A sampled entry stores a fingerprint from {@link Hasher#sample(Path)}
+ * instead of the digest of the whole file, a tree entry the root digest from
+ * {@link Hasher#digestTree(long, byte[][])}. Both always have metadata.
+ *
+ * @author Phokham Nonava
+ */
+public final class HashEntry {
+
+    /**
+     * The way the digest of an entry was computed.
+     */
+    public enum Kind {
+        /**
+         * The digest of the whole file.
+         */
+        FULL,
+        /**
+         * A sampled fingerprint.
+         */
+        SAMPLED,
+        /**
+         * The root digest of the blocks of the file.
+         */
+        TREE
+    }
+
+    private static final char SEPARATOR = ':';
+    private static final String NOKEY = "-";
+    private static final String SAMPLED = "sampled";
+    private static final String TREE = "tree";
+
+    private final byte[] digest;
+    private final long size;
+    private final long lastModified;
+    private final String fileKey;
+    private final Kind kind;
+
+    /**
+     * Creates an entry without metadata.
+     *
+     * @throws IllegalArgumentException if the hash value is not a hex string.
+     */
+    public HashEntry(String hash) {
+        this(HexCodec.decode(hash), -1, -1, null);
+    }
+
+    public HashEntry(byte[] digest, BasicFileAttributes attrs) {
+        this(digest, attrs.size(), attrs.lastModifiedTime().toMillis(), toFileKey(attrs));
+    }
+
+    public HashEntry(byte[] digest, BasicFileAttributes attrs, Kind kind) {
+        this(digest, attrs.size(), attrs.lastModifiedTime().toMillis(), toFileKey(attrs), kind);
+    }
+
+    public HashEntry(byte[] digest, long size, long lastModified, String fileKey) {
+        this(digest, size, lastModified, fileKey, Kind.FULL);
+    }
+
+    /**
+     * @throws IllegalArgumentException if a sampled or tree entry has no
+     *         metadata.
+     */
+    public HashEntry(byte[] digest, long size, long lastModified, String fileKey, Kind kind) {
+        Objects.requireNonNull(digest);
+        Objects.requireNonNull(kind);
+        if (kind != Kind.FULL && size == -1) {
+            throw new IllegalArgumentException("Partial entry without metadata");
+        }
+
+        this.digest = digest;
+        this.size = size;
+        this.lastModified = lastModified;
+        this.fileKey = fileKey;
+        this.kind = kind;
+    }
+
+    /**
+     * Parses the first token of a hash line, which is either <hash value>,
+     * <hash value>:<size>:<last modified>:<file key> or
+     * <hash value>:<size>:<last modified>:<file key>:<kind>, where kind is
+     * sampled or tree.
+     *
+     * @return the entry or null if the token is malformed.
+     */
+    public static HashEntry parse(String token) {
+        Objects.requireNonNull(token);
+
+        try {
+            int index = token.indexOf(SEPARATOR);
+            if (index == -1) {
+                return new HashEntry(HexCodec.decode(token), -1, -1, null);
+            }
+
+            byte[] digest = HexCodec.decode(token, 0, index);
+
+            String[] fields = token.substring(index + 1).split(String.valueOf(SEPARATOR), -1);
+            Kind kind = Kind.FULL;
+            if (fields.length == 4 && fields[3].equals(SAMPLED)) {
+                kind = Kind.SAMPLED;
+            } else if (fields.length == 4 && fields[3].equals(TREE)) {
+                kind = Kind.TREE;
+            } else if (fields.length != 3) {
+                return null;
+            }
+
+            String fileKey = null;
+            if (!fields[2].equals(NOKEY)) {
+                fileKey = fields[2];
+            }
+
+            return new HashEntry(digest, Long.parseLong(fields[0]), Long.parseLong(fields[1]), fileKey, kind);
+        } catch (IllegalArgumentException e) {
+            // Also catches NumberFormatException
+            return null;
+        }
+    }
+
+    /**
+     * Parses the first token of a hash line from the bytes between start
+     * (inclusive) and end (exclusive) without decoding them into a string
+     * first. Only the file key is decoded with the given charset.
+     *
+     * @return the entry or null if the token is malformed.
+     */
+    public static HashEntry parse(byte[] bytes, int start, int end, Charset charset) {
+        Objects.requireNonNull(bytes);
+        Objects.requireNonNull(charset);
+
+        try {
+            int first = indexOf(bytes, start, end);
+            if (first == -1) {
+                return new HashEntry(HexCodec.decode(bytes, start, end), -1, -1, null);
+            }
+
+            byte[] digest = HexCodec.decode(bytes, start, first);
+
+            int second = indexOf(bytes, first + 1, end);
+            int third = second == -1 ? -1 : indexOf(bytes, second + 1, end);
+            if (third == -1) {
+                return null;
+            }
+
+            int keyEnd = indexOf(bytes, third + 1, end);
+            Kind kind = Kind.FULL;
+            if (keyEnd == -1) {
+                keyEnd = end;
+            } else if (equals(bytes, keyEnd + 1, end, SAMPLED)) {
+                kind = Kind.SAMPLED;
+            } else if (equals(bytes, keyEnd + 1, end, TREE)) {
+                kind = Kind.TREE;
+            } else {
+                return null;
+            }
+
+            String fileKey = null;
+            if (!equals(bytes, third + 1, keyEnd, NOKEY)) {
+                fileKey = new String(bytes, third + 1, keyEnd - third - 1, charset);
+            }
+
+            return new HashEntry(digest, parseLong(bytes, first + 1, second), parseLong(bytes, second + 1, third), fileKey, kind);
+        } catch (IllegalArgumentException e) {
+            // Also catches NumberFormatException
+            return null;
+        }
+    }
+
+    /**
+     * Returns the hash value as lowercase hex string.
+     */
+    public String getHash() {
+        return HexCodec.encode(digest);
+    }
+
+    /**
+     * Returns the digest. The returned array must not be modified.
+     */
+    public byte[] getDigest() {
+        return digest;
+    }
+
+    public long getSize() {
+        return size;
+    }
+
+    public long getLastModified() {
+        return lastModified;
+    }
+
+    public String getFileKey() {
+        return fileKey;
+    }
+
+    public boolean hasMetadata() {
+        return size != -1;
+    }
+
+    public Kind getKind() {
+        return kind;
+    }
+
+    public boolean isSampled() {
+        return kind == Kind.SAMPLED;
+    }
+
+    public boolean isTree() {
+        return kind == Kind.TREE;
+    }
+
+    /**
+     * Returns whether the stored metadata is the same as the given attributes.
+     * An entry without metadata never matches.
+     */
+    public boolean matches(BasicFileAttributes attrs) {
+        Objects.requireNonNull(attrs);
+
+        return matches(attrs.size(), attrs.lastModifiedTime().toMillis(), toFileKey(attrs));
+    }
+
+    /**
+     * Returns whether the stored metadata is the same as the given metadata.
+     * An entry without metadata never matches.
+     */
+    public boolean matches(long size, long lastModified, String fileKey) {
+        if (!hasMetadata()) {
+            return false;
+        }
+
+        return this.size == size
+            && this.lastModified == lastModified
+            && Objects.equals(this.fileKey, fileKey);
+    }
+
+    /**
+     * Formats the entry as the first token of a hash line.
+     */
+    public String format() {
+        String hash = getHash();
+        if (!hasMetadata()) {
+            return hash;
+        }
+
+        StringBuilder builder = new StringBuilder(hash.length() + 64);
+        builder.append(hash).append(SEPARATOR).append(size).append(SEPARATOR).append(lastModified).append(SEPARATOR);
+        if (fileKey == null) {
+            builder.append(NOKEY);
+        } else {
+            builder.append(fileKey);
+        }
+        if (kind == Kind.SAMPLED) {
+            builder.append(SEPARATOR).append(SAMPLED);
+        } else if (kind == Kind.TREE) {
+            builder.append(SEPARATOR).append(TREE);
+        }
+
+        return builder.toString();
+    }
+
+    private static int indexOf(byte[] bytes, int start, int end) {
+        for (int i = start; i < end; ++i) {
+            if (bytes[i] == SEPARATOR) {
+                return i;
+            }
+        }
+
+        return -1;
+    }
+
+    /**
+     * Returns whether the bytes between start (inclusive) and end (exclusive)
+     * are the ASCII string.
+     */
+    private static boolean equals(byte[] bytes, int start, int end, String string) {
+        if (end - start != string.length()) {
+            return false;
+        }
+
+        for (int i = 0; i < string.length(); ++i) {
+            if (bytes[start + i] != string.charAt(i)) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    /**
+     * Parses a decimal number like {@link Long#parseLong(String)} does.
+     */
+    private static long parseLong(byte[] bytes, int start, int end) {
+        int i = start;
+        boolean negative = false;
+        if (i < end && (bytes[i] == '-' || bytes[i] == '+')) {
+            negative = bytes[i] == '-';
+            ++i;
+        }
+        if (i == end) {
+            throw new NumberFormatException("Invalid number at offset " + start);
+        }
+
+        // Accumulate negatively, as Long.MIN_VALUE has no positive counterpart
+        long limit = negative ? Long.MIN_VALUE : -Long.MAX_VALUE;
+        long result = 0;
+        for (; i < end; ++i) {
+            int digit = bytes[i] - '0';
+            if (digit < 0 || digit > 9 || result < limit / 10) {
+                throw new NumberFormatException("Invalid number at offset " + start);
+            }
+            result *= 10;
+            if (result < limit + digit) {
+                throw new NumberFormatException("Invalid number at offset " + start);
+            }
+            result -= digit;
+        }
+
+        return negative ? result : -result;
+    }
+
+    /**
+     * Returns the file key as stored in an entry, or null if the file system
+     * has no file keys.
+     */
+    static String toFileKey(BasicFileAttributes attrs) {
+        Object key = attrs.fileKey();
+        if (key == null) {
+            return null;
+        }
+
+        // The key must not contain separators of the hash line
+        return key.toString().replaceAll("[\\s:]", "");
+    }
+
+}
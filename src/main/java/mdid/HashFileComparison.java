@@ -0,0 +1,215 @@
+/*
+** Copyright 2012 Phokham Nonava
+**
+** This file is part of Message Digest Integrity Database.
+**
+** Message Digest Integrity Database is free software: you can redistribute it and/or modify
+** it under the terms of the GNU Lesser General Public License as published by
+** the Free Software Foundation, either version 3 of the License, or
+** (at your option) any later version.
+**
+** Message Digest Integrity Database is distributed in the hope that it will be useful,
+** but WITHOUT ANY WARRANTY; without even the implied warranty of
+** MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+** GNU Lesser General Public License for more details.
+**
+** You should have received a copy of the GNU Lesser General Public License
+** along with Message Digest Integrity Database.  If not, see <http://www.gnu.org/licenses/>.
+*/
+package mdid;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Objects;
+
+/**
+ * Compares two hash files by merging their entries in path order. Only the
+ * current entry of each file is held in memory. Hash files written before
+ * they were sorted have to be converted first.
+ *
+ * If both files are binary files with directory digests, a directory whose
+ * subtree starts at the current entry in both files and has the same digest
+ * in both is skipped as a whole. For a few changes in a large tree, only the
+ * directories on the way to the changes are descended.
+ *
+ * Digests of entries of different kinds, like a full digest and a sampled
+ * fingerprint, cannot be compared. Such entries are only counted.
+ *
+ * @author Phokham Nonava
+ */
+public final class HashFileComparison {
+
+    /**
+     * Receives the differences in path order.
+     */
+    public interface Handler {
+        void added(String path, HashEntry entry) throws IOException;
+
+        void modified(String path, HashEntry oldEntry, HashEntry newEntry) throws IOException;
+
+        void removed(String path, HashEntry entry) throws IOException;
+    }
+
+    private final HashFileReader oldReader;
+    private final HashFileReader newReader;
+    private final Handler handler;
+    private final char separator = PathComparator.getInstance().getSeparator();
+
+    private BinaryHashFileReader oldBinaryReader = null;
+    private BinaryHashFileReader newBinaryReader = null;
+
+    private long skipped = 0;
+    private long incomparable = 0;
+
+    public HashFileComparison(HashFileReader oldReader, HashFileReader newReader, Handler handler) throws IOException {
+        Objects.requireNonNull(oldReader);
+        Objects.requireNonNull(newReader);
+        Objects.requireNonNull(handler);
+
+        if (!oldReader.getAlgorithm().equals(newReader.getAlgorithm())) {
+            throw new IOException("Cannot compare hash files using " + oldReader.getAlgorithm() + " and " + newReader.getAlgorithm());
+        }
+
+        this.oldReader = oldReader;
+        this.newReader = newReader;
+        this.handler = handler;
+
+        if (oldReader instanceof BinaryHashFileReader && newReader instanceof BinaryHashFileReader) {
+            BinaryHashFileReader oldBinary = (BinaryHashFileReader) oldReader;
+            BinaryHashFileReader newBinary = (BinaryHashFileReader) newReader;
+            if (oldBinary.getBinaryHashFile().getDirectoryCount() > 0 && newBinary.getBinaryHashFile().getDirectoryCount() > 0) {
+                oldBinaryReader = oldBinary;
+                newBinaryReader = newBinary;
+            }
+        }
+    }
+
+    /**
+     * Reports all differences to the handler. Both readers must be
+     * positioned before their first entry.
+     */
+    public void run() throws IOException {
+        advance(oldReader);
+        advance(newReader);
+
+        PathComparator comparator = PathComparator.getInstance();
+        while (oldReader.getPath() != null || newReader.getPath() != null) {
+            String oldPath = oldReader.getPath();
+            String newPath = newReader.getPath();
+
+            int result;
+            if (oldPath == null) {
+                result = 1;
+            } else if (newPath == null) {
+                result = -1;
+            } else {
+                result = comparator.compare(oldPath, newPath);
+            }
+
+            if (result < 0) {
+                handler.removed(oldPath, oldReader.getEntry());
+                advance(oldReader);
+            } else if (result > 0) {
+                handler.added(newPath, newReader.getEntry());
+                advance(newReader);
+            } else if (!skipDirectory(oldPath)) {
+                HashEntry oldEntry = oldReader.getEntry();
+                HashEntry newEntry = newReader.getEntry();
+                if (oldEntry.getKind() != newEntry.getKind()) {
+                    ++incomparable;
+                } else if (!Arrays.equals(oldEntry.getDigest(), newEntry.getDigest())) {
+                    handler.modified(oldPath, oldEntry, newEntry);
+                }
+                advance(oldReader);
+                advance(newReader);
+            }
+        }
+    }
+
+    /**
+     * Returns the number of entries skipped in equal subtrees.
+     */
+    public long getSkipped() {
+        return skipped;
+    }
+
+    /**
+     * Returns the number of entries whose digests were not compared, because
+     * they are of different kinds.
+     */
+    public long getIncomparable() {
+        return incomparable;
+    }
+
+    private static void advance(HashFileReader reader) throws IOException {
+        String previous = reader.getPath();
+        if (reader.next() && previous != null && PathComparator.getInstance().compare(previous, reader.getPath()) >= 0) {
+            throw new IOException("Hash file is not sorted by path, please convert it: " + reader.getPath());
+        }
+    }
+
+    /**
+     * Skips the outermost directory which starts at the current entry in
+     * both files and has the same digest in both.
+     *
+     * @return whether a directory has been skipped.
+     */
+    private boolean skipDirectory(String path) {
+        if (oldBinaryReader == null) {
+            return false;
+        }
+
+        BinaryHashFile oldFile = oldBinaryReader.getBinaryHashFile();
+        BinaryHashFile newFile = newBinaryReader.getBinaryHashFile();
+        int oldIndex = oldBinaryReader.getIndex();
+        int newIndex = newBinaryReader.getIndex();
+
+        // If the entry is the first one of a directory, it is also the first
+        // one of all directories in between. Collect them from the parent
+        // outwards.
+        List<Integer> candidates = new ArrayList<>();
+        for (String directory = getParent(path); directory != null; directory = getParent(directory)) {
+            int oldDirectory = oldFile.findDirectory(directory);
+            if (oldDirectory == -1 || oldFile.getDirectoryFirst(oldDirectory) != oldIndex) {
+                break;
+            }
+            candidates.add(oldDirectory);
+        }
+
+        for (int i = candidates.size() - 1; i >= 0; --i) {
+            int oldDirectory = candidates.get(i);
+            int newDirectory = newFile.findDirectory(oldFile.getDirectoryPath(oldDirectory));
+            if (newDirectory != -1 && newFile.getDirectoryFirst(newDirectory) == newIndex
+                    && Arrays.equals(oldFile.getDirectoryDigest(oldDirectory), newFile.getDirectoryDigest(newDirectory))) {
+                int oldEnd = oldFile.getDirectoryEnd(oldDirectory);
+                oldBinaryReader.skipTo(oldEnd);
+                newBinaryReader.skipTo(newFile.getDirectoryEnd(newDirectory));
+                skipped += oldEnd - oldIndex;
+
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    /**
+     * Returns the parent directory as the binary hash file writer records it,
+     * the empty path for top-level entries and null for the root itself.
+     */
+    private String getParent(String path) {
+        if (path.isEmpty()) {
+            return null;
+        }
+
+        int index = path.lastIndexOf(separator);
+        if (index <= 0) {
+            return "";
+        }
+
+        return path.substring(0, index);
+    }
+
+}
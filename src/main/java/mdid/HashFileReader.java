@@ -0,0 +1,47 @@
+/*
+** Copyright 2012 Phokham Nonava
+**
+** This file is part of Message Digest Integrity Database.
+**
+** Message Digest Integrity Database is free software: you can redistribute it and/or modify
+** it under the terms of the GNU Lesser General Public License as published by
+** the Free Software Foundation, either version 3 of the License, or
+** (at your option) any later version.
+**
+** Message Digest Integrity Database is distributed in the hope that it will be useful,
+** but WITHOUT ANY WARRANTY; without even the implied warranty of
+** MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+** GNU Lesser General Public License for more details.
+**
+** You should have received a copy of the GNU Lesser General Public License
+** along with Message Digest Integrity Database.  If not, see <http://www.gnu.org/licenses/>.
+*/
+package mdid;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+/**
+ * Reads the entries of a hash file one by one in file order.
+ *
+ * @author Phokham Nonava
+ */
+public interface HashFileReader extends Closeable {
+
+    /**
+     * Returns the digest algorithm recorded in the hash file.
+     */
+    String getAlgorithm();
+
+    /**
+     * Advances to the next entry.
+     *
+     * @return false if there are no more entries.
+     */
+    boolean next() throws IOException;
+
+    String getPath();
+
+    HashEntry getEntry();
+
+}
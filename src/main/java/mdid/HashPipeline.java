@@ -0,0 +1,527 @@
+/*
+** Copyright 2012 Phokham Nonava
+**
+** This file is part of Message Digest Integrity Database.
+**
+** Message Digest Integrity Database is free software: you can redistribute it and/or modify
+** it under the terms of the GNU Lesser General Public License as published by
+** the Free Software Foundation, either version 3 of the License, or
+** (at your option) any later version.
+**
+** Message Digest Integrity Database is distributed in the hope that it will be useful,
+** but WITHOUT ANY WARRANTY; without even the implied warranty of
+** MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+** GNU Lesser General Public License for more details.
+**
+** You should have received a copy of the GNU Lesser General Public License
+** along with Message Digest Integrity Database.  If not, see <http://www.gnu.org/licenses/>.
+*/
+package mdid;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Hashes files on a pool of worker threads. The walker only submits paths,
+ * while the results are handed back to the callbacks on the submitting thread
+ * in submission order. This keeps the output deterministic and all accesses to
+ * the hash database on a single thread.
+ *
+ * @author Phokham Nonava
+ */
+public class HashPipeline implements Closeable {
+
+    /**
+     * Receives the result of a submitted task on the submitting thread.
+     */
+    public interface Callback {
+        void done(byte[] digest) throws IOException;
+    }
+
+    /**
+     * A callback which also receives the failure of its task instead of
+     * having it thrown by the pipeline.
+     */
+    public interface ErrorCallback extends Callback {
+        void failed(IOException exception) throws IOException;
+    }
+
+    /**
+     * A callback which also receives the block digests of a tree hash, right
+     * before the root digest.
+     */
+    public interface TreeCallback extends Callback {
+        void blocks(byte[][] digests) throws IOException;
+    }
+
+    private static final int PENDING_PER_THREAD = 64;
+
+    private final ExecutorService executor;
+    private final DeviceScheduler scheduler;
+    private final String algorithm;
+    private final ThreadLocal<Hasher> hashers;
+    private final Deque<Task> pending = new ArrayDeque<>();
+    private final int capacity;
+
+    private Metrics metrics = new Metrics();
+
+    /**
+     * Creates a pipeline. The hasher is used on the submitting thread, every
+     * worker thread uses a duplicate of it.
+     */
+    public HashPipeline(Hasher hasher, int threads) {
+        this(hasher, threads, false);
+    }
+
+    /**
+     * Creates a pipeline. If perDevice is set, every device gets its own pool
+     * of the given number of workers, see {@link DeviceScheduler}.
+     */
+    public HashPipeline(final Hasher hasher, int threads, boolean perDevice) {
+        Objects.requireNonNull(hasher);
+        if (threads < 1) {
+            throw new IllegalArgumentException("Invalid number of threads: " + threads);
+        }
+
+        algorithm = hasher.getAlgorithm();
+        hashers = new ThreadLocal<Hasher>() {
+            @Override
+            protected Hasher initialValue() {
+                return hasher.duplicate();
+            }
+        };
+        hashers.set(hasher);
+
+        if (perDevice) {
+            executor = null;
+            scheduler = new DeviceScheduler(threads, new WorkerThreadFactory());
+        } else if (threads == 1) {
+            executor = null;
+            scheduler = null;
+        } else {
+            executor = Executors.newFixedThreadPool(threads, new WorkerThreadFactory());
+            scheduler = null;
+        }
+        capacity = threads * PENDING_PER_THREAD;
+    }
+
+    public String getAlgorithm() {
+        return algorithm;
+    }
+
+    /**
+     * Sets the metrics to record the run in.
+     */
+    public void setMetrics(Metrics metrics) {
+        Objects.requireNonNull(metrics);
+
+        this.metrics = metrics;
+    }
+
+    /**
+     * Hashes the file and passes the digest to the callback once all
+     * previously submitted tasks are done.
+     */
+    public void submit(Path file, Callback callback) throws IOException {
+        submit(file, null, callback);
+    }
+
+    /**
+     * Hashes the file like {@link #submit(Path, Callback)}. The file key of
+     * its attributes, see {@link HashEntry#toFileKey},
+     * gives the device and inode of the file to the per-device scheduler
+     * without reading its attributes again. It may be null.
+     */
+    public void submit(final Path file, String fileKey, Callback callback) throws IOException {
+        Objects.requireNonNull(file);
+
+        submit(file, fileKey, new Job() {
+            @Override
+            byte[] run(Hasher hasher) throws IOException {
+                return hasher.digest(file);
+            }
+        }, callback);
+    }
+
+    /**
+     * Hashes the first and the last edge size bytes of the file, see
+     * {@link Hasher#digest(Path, int)}.
+     */
+    public void submit(final Path file, String fileKey, final int edgeSize, Callback callback) throws IOException {
+        Objects.requireNonNull(file);
+
+        submit(file, fileKey, new Job() {
+            @Override
+            byte[] run(Hasher hasher) throws IOException {
+                return hasher.digest(file, edgeSize);
+            }
+        }, callback);
+    }
+
+    /**
+     * Computes the sampled fingerprint of the file if sampled is set, see
+     * {@link Hasher#sample(Path)}, or hashes it completely otherwise.
+     */
+    public void submit(final Path file, String fileKey, boolean sampled, Callback callback) throws IOException {
+        Objects.requireNonNull(file);
+
+        if (!sampled) {
+            submit(file, fileKey, callback);
+            return;
+        }
+
+        submit(file, fileKey, new Job() {
+            @Override
+            byte[] run(Hasher hasher) throws IOException {
+                return hasher.sample(file);
+            }
+        }, callback);
+    }
+
+    /**
+     * Hashes the blocks of the file in parallel and combines them into a root
+     * digest, see {@link Hasher#digestTree(long, byte[][])}.
+     *
+     * If expected block digests are given, hashing stops at the first block
+     * which does not match. The blocks not hashed then are null and so is
+     * the root digest. A {@link TreeCallback} receives the block digests.
+     */
+    public void submitTree(final Path file, String fileKey, final long size, final byte[][] expected, Callback callback) throws IOException {
+        Objects.requireNonNull(file);
+        Objects.requireNonNull(callback);
+
+        final int count = Hasher.getBlockCount(size);
+        final AtomicBoolean mismatch = new AtomicBoolean();
+        List<Job> jobs = new ArrayList<>(count);
+        for (int i = 0; i < count; ++i) {
+            final int block = i;
+            jobs.add(new Job() {
+                @Override
+                byte[] run(Hasher hasher) throws IOException {
+                    // The first block is always hashed, it records the file
+                    if (block > 0 && mismatch.get()) {
+                        return null;
+                    }
+
+                    byte[] digest = hasher.digestBlock(file, block);
+                    if (expected != null && (block >= expected.length || !Arrays.equals(digest, expected[block]))) {
+                        mismatch.set(true);
+                    }
+
+                    return digest;
+                }
+
+                @Override
+                boolean isFile() {
+                    return block == 0;
+                }
+            });
+        }
+
+        if (isInline()) {
+            byte[][] blocks = new byte[count][];
+            try {
+                for (int i = 0; i < count; ++i) {
+                    blocks[i] = run(jobs.get(i));
+                }
+            } catch (IOException e) {
+                failed(callback, e);
+                return;
+            }
+            new TreeTask(null, size, blocks, callback).done();
+        } else {
+            List<Future<byte[]>> futures = new ArrayList<>(count);
+            for (Job job : jobs) {
+                futures.add(execute(file, fileKey, job));
+            }
+            pending.add(new TreeTask(futures, size, new byte[count][], callback));
+            drain(capacity);
+        }
+    }
+
+    /**
+     * Calls the callback with a null digest once all previously submitted
+     * tasks are done.
+     */
+    public void submit(Callback callback) throws IOException {
+        Objects.requireNonNull(callback);
+
+        if (pending.isEmpty()) {
+            callback.done(null);
+        } else {
+            pending.add(new Task(null, callback));
+            drain(capacity);
+        }
+    }
+
+    /**
+     * Waits for all submitted tasks and calls their callbacks.
+     */
+    public void flush() throws IOException {
+        drain(0);
+    }
+
+    @Override
+    public void close() {
+        if (executor != null) {
+            executor.shutdownNow();
+        }
+        if (scheduler != null) {
+            scheduler.close();
+        }
+        pending.clear();
+    }
+
+    /**
+     * Returns whether jobs run on the submitting thread.
+     */
+    private boolean isInline() {
+        return executor == null && scheduler == null;
+    }
+
+    private void submit(Path file, String fileKey, Job job, Callback callback) throws IOException {
+        Objects.requireNonNull(callback);
+
+        if (isInline()) {
+            byte[] digest;
+            try {
+                digest = run(job);
+            } catch (IOException e) {
+                failed(callback, e);
+                return;
+            }
+            callback.done(digest);
+        } else {
+            pending.add(new Task(execute(file, fileKey, job), callback));
+            drain(capacity);
+        }
+    }
+
+    /**
+     * Runs the job on a worker. The scheduler dispatches its batch once it
+     * holds half of the pending tasks, so the workers are busy with one half
+     * while the other is collected.
+     */
+    private Future<byte[]> execute(Path file, String fileKey, final Job job) {
+        Callable<byte[]> callable = new Callable<byte[]>() {
+            @Override
+            public byte[] call() throws IOException {
+                return run(job);
+            }
+        };
+
+        if (scheduler == null) {
+            return executor.submit(callable);
+        }
+
+        Future<byte[]> future = scheduler.schedule(file, fileKey, callable);
+        if (scheduler.size() >= capacity / 2) {
+            scheduler.dispatch();
+        }
+
+        return future;
+    }
+
+    private void drain(int limit) throws IOException {
+        while (!pending.isEmpty()) {
+            Task task = pending.peek();
+            if (pending.size() <= limit && !task.isDone()) {
+                break;
+            }
+
+            pending.remove();
+            try {
+                if (task.isDone()) {
+                    task.await();
+                } else {
+                    if (scheduler != null) {
+                        // Do not wait for a task which has not been dispatched
+                        scheduler.dispatch();
+                    }
+                    long start = System.nanoTime();
+                    task.await();
+                    metrics.waited(System.nanoTime() - start);
+                }
+            } catch (InterruptedIOException e) {
+                throw e;
+            } catch (IOException e) {
+                failed(task.callback, e);
+                continue;
+            }
+            task.done();
+        }
+    }
+
+    private byte[] run(Job job) throws IOException {
+        Hasher hasher = hashers.get();
+
+        long start = System.nanoTime();
+        byte[] digest = job.run(hasher);
+        if (digest == null) {
+            // A skipped block has not read anything
+            return null;
+        }
+
+        long nanos = System.nanoTime() - start;
+        if (job.isFile()) {
+            metrics.hashed(hasher.getBytes(), nanos);
+        } else {
+            metrics.hashedBlock(hasher.getBytes(), nanos);
+        }
+
+        return digest;
+    }
+
+    private static void failed(Callback callback, IOException exception) throws IOException {
+        if (callback instanceof ErrorCallback) {
+            ((ErrorCallback) callback).failed(exception);
+        } else {
+            throw exception;
+        }
+    }
+
+    private abstract static class Job {
+        abstract byte[] run(Hasher hasher) throws IOException;
+
+        /**
+         * Returns whether the job is recorded as a hashed file.
+         */
+        boolean isFile() {
+            return true;
+        }
+    }
+
+    private static class Task {
+
+        private final Future<byte[]> future;
+        final Callback callback;
+
+        private byte[] digest = null;
+
+        private Task(Future<byte[]> future, Callback callback) {
+            this.future = future;
+            this.callback = callback;
+        }
+
+        boolean isDone() {
+            return future == null || future.isDone();
+        }
+
+        /**
+         * Waits for the result.
+         */
+        void await() throws IOException {
+            if (future != null) {
+                digest = get(future);
+            }
+        }
+
+        void done() throws IOException {
+            callback.done(digest);
+        }
+
+        static byte[] get(Future<byte[]> future) throws IOException {
+            try {
+                return future.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while waiting for digest");
+            } catch (ExecutionException e) {
+                Throwable cause = e.getCause();
+                if (cause instanceof IOException) {
+                    throw (IOException) cause;
+                } else if (cause instanceof RuntimeException) {
+                    throw (RuntimeException) cause;
+                } else {
+                    throw new IOException(cause);
+                }
+            }
+        }
+
+    }
+
+    /**
+     * The blocks of a tree hash. The root digest is computed on the
+     * submitting thread once all blocks are done.
+     */
+    private final class TreeTask extends Task {
+
+        private final List<Future<byte[]>> futures;
+        private final long size;
+        private final byte[][] blocks;
+
+        private TreeTask(List<Future<byte[]>> futures, long size, byte[][] blocks, Callback callback) {
+            super(null, callback);
+
+            this.futures = futures;
+            this.size = size;
+            this.blocks = blocks;
+        }
+
+        @Override
+        boolean isDone() {
+            if (futures != null) {
+                for (Future<byte[]> future : futures) {
+                    if (!future.isDone()) {
+                        return false;
+                    }
+                }
+            }
+
+            return true;
+        }
+
+        @Override
+        void await() throws IOException {
+            if (futures != null) {
+                for (int i = 0; i < blocks.length; ++i) {
+                    blocks[i] = get(futures.get(i));
+                }
+            }
+        }
+
+        @Override
+        void done() throws IOException {
+            byte[] root = null;
+            if (!Arrays.asList(blocks).contains(null)) {
+                root = hashers.get().digestTree(size, blocks);
+            }
+
+            if (callback instanceof TreeCallback) {
+                ((TreeCallback) callback).blocks(blocks);
+            }
+            callback.done(root);
+        }
+
+    }
+
+    private static final class WorkerThreadFactory implements ThreadFactory {
+
+        private final AtomicInteger count = new AtomicInteger();
+
+        @Override
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, "mdid-hasher-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+
+    }
+
+}
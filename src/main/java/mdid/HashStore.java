@@ -0,0 +1,204 @@
+/*
+** Copyright 2012 Phokham Nonava
+**
+** This file is part of Message Digest Integrity Database.
+**
+** Message Digest Integrity Database is free software: you can redistribute it and/or modify
+** it under the terms of the GNU Lesser General Public License as published by
+** the Free Software Foundation, either version 3 of the License, or
+** (at your option) any later version.
+**
+** Message Digest Integrity Database is distributed in the hope that it will be useful,
+** but WITHOUT ANY WARRANTY; without even the implied warranty of
+** MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+** GNU Lesser General Public License for more details.
+**
+** You should have received a copy of the GNU Lesser General Public License
+** along with Message Digest Integrity Database.  If not, see <http://www.gnu.org/licenses/>.
+*/
+package mdid;
+
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Stores hash entries in packed arrays indexed by {@link PathTree} node. The
+ * digests of all entries share one byte array, the metadata is kept in
+ * primitive arrays and the present, marked, sampled and tree states are
+ * bitsets. All digests of a store must have the same length.
+ *
+ * Unix file keys are stored as device and inode number, see
+ * {@link FileKey}. Only other file keys are kept as strings.
+ *
+ * The store is not thread-safe. {@link HashDatabase} guards it with its
+ * monitor.
+ *
+ * @author Phokham Nonava
+ */
+public final class HashStore {
+
+    private static final int MINIMUM_CAPACITY = 16;
+
+    private int digestLength = -1;
+    private int capacity;
+
+    private byte[] digests = null;
+    private long[] sizes;
+    private long[] lastModified;
+    private long[] devices;
+    private long[] inodes;
+    private final Map<Integer, String> fileKeys = new HashMap<>();
+
+    private final BitSet present = new BitSet();
+    private final BitSet marks = new BitSet();
+    private final BitSet sampled = new BitSet();
+    private final BitSet trees = new BitSet();
+    private final BitSet unixKeys = new BitSet();
+
+    public HashStore(int capacity) {
+        this.capacity = Math.max(capacity, MINIMUM_CAPACITY);
+
+        sizes = new long[this.capacity];
+        lastModified = new long[this.capacity];
+        devices = new long[this.capacity];
+        inodes = new long[this.capacity];
+    }
+
+    public boolean contains(int node) {
+        return present.get(node);
+    }
+
+    public boolean isMarked(int node) {
+        return marks.get(node);
+    }
+
+    public int size() {
+        return present.cardinality();
+    }
+
+    /**
+     * Returns the entry of the node or null if there is none.
+     */
+    public HashEntry get(int node) {
+        if (!present.get(node)) {
+            return null;
+        }
+
+        int offset = node * digestLength;
+        byte[] digest = Arrays.copyOfRange(digests, offset, offset + digestLength);
+
+        HashEntry.Kind kind = HashEntry.Kind.FULL;
+        if (sampled.get(node)) {
+            kind = HashEntry.Kind.SAMPLED;
+        } else if (trees.get(node)) {
+            kind = HashEntry.Kind.TREE;
+        }
+
+        String fileKey;
+        if (unixKeys.get(node)) {
+            fileKey = new FileKey(devices[node], inodes[node]).toString();
+        } else {
+            fileKey = fileKeys.get(node);
+        }
+
+        return new HashEntry(digest, sizes[node], lastModified[node], fileKey, kind);
+    }
+
+    /**
+     * Returns the hash value of the entry of the node or null if there is
+     * none, without creating the entry.
+     */
+    public String getHash(int node) {
+        if (!present.get(node)) {
+            return null;
+        }
+
+        return HexCodec.encode(digests, node * digestLength, digestLength);
+    }
+
+    /**
+     * Stores the entry for the node without changing its mark.
+     */
+    public void put(int node, HashEntry entry) {
+        byte[] digest = entry.getDigest();
+        if (digestLength == -1) {
+            digestLength = digest.length;
+            digests = new byte[capacity * digestLength];
+        } else if (digest.length != digestLength) {
+            throw new IllegalArgumentException("Inconsistent digest length: " + digest.length);
+        }
+
+        ensureCapacity(node + 1);
+
+        System.arraycopy(digest, 0, digests, node * digestLength, digestLength);
+        sizes[node] = entry.getSize();
+        lastModified[node] = entry.getLastModified();
+        setFileKey(node, entry.getFileKey());
+        sampled.set(node, entry.isSampled());
+        trees.set(node, entry.isTree());
+        present.set(node);
+    }
+
+    public void mark(int node) {
+        if (present.get(node)) {
+            marks.set(node);
+        }
+    }
+
+    public void remove(int node) {
+        present.clear(node);
+        marks.clear(node);
+        sampled.clear(node);
+        trees.clear(node);
+        setFileKey(node, null);
+    }
+
+    public void removeUnmarked() {
+        for (int node = nextEntry(0); node != -1; node = nextEntry(node + 1)) {
+            if (!marks.get(node)) {
+                remove(node);
+            }
+        }
+    }
+
+    /**
+     * Returns the first node with an entry at or after the given node, or -1.
+     */
+    public int nextEntry(int node) {
+        return present.nextSetBit(node);
+    }
+
+    private void setFileKey(int node, String fileKey) {
+        FileKey unixKey = FileKey.parse(fileKey);
+        if (unixKey != null) {
+            devices[node] = unixKey.getDevice();
+            inodes[node] = unixKey.getInode();
+            unixKeys.set(node);
+        } else {
+            unixKeys.clear(node);
+        }
+
+        if (unixKey == null && fileKey != null) {
+            fileKeys.put(node, fileKey);
+        } else if (!fileKeys.isEmpty()) {
+            fileKeys.remove(node);
+        }
+    }
+
+    private void ensureCapacity(int minimum) {
+        if (minimum > capacity) {
+            int newCapacity = Math.max(minimum, capacity + (capacity >> 1));
+
+            digests = Arrays.copyOf(digests, newCapacity * digestLength);
+            sizes = Arrays.copyOf(sizes, newCapacity);
+            lastModified = Arrays.copyOf(lastModified, newCapacity);
+            devices = Arrays.copyOf(devices, newCapacity);
+            inodes = Arrays.copyOf(inodes, newCapacity);
+
+            capacity = newCapacity;
+        }
+    }
+
+}
@@ -0,0 +1,342 @@
+/*
+** Copyright 2012 Phokham Nonava
+**
+** This file is part of Message Digest Integrity Database.
+**
+** Message Digest Integrity Database is free software: you can redistribute it and/or modify
+** it under the terms of the GNU Lesser General Public License as published by
+** the Free Software Foundation, either version 3 of the License, or
+** (at your option) any later version.
+**
+** Message Digest Integrity Database is distributed in the hope that it will be useful,
+** but WITHOUT ANY WARRANTY; without even the implied warranty of
+** MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+** GNU Lesser General Public License for more details.
+**
+** You should have received a copy of the GNU Lesser General Public License
+** along with Message Digest Integrity Database.  If not, see <http://www.gnu.org/licenses/>.
+*/
+package mdid;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Objects;
+
+/**
+ * Computes the hash value of a file. A hasher holds its own message digest
+ * and read buffer and must not be shared between threads. Use
+ * {@link #duplicate()} to get a hasher with the same settings for another
+ * thread.
+ *
+ * @author Phokham Nonava
+ */
+public class Hasher {
+
+    /**
+     * The way file contents are fed to the message digest.
+     */
+    public enum Strategy {
+        /**
+         * Read the file through a reusable direct buffer.
+         */
+        READ,
+        /**
+         * Memory-map files larger than the buffer size.
+         */
+        MMAP
+    }
+
+    public static final int DEFAULT_BUFFER_SIZE = 64 * 1024;
+
+    /**
+     * The number of blocks in a sampled fingerprint.
+     */
+    public static final int SAMPLES = 64;
+
+    /**
+     * The size of a block in a sampled fingerprint.
+     */
+    public static final int SAMPLE_SIZE = 256 * 1024;
+
+    /**
+     * The size of a block in a tree hash.
+     */
+    public static final int BLOCK_SIZE = 16 * 1024 * 1024;
+
+    private static final long MAPPING_SIZE = 64L * 1024 * 1024;
+
+    private final String algorithm;
+    private final int bufferSize;
+    private final Strategy strategy;
+
+    private final MessageDigest messageDigest;
+    private final ByteBuffer buffer;
+
+    private Throttle throttle = null;
+    private long bytes = 0;
+
+    public Hasher(String algorithm) throws NoSuchAlgorithmException {
+        this(algorithm, DEFAULT_BUFFER_SIZE, Strategy.READ);
+    }
+
+    public Hasher(String algorithm, int bufferSize, Strategy strategy) throws NoSuchAlgorithmException {
+        Objects.requireNonNull(algorithm);
+        Objects.requireNonNull(strategy);
+        if (bufferSize < 1) {
+            throw new IllegalArgumentException("Invalid buffer size: " + bufferSize);
+        }
+
+        this.algorithm = algorithm;
+        this.bufferSize = bufferSize;
+        this.strategy = strategy;
+
+        messageDigest = Algorithms.getInstance(algorithm);
+        buffer = ByteBuffer.allocateDirect(bufferSize);
+    }
+
+    public String getAlgorithm() {
+        return algorithm;
+    }
+
+    /**
+     * Returns the number of bytes read for the last digest.
+     */
+    public long getBytes() {
+        return bytes;
+    }
+
+    /**
+     * Sets the throttle to pass all opens and reads through. Duplicates share
+     * the throttle of this hasher.
+     */
+    public void setThrottle(Throttle throttle) {
+        Objects.requireNonNull(throttle);
+
+        this.throttle = throttle;
+    }
+
+    /**
+     * Returns a new hasher with the same settings.
+     */
+    public Hasher duplicate() {
+        try {
+            Hasher hasher = new Hasher(algorithm, bufferSize, strategy);
+            hasher.throttle = throttle;
+            return hasher;
+        } catch (NoSuchAlgorithmException e) {
+            // We have already created a message digest with this algorithm
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Returns the hash value of the file as lowercase hex string.
+     */
+    public String hash(Path file) throws IOException {
+        return HexCodec.encode(digest(file));
+    }
+
+    public byte[] digest(Path file) throws IOException {
+        Objects.requireNonNull(file);
+
+        messageDigest.reset();
+        bytes = 0;
+        if (throttle != null) {
+            throttle.acquireFile();
+        }
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (strategy == Strategy.MMAP && size > bufferSize) {
+                map(channel, size);
+            } else {
+                read(channel);
+            }
+        }
+
+        return messageDigest.digest();
+    }
+
+    /**
+     * Returns the digest of the first and the last edge size bytes of the
+     * file. Files not larger than twice the edge size are hashed completely,
+     * so their partial digest is the same as their full digest.
+     */
+    public byte[] digest(Path file, int edgeSize) throws IOException {
+        Objects.requireNonNull(file);
+        if (edgeSize < 1) {
+            throw new IllegalArgumentException("Invalid edge size: " + edgeSize);
+        }
+
+        messageDigest.reset();
+        bytes = 0;
+        if (throttle != null) {
+            throttle.acquireFile();
+        }
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size <= 2L * edgeSize) {
+                read(channel);
+            } else {
+                read(channel, 0, edgeSize);
+                read(channel, size - edgeSize, edgeSize);
+            }
+        }
+
+        return messageDigest.digest();
+    }
+
+    /**
+     * Returns a fingerprint of the file over its size and {@link #SAMPLES}
+     * blocks of {@link #SAMPLE_SIZE} bytes, evenly spaced from the start to
+     * the end of the file. This reads at most 16 MB however large the file
+     * is, but only detects changes of the size or within the blocks. Files
+     * not larger than all blocks together are read completely.
+     *
+     * Changing the constants changes all fingerprints.
+     */
+    public byte[] sample(Path file) throws IOException {
+        Objects.requireNonNull(file);
+
+        messageDigest.reset();
+        bytes = 0;
+        if (throttle != null) {
+            throttle.acquireFile();
+        }
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long size = channel.size();
+            messageDigest.update(ByteBuffer.allocate(8).putLong(size).array());
+
+            if (size <= (long) SAMPLES * SAMPLE_SIZE) {
+                read(channel);
+            } else {
+                long stride = (size - SAMPLE_SIZE) / (SAMPLES - 1);
+                for (int i = 0; i < SAMPLES - 1; ++i) {
+                    read(channel, i * stride, SAMPLE_SIZE);
+                }
+                read(channel, size - SAMPLE_SIZE, SAMPLE_SIZE);
+            }
+        }
+
+        return messageDigest.digest();
+    }
+
+    /**
+     * Returns the number of blocks of a tree hash of a file of the given
+     * size. Even an empty file has one block.
+     */
+    public static int getBlockCount(long size) {
+        return (int) Math.max((size + BLOCK_SIZE - 1) / BLOCK_SIZE, 1);
+    }
+
+    /**
+     * Returns the digest of the block with the given index. Only the first
+     * block waits for the file rate of the throttle, so a tree counts as one
+     * file.
+     */
+    public byte[] digestBlock(Path file, int block) throws IOException {
+        Objects.requireNonNull(file);
+        if (block < 0) {
+            throw new IllegalArgumentException("Invalid block: " + block);
+        }
+
+        messageDigest.reset();
+        bytes = 0;
+        if (throttle != null && block == 0) {
+            throttle.acquireFile();
+        }
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            read(channel, (long) block * BLOCK_SIZE, BLOCK_SIZE);
+        }
+
+        return messageDigest.digest();
+    }
+
+    /**
+     * Returns the root digest over the size of a file and the digests of its
+     * blocks. The blocks can be hashed in parallel, but the root digest is
+     * not the same as the digest of the whole file.
+     */
+    public byte[] digestTree(long size, byte[][] blocks) {
+        Objects.requireNonNull(blocks);
+
+        messageDigest.reset();
+        messageDigest.update(ByteBuffer.allocate(8).putLong(size).array());
+        for (byte[] block : blocks) {
+            messageDigest.update(block);
+        }
+
+        return messageDigest.digest();
+    }
+
+    private void read(FileChannel channel) throws IOException {
+        buffer.clear();
+        long start = System.nanoTime();
+        while (channel.read(buffer) != -1) {
+            buffer.flip();
+            throttle(buffer.remaining(), start);
+            bytes += buffer.remaining();
+            messageDigest.update(buffer);
+            buffer.clear();
+            start = System.nanoTime();
+        }
+    }
+
+    private void read(FileChannel channel, long position, int length) throws IOException {
+        long end = position + length;
+        while (position < end) {
+            buffer.clear();
+            buffer.limit((int) Math.min(buffer.capacity(), end - position));
+            long start = System.nanoTime();
+            int count = channel.read(buffer, position);
+            if (count == -1) {
+                break;
+            }
+            buffer.flip();
+            throttle(count, start);
+            bytes += count;
+            messageDigest.update(buffer);
+            position += count;
+        }
+    }
+
+    private void map(FileChannel channel, long size) throws IOException {
+        long position = 0;
+        while (position < size) {
+            long length = Math.min(MAPPING_SIZE, size - position);
+            MappedByteBuffer mappedBuffer = channel.map(FileChannel.MapMode.READ_ONLY, position, length);
+            if (throttle == null) {
+                messageDigest.update(mappedBuffer);
+            } else {
+                // Feed the mapping in buffer sized slices to keep the rate
+                // even. Page faults cannot be timed, so only the bytes count.
+                while (mappedBuffer.hasRemaining()) {
+                    ByteBuffer slice = mappedBuffer.slice();
+                    slice.limit(Math.min(bufferSize, slice.remaining()));
+                    throttle.acquireBytes(slice.remaining());
+                    mappedBuffer.position(mappedBuffer.position() + slice.remaining());
+                    messageDigest.update(slice);
+                }
+            }
+            bytes += length;
+            position += length;
+        }
+    }
+
+    /**
+     * Passes a read of count bytes, which started at the given time, through
+     * the throttle.
+     */
+    private void throttle(int count, long start) throws IOException {
+        if (throttle != null) {
+            throttle.read(System.nanoTime() - start);
+            throttle.acquireBytes(count);
+        }
+    }
+
+}
@@ -0,0 +1,154 @@
+/*
+** Copyright 2012 Phokham Nonava
+**
+** This file is part of Message Digest Integrity Database.
+**
+** Message Digest Integrity Database is free software: you can redistribute it and/or modify
+** it under the terms of the GNU Lesser General Public License as published by
+** the Free Software Foundation, either version 3 of the License, or
+** (at your option) any later version.
+**
+** Message Digest Integrity Database is distributed in the hope that it will be useful,
+** but WITHOUT ANY WARRANTY; without even the implied warranty of
+** MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+** GNU Lesser General Public License for more details.
+**
+** You should have received a copy of the GNU Lesser General Public License
+** along with Message Digest Integrity Database.  If not, see <http://www.gnu.org/licenses/>.
+*/
+package mdid;
+
+import java.util.Objects;
+
+/**
+ * Encodes and decodes digests as lowercase hexadecimal strings. Encoding uses
+ * a lookup table and a per-thread char buffer, so the only allocation is the
+ * resulting string.
+ *
+ * @author Phokham Nonava
+ */
+public final class HexCodec {
+
+    private static final char[] DIGITS = "0123456789abcdef".toCharArray();
+    private static final byte[] VALUES = new byte[128];
+
+    private static final int INITIAL_BUFFER_SIZE = 128;
+
+    private static final ThreadLocal<char[]> buffers = new ThreadLocal<char[]>() {
+        @Override
+        protected char[] initialValue() {
+            return new char[INITIAL_BUFFER_SIZE];
+        }
+    };
+
+    static {
+        for (int i = 0; i < VALUES.length; ++i) {
+            VALUES[i] = -1;
+        }
+        for (int i = 0; i < 16; ++i) {
+            VALUES[DIGITS[i]] = (byte) i;
+            VALUES[Character.toUpperCase(DIGITS[i])] = (byte) i;
+        }
+    }
+
+    private HexCodec() {
+    }
+
+    public static String encode(byte[] bytes) {
+        Objects.requireNonNull(bytes);
+
+        return encode(bytes, 0, bytes.length);
+    }
+
+    /**
+     * Encodes the given number of bytes starting at the offset.
+     */
+    public static String encode(byte[] bytes, int offset, int count) {
+        Objects.requireNonNull(bytes);
+
+        int length = count << 1;
+        char[] buffer = buffers.get();
+        if (buffer.length < length) {
+            buffer = new char[length];
+            buffers.set(buffer);
+        }
+
+        for (int i = offset, j = 0; i < offset + count; ++i) {
+            buffer[j++] = DIGITS[(bytes[i] >>> 4) & 0xF];
+            buffer[j++] = DIGITS[bytes[i] & 0xF];
+        }
+
+        return new String(buffer, 0, length);
+    }
+
+    public static byte[] decode(CharSequence hex) {
+        Objects.requireNonNull(hex);
+
+        return decode(hex, 0, hex.length());
+    }
+
+    /**
+     * Decodes the characters from start (inclusive) to end (exclusive).
+     *
+     * @throws IllegalArgumentException if the characters are not a valid hex
+     *             string.
+     */
+    public static byte[] decode(CharSequence hex, int start, int end) {
+        Objects.requireNonNull(hex);
+
+        int length = end - start;
+        if (length <= 0 || (length & 1) != 0) {
+            throw new IllegalArgumentException("Invalid hex string length: " + length);
+        }
+
+        byte[] bytes = new byte[length >> 1];
+        for (int i = 0, j = start; i < bytes.length; ++i) {
+            int high = value(hex.charAt(j++));
+            int low = value(hex.charAt(j++));
+            if (high < 0 || low < 0) {
+                throw new IllegalArgumentException("Invalid hex string: " + hex.subSequence(start, end));
+            }
+
+            bytes[i] = (byte) ((high << 4) | low);
+        }
+
+        return bytes;
+    }
+
+    /**
+     * Decodes the ASCII bytes from start (inclusive) to end (exclusive).
+     *
+     * @throws IllegalArgumentException if the bytes are not a valid hex
+     *             string.
+     */
+    public static byte[] decode(byte[] hex, int start, int end) {
+        Objects.requireNonNull(hex);
+
+        int length = end - start;
+        if (length <= 0 || (length & 1) != 0) {
+            throw new IllegalArgumentException("Invalid hex string length: " + length);
+        }
+
+        byte[] bytes = new byte[length >> 1];
+        for (int i = 0, j = start; i < bytes.length; ++i) {
+            int high = value((char) (hex[j++] & 0xFF));
+            int low = value((char) (hex[j++] & 0xFF));
+            if (high < 0 || low < 0) {
+                throw new IllegalArgumentException("Invalid hex string at offset " + start);
+            }
+
+            bytes[i] = (byte) ((high << 4) | low);
+        }
+
+        return bytes;
+    }
+
+    private static int value(char c) {
+        if (c >= VALUES.length) {
+            return -1;
+        }
+
+        return VALUES[c];
+    }
+
+}
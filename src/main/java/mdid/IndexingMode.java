@@ -22,34 +22,34 @@ import java.io.IOException;
 import java.nio.file.FileVisitResult;
 import java.nio.file.Path;
 import java.nio.file.attribute.BasicFileAttributes;
-import java.security.NoSuchAlgorithmException;
 import java.util.Objects;
 
-import org.slf4j.Logger;
-import org.slf4j.LoggerFactory;
-
 /**
  * @author Phokham Nonava
  */
 public class IndexingMode extends AbstractOperationMode {
 
-    private static final Logger logger = LoggerFactory.getLogger(IndexingMode.class);
-
-    public IndexingMode(Path hashFile, Path exceptionFile) throws IOException, NoSuchAlgorithmException {
-        super(hashFile, exceptionFile);
+    public IndexingMode(Path hashFile, Path exceptionFile, HashPipeline hashPipeline, HashDatabase.Format format) throws IOException {
+        super(hashFile, exceptionFile, hashPipeline, format);
     }
 
     @Override
-    public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+    public FileVisitResult visitFile(Path file, final BasicFileAttributes attrs) throws IOException {
         Objects.requireNonNull(file);
         Objects.requireNonNull(attrs);
 
-        if (exceptionDatabase.contains(file.toString())) {
-            logger.info("{} {}", SKIPPING, file.toString());
+        final String path = file.toString();
+        if (exceptionDatabase.contains(path)) {
+            report(SKIPPING, path);
         } else {
-            String hash = getHash(file);
-            hashDatabase.putAndMark(file.toString(), hash);
-            logger.info("{} {}", NEW, file.toString());
+            final HashEntry.Kind kind = getKind(attrs);
+            hash(file, path, attrs, kind, new HashPipeline.Callback() {
+                @Override
+                public void done(byte[] digest) throws IOException {
+                    hashDatabase.putAndMark(path, new HashEntry(digest, attrs, kind));
+                    reportWriter.write(NEW, path);
+                }
+            });
         }
 
         return FileVisitResult.CONTINUE;
@@ -0,0 +1,343 @@
+/*
+** Copyright 2012 Phokham Nonava
+**
+** This file is part of Message Digest Integrity Database.
+**
+** Message Digest Integrity Database is free software: you can redistribute it and/or modify
+** it under the terms of the GNU Lesser General Public License as published by
+** the Free Software Foundation, either version 3 of the License, or
+** (at your option) any later version.
+**
+** Message Digest Integrity Database is distributed in the hope that it will be useful,
+** but WITHOUT ANY WARRANTY; without even the implied warranty of
+** MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+** GNU Lesser General Public License for more details.
+**
+** You should have received a copy of the GNU Lesser General Public License
+** along with Message Digest Integrity Database.  If not, see <http://www.gnu.org/licenses/>.
+*/
+package mdid;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Objects;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * An append-only journal of the changes to a hash database. The journal lives
+ * next to the hash file and is removed once the hash file has been written.
+ * If it still exists when a run over the same root begins, the previous run
+ * did not finish and its changes can be replayed. Only complete lines are
+ * replayed.
+ *
+ * <pre>
+ * P <hash entry> <path>   put and mark
+ * M <path>                mark
+ * R <path>                remove
+ * U                       remove unmarked
+ * C <path>                directory completed
+ * </pre>
+ *
+ * @author Phokham Nonava
+ */
+public class Journal implements Closeable {
+
+    /**
+     * Receives the replayed changes.
+     */
+    public interface Handler {
+        void putAndMark(String path, HashEntry entry);
+
+        void mark(String path);
+
+        void remove(String path);
+
+        void removeUnmarked();
+
+        void complete(String path);
+    }
+
+    public static final String SUFFIX = ".journal";
+
+    private static final String NEW_HEADER = "# mdid journal new";
+    private static final String EXISTING_HEADER = "# mdid journal existing";
+
+    private static final char PUT = 'P';
+    private static final char MARK = 'M';
+    private static final char REMOVE = 'R';
+    private static final char REMOVE_UNMARKED = 'U';
+    private static final char COMPLETE = 'C';
+
+    private static final long FLUSH_INTERVAL = 1000;
+    private static final int TRUNCATE_BUFFER_SIZE = 8 * 1024;
+
+    private static final Logger logger = LoggerFactory.getLogger(Journal.class);
+
+    private final Path journalFile;
+    private final BufferedWriter bufferedWriter;
+
+    private long lastFlush = System.currentTimeMillis();
+
+    /**
+     * Opens the journal for appending. A new journal records whether it
+     * belongs to a new database or to an existing hash file, the digest
+     * algorithm of its entries and the root of the run. A partially written
+     * last line of an existing journal is cut off first, so the next change
+     * is not appended to it.
+     */
+    public Journal(Path journalFile, boolean newDatabase, String algorithm, String root) throws IOException {
+        Objects.requireNonNull(journalFile);
+        Objects.requireNonNull(algorithm);
+        Objects.requireNonNull(root);
+
+        this.journalFile = journalFile;
+
+        if (Files.exists(journalFile)) {
+            truncatePartialLine(journalFile);
+        }
+
+        boolean exists = Files.exists(journalFile) && Files.size(journalFile) > 0;
+        bufferedWriter = Files.newBufferedWriter(journalFile, Charset.defaultCharset(), StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+        if (!exists) {
+            bufferedWriter.write(getHeader(newDatabase, algorithm, root));
+            bufferedWriter.newLine();
+            bufferedWriter.flush();
+        }
+    }
+
+    public static Path getJournalFile(Path hashFile) {
+        Objects.requireNonNull(hashFile);
+
+        return hashFile.resolveSibling(hashFile.getFileName().toString() + SUFFIX);
+    }
+
+    /**
+     * Returns whether the journal belongs to the same kind of database with
+     * the same digest algorithm and to a run over the same root.
+     */
+    public static boolean isCompatible(Path journalFile, boolean newDatabase, String algorithm, String root) throws IOException {
+        Objects.requireNonNull(journalFile);
+        Objects.requireNonNull(algorithm);
+        Objects.requireNonNull(root);
+
+        try (BufferedReader bufferedReader = Files.newBufferedReader(journalFile, Charset.defaultCharset())) {
+            return getHeader(newDatabase, algorithm, root).equals(bufferedReader.readLine());
+        }
+    }
+
+    private static String getHeader(boolean newDatabase, String algorithm, String root) {
+        // The root comes last, it may contain spaces
+        if (newDatabase) {
+            return NEW_HEADER + " " + algorithm + " " + root;
+        } else {
+            return EXISTING_HEADER + " " + algorithm + " " + root;
+        }
+    }
+
+    /**
+     * Replays the journal. A partially written last line is dropped, as it
+     * may still look valid, like the truncated path of a completed
+     * directory. Invalid lines are logged and skipped.
+     *
+     * @return the number of replayed changes.
+     */
+    public static int replay(Path journalFile, Handler handler) throws IOException {
+        Objects.requireNonNull(journalFile);
+        Objects.requireNonNull(handler);
+
+        boolean terminated = isTerminated(journalFile);
+
+        try (BufferedReader bufferedReader = Files.newBufferedReader(journalFile, Charset.defaultCharset())) {
+            int count = 0;
+
+            // Skip the header
+            String line = bufferedReader.readLine();
+            if (line != null) {
+                line = bufferedReader.readLine();
+            }
+
+            while (line != null) {
+                String next = bufferedReader.readLine();
+                if (next == null && !terminated) {
+                    logger.warn("Dropping partial journal line {}", line);
+                } else if (replay(line, handler)) {
+                    ++count;
+                } else {
+                    logger.warn("Invalid journal line {}", line);
+                }
+
+                line = next;
+            }
+
+            return count;
+        }
+    }
+
+    /**
+     * Returns whether the last line of the file is terminated.
+     */
+    private static boolean isTerminated(Path file) throws IOException {
+        try (SeekableByteChannel channel = Files.newByteChannel(file)) {
+            long size = channel.size();
+            if (size == 0) {
+                return true;
+            }
+
+            ByteBuffer buffer = ByteBuffer.allocate(1);
+            channel.position(size - 1);
+            if (channel.read(buffer) != 1) {
+                return false;
+            }
+
+            return buffer.get(0) == '\n';
+        }
+    }
+
+    /**
+     * Truncates the file after its last line terminator.
+     */
+    private static void truncatePartialLine(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            ByteBuffer buffer = ByteBuffer.allocate(TRUNCATE_BUFFER_SIZE);
+            long end = channel.size();
+            while (end > 0) {
+                long start = Math.max(end - buffer.capacity(), 0);
+                buffer.clear();
+                buffer.limit((int) (end - start));
+                while (buffer.hasRemaining()) {
+                    if (channel.read(buffer, start + buffer.position()) == -1) {
+                        break;
+                    }
+                }
+
+                for (int i = buffer.position() - 1; i >= 0; --i) {
+                    if (buffer.get(i) == '\n') {
+                        if (start + i + 1 < channel.size()) {
+                            logger.warn("Cutting off partial journal line");
+                            channel.truncate(start + i + 1);
+                        }
+                        return;
+                    }
+                }
+
+                end = start;
+            }
+
+            // Not even the header is complete
+            channel.truncate(0);
+        }
+    }
+
+    private static boolean replay(String line, Handler handler) {
+        if (line.length() == 1 && line.charAt(0) == REMOVE_UNMARKED) {
+            handler.removeUnmarked();
+            return true;
+        }
+        if (line.length() < 3 || line.charAt(1) != ' ') {
+            return false;
+        }
+
+        String argument = line.substring(2);
+        switch (line.charAt(0)) {
+            case PUT:
+                int index = argument.indexOf(' ');
+                if (index == -1) {
+                    return false;
+                }
+                HashEntry entry = HashEntry.parse(argument.substring(0, index));
+                if (entry == null) {
+                    return false;
+                }
+                handler.putAndMark(argument.substring(index + 1), entry);
+                return true;
+            case MARK:
+                handler.mark(argument);
+                return true;
+            case REMOVE:
+                handler.remove(argument);
+                return true;
+            case COMPLETE:
+                handler.complete(argument);
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    public synchronized void putAndMark(String path, HashEntry entry) throws IOException {
+        bufferedWriter.write(PUT);
+        bufferedWriter.write(' ');
+        bufferedWriter.write(entry.format());
+        bufferedWriter.write(' ');
+        bufferedWriter.write(path);
+        append();
+    }
+
+    public synchronized void mark(String path) throws IOException {
+        bufferedWriter.write(MARK);
+        bufferedWriter.write(' ');
+        bufferedWriter.write(path);
+        append();
+    }
+
+    public synchronized void remove(String path) throws IOException {
+        bufferedWriter.write(REMOVE);
+        bufferedWriter.write(' ');
+        bufferedWriter.write(path);
+        append();
+    }
+
+    public synchronized void removeUnmarked() throws IOException {
+        bufferedWriter.write(REMOVE_UNMARKED);
+        append();
+    }
+
+    public synchronized void complete(String path) throws IOException {
+        bufferedWriter.write(COMPLETE);
+        bufferedWriter.write(' ');
+        bufferedWriter.write(path);
+        append();
+    }
+
+    /**
+     * Writes all buffered changes to the journal file.
+     */
+    public synchronized void flush() throws IOException {
+        bufferedWriter.flush();
+        lastFlush = System.currentTimeMillis();
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        bufferedWriter.close();
+    }
+
+    /**
+     * Closes and removes the journal.
+     */
+    public synchronized void delete() throws IOException {
+        bufferedWriter.close();
+        Files.deleteIfExists(journalFile);
+    }
+
+    private void append() throws IOException {
+        bufferedWriter.newLine();
+
+        // Flush regularly, so a killed run loses at most the last interval
+        if (System.currentTimeMillis() - lastFlush > FLUSH_INTERVAL) {
+            flush();
+        }
+    }
+
+}
@@ -0,0 +1,93 @@
+/*
+** Copyright 2012 Phokham Nonava
+**
+** This file is part of Message Digest Integrity Database.
+**
+** Message Digest Integrity Database is free software: you can redistribute it and/or modify
+** it under the terms of the GNU Lesser General Public License as published by
+** the Free Software Foundation, either version 3 of the License, or
+** (at your option) any later version.
+**
+** Message Digest Integrity Database is distributed in the hope that it will be useful,
+** but WITHOUT ANY WARRANTY; without even the implied warranty of
+** MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+** GNU Lesser General Public License for more details.
+**
+** You should have received a copy of the GNU Lesser General Public License
+** along with Message Digest Integrity Database.  If not, see <http://www.gnu.org/licenses/>.
+*/
+package mdid;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.nio.charset.Charset;
+import java.util.Objects;
+
+/**
+ * Writes results as JSON lines, one object per line:
+ *
+ * <pre>
+ * {"result":"MODIFIED","path":"a/path"}
+ * </pre>
+ *
+ * The output is always UTF-8.
+ *
+ * @author Phokham Nonava
+ */
+public class JsonReportWriter implements ReportWriter {
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    private final BufferedWriter bufferedWriter;
+
+    public JsonReportWriter(OutputStream outputStream) {
+        Objects.requireNonNull(outputStream);
+
+        bufferedWriter = new BufferedWriter(new OutputStreamWriter(outputStream, Charset.forName("UTF-8")), BUFFER_SIZE);
+    }
+
+    @Override
+    public void write(String result, String path) throws IOException {
+        Objects.requireNonNull(result);
+        Objects.requireNonNull(path);
+
+        bufferedWriter.write("{\"result\":");
+        writeString(result.trim());
+        bufferedWriter.write(",\"path\":");
+        writeString(path);
+        bufferedWriter.write('}');
+        bufferedWriter.write('\n');
+    }
+
+    @Override
+    public void flush() throws IOException {
+        bufferedWriter.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        bufferedWriter.close();
+    }
+
+    private void writeString(String string) throws IOException {
+        bufferedWriter.write('"');
+        for (int i = 0; i < string.length(); ++i) {
+            char c = string.charAt(i);
+            if (c == '"' || c == '\\') {
+                bufferedWriter.write('\\');
+                bufferedWriter.write(c);
+            } else if (c < 0x20) {
+                bufferedWriter.write("\\u00");
+                bufferedWriter.write(HEX[c >> 4]);
+                bufferedWriter.write(HEX[c & 0xf]);
+            } else {
+                bufferedWriter.write(c);
+            }
+        }
+        bufferedWriter.write('"');
+    }
+
+}
@@ -19,7 +19,6 @@
 package mdid;
 
 import java.io.IOException;
-import java.nio.file.Files;
 import java.security.NoSuchAlgorithmException;
 
 import org.slf4j.Logger;
@@ -39,9 +38,22 @@ public final class Mdid {
         try {
             Configuration.getInstance().parseArgumens(args);
 
-            AbstractOperationMode mode = Configuration.getInstance().mode;
-            Files.walkFileTree(Configuration.getInstance().path, mode);
-            mode.doFinal();
+            OperationMode mode = Configuration.getInstance().mode;
+            Metrics metrics = Configuration.getInstance().metrics;
+            if (metrics != null) {
+                metrics.startPhase("run");
+            }
+            try {
+                mode.run(Configuration.getInstance().path);
+            } finally {
+                Configuration.getInstance().reportWriter.close();
+                if (metrics != null) {
+                    metrics.stop();
+                }
+            }
+            if (metrics != null) {
+                metrics.logSummary();
+            }
         } catch (NoSuchAlgorithmException | IOException e) {
             logger.error("An error occured: {}", e.getLocalizedMessage());
         }
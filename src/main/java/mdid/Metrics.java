@@ -0,0 +1,364 @@
+/*
+** Copyright 2012 Phokham Nonava
+**
+** This file is part of Message Digest Integrity Database.
+**
+** Message Digest Integrity Database is free software: you can redistribute it and/or modify
+** it under the terms of the GNU Lesser General Public License as published by
+** the Free Software Foundation, either version 3 of the License, or
+** (at your option) any later version.
+**
+** Message Digest Integrity Database is distributed in the hope that it will be useful,
+** but WITHOUT ANY WARRANTY; without even the implied warranty of
+** MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+** GNU Lesser General Public License for more details.
+**
+** You should have received a copy of the GNU Lesser General Public License
+** along with Message Digest Integrity Database.  If not, see <http://www.gnu.org/licenses/>.
+*/
+package mdid;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Collects the metrics of a run: the results per category, the files and
+ * bytes hashed, the time spent in each phase and a histogram of the hashing
+ * latencies. The counters are updated by the walker and the hashing threads
+ * concurrently and can be watched over JMX while the run goes on.
+ *
+ * @author Phokham Nonava
+ */
+public class Metrics implements MetricsMBean {
+
+    public static final String OBJECT_NAME = "mdid:type=Metrics";
+
+    private static final int BUCKETS = 40;
+
+    private static final Logger logger = LoggerFactory.getLogger(Metrics.class);
+
+    private final long start = System.nanoTime();
+
+    private final AtomicLong newCount = new AtomicLong();
+    private final AtomicLong equalCount = new AtomicLong();
+    private final AtomicLong sampledCount = new AtomicLong();
+    private final AtomicLong modifiedCount = new AtomicLong();
+    private final AtomicLong deletedCount = new AtomicLong();
+    private final AtomicLong skippedCount = new AtomicLong();
+
+    private final AtomicLong filesHashed = new AtomicLong();
+    private final AtomicLong bytesHashed = new AtomicLong();
+    private final AtomicLong hashingNanos = new AtomicLong();
+    private final AtomicLong waitingNanos = new AtomicLong();
+    private final AtomicLongArray latencies = new AtomicLongArray(BUCKETS);
+    private final AtomicLong maximumLatency = new AtomicLong();
+
+    // Guarded by this
+    private final Map<String, Long> phases = new LinkedHashMap<>();
+    private String phase = null;
+    private long phaseStart = 0;
+
+    /**
+     * Registers the metrics with the platform MBean server. A failure is only
+     * logged, as the run does not depend on it.
+     */
+    public void register() {
+        try {
+            ManagementFactory.getPlatformMBeanServer().registerMBean(this, new ObjectName(OBJECT_NAME));
+        } catch (JMException e) {
+            logger.warn("Cannot register metrics: {}", e.getLocalizedMessage());
+        }
+    }
+
+    /**
+     * Ends the current phase and starts the next one. Time spent in a phase
+     * entered more than once adds up.
+     */
+    public synchronized void startPhase(String name) {
+        Objects.requireNonNull(name);
+
+        stop();
+        phase = name;
+        phaseStart = System.nanoTime();
+    }
+
+    /**
+     * Ends the current phase.
+     */
+    public synchronized void stop() {
+        if (phase != null) {
+            Long millis = phases.get(phase);
+            long elapsed = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - phaseStart);
+            phases.put(phase, (millis == null ? 0 : millis) + elapsed);
+            phase = null;
+        }
+    }
+
+    /**
+     * Counts the result of a path.
+     */
+    public void result(String result) {
+        Objects.requireNonNull(result);
+
+        switch (result) {
+            case AbstractOperationMode.NEW:
+                newCount.incrementAndGet();
+                break;
+            case AbstractOperationMode.EQUAL:
+                equalCount.incrementAndGet();
+                break;
+            case AbstractOperationMode.SAMPLED:
+                sampledCount.incrementAndGet();
+                break;
+            case AbstractOperationMode.MODIFIED:
+                modifiedCount.incrementAndGet();
+                break;
+            case AbstractOperationMode.DELETED:
+                deletedCount.incrementAndGet();
+                break;
+            case AbstractOperationMode.SKIPPING:
+                skippedCount.incrementAndGet();
+                break;
+            default:
+                break;
+        }
+    }
+
+    /**
+     * Records a hashed file.
+     */
+    public void hashed(long bytes, long nanos) {
+        filesHashed.incrementAndGet();
+        bytesHashed.addAndGet(bytes);
+        hashingNanos.addAndGet(nanos);
+
+        long micros = TimeUnit.NANOSECONDS.toMicros(nanos);
+        int bucket = micros < 2 ? 0 : Math.min(63 - Long.numberOfLeadingZeros(micros), BUCKETS - 1);
+        latencies.incrementAndGet(bucket);
+
+        long maximum = maximumLatency.get();
+        while (micros > maximum && !maximumLatency.compareAndSet(maximum, micros)) {
+            maximum = maximumLatency.get();
+        }
+    }
+
+    /**
+     * Records a further block of a tree hash. The tree is recorded as one
+     * file with its first block.
+     */
+    public void hashedBlock(long bytes, long nanos) {
+        bytesHashed.addAndGet(bytes);
+        hashingNanos.addAndGet(nanos);
+    }
+
+    /**
+     * Records time the walker waited for a hash.
+     */
+    public void waited(long nanos) {
+        waitingNanos.addAndGet(nanos);
+    }
+
+    /**
+     * Returns a report writer counting the results before passing them on.
+     */
+    public ReportWriter newReportWriter(ReportWriter reportWriter) {
+        return new CountingReportWriter(reportWriter);
+    }
+
+    /**
+     * Logs a summary of all metrics.
+     */
+    public void logSummary() {
+        logger.info("Results: {} new, {} equal, {} sampled, {} modified, {} deleted, {} skipped",
+                getNew(), getEqual(), getSampled(), getModified(), getDeleted(), getSkipped());
+        logger.info("Hashed {} files with {} bytes, {} files/s, {} MB/s",
+                getFilesHashed(), getBytesHashed(),
+                String.format("%.1f", getFilesPerSecond()), String.format("%.1f", getMegabytesPerSecond()));
+        logger.info("Hashing took {} ms over all workers, the walker waited {} ms", getHashingMillis(), getWaitingMillis());
+        logger.info("Hashing latency: {} us median, {} us 99th percentile, {} us maximum",
+                getLatencyMicros50(), getLatencyMicros99(), getLatencyMicrosMax());
+        for (String phaseMillis : getPhaseMillis()) {
+            logger.info("Phase {} ms", phaseMillis);
+        }
+    }
+
+    @Override
+    public synchronized String getPhase() {
+        return phase;
+    }
+
+    @Override
+    public synchronized String[] getPhaseMillis() {
+        List<String> result = new ArrayList<>();
+        for (Map.Entry<String, Long> entry : phases.entrySet()) {
+            long millis = entry.getValue();
+            if (entry.getKey().equals(phase)) {
+                millis += TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - phaseStart);
+            }
+            result.add(entry.getKey() + " " + millis);
+        }
+        if (phase != null && !phases.containsKey(phase)) {
+            result.add(phase + " " + TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - phaseStart));
+        }
+
+        return result.toArray(new String[result.size()]);
+    }
+
+    @Override
+    public long getNew() {
+        return newCount.get();
+    }
+
+    @Override
+    public long getEqual() {
+        return equalCount.get();
+    }
+
+    @Override
+    public long getSampled() {
+        return sampledCount.get();
+    }
+
+    @Override
+    public long getModified() {
+        return modifiedCount.get();
+    }
+
+    @Override
+    public long getDeleted() {
+        return deletedCount.get();
+    }
+
+    @Override
+    public long getSkipped() {
+        return skippedCount.get();
+    }
+
+    @Override
+    public long getFilesHashed() {
+        return filesHashed.get();
+    }
+
+    @Override
+    public long getBytesHashed() {
+        return bytesHashed.get();
+    }
+
+    @Override
+    public double getFilesPerSecond() {
+        return filesHashed.get() / getElapsedSeconds();
+    }
+
+    @Override
+    public double getMegabytesPerSecond() {
+        return bytesHashed.get() / (1024.0 * 1024.0) / getElapsedSeconds();
+    }
+
+    @Override
+    public long getHashingMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(hashingNanos.get());
+    }
+
+    @Override
+    public long getWaitingMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(waitingNanos.get());
+    }
+
+    @Override
+    public long[] getLatencyHistogram() {
+        long[] histogram = new long[BUCKETS];
+        for (int i = 0; i < BUCKETS; ++i) {
+            histogram[i] = latencies.get(i);
+        }
+
+        return histogram;
+    }
+
+    @Override
+    public long getLatencyMicros50() {
+        return getLatencyPercentile(0.5);
+    }
+
+    @Override
+    public long getLatencyMicros99() {
+        return getLatencyPercentile(0.99);
+    }
+
+    @Override
+    public long getLatencyMicrosMax() {
+        return maximumLatency.get();
+    }
+
+    /**
+     * Returns the upper bound of the bucket holding the percentile, which
+     * overestimates it by at most a factor of two.
+     */
+    private long getLatencyPercentile(double percentile) {
+        long[] histogram = getLatencyHistogram();
+        long total = 0;
+        for (long count : histogram) {
+            total += count;
+        }
+        if (total == 0) {
+            return 0;
+        }
+
+        long rank = (long) Math.ceil(total * percentile);
+        long count = 0;
+        for (int i = 0; i < BUCKETS; ++i) {
+            count += histogram[i];
+            if (count >= rank) {
+                return Math.min(1L << (i + 1), getLatencyMicrosMax());
+            }
+        }
+
+        return getLatencyMicrosMax();
+    }
+
+    private double getElapsedSeconds() {
+        return Math.max(System.nanoTime() - start, 1) / 1e9;
+    }
+
+    private final class CountingReportWriter implements ReportWriter {
+
+        private final ReportWriter reportWriter;
+
+        private CountingReportWriter(ReportWriter reportWriter) {
+            Objects.requireNonNull(reportWriter);
+
+            this.reportWriter = reportWriter;
+        }
+
+        @Override
+        public void write(String result, String path) throws IOException {
+            result(result);
+            reportWriter.write(result, path);
+        }
+
+        @Override
+        public void flush() throws IOException {
+            reportWriter.flush();
+        }
+
+        @Override
+        public void close() throws IOException {
+            reportWriter.close();
+        }
+
+    }
+
+}
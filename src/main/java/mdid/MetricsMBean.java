@@ -0,0 +1,79 @@
+/*
+** Copyright 2012 Phokham Nonava
+**
+** This file is part of Message Digest Integrity Database.
+**
+** Message Digest Integrity Database is free software: you can redistribute it and/or modify
+** it under the terms of the GNU Lesser General Public License as published by
+** the Free Software Foundation, either version 3 of the License, or
+** (at your option) any later version.
+**
+** Message Digest Integrity Database is distributed in the hope that it will be useful,
+** but WITHOUT ANY WARRANTY; without even the implied warranty of
+** MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+** GNU Lesser General Public License for more details.
+**
+** You should have received a copy of the GNU Lesser General Public License
+** along with Message Digest Integrity Database.  If not, see <http://www.gnu.org/licenses/>.
+*/
+package mdid;
+
+/**
+ * The management interface of {@link Metrics}.
+ *
+ * @author Phokham Nonava
+ */
+public interface MetricsMBean {
+
+    String getPhase();
+
+    /**
+     * Returns the time spent in each finished or current phase as
+     * <phase> <milliseconds>.
+     */
+    String[] getPhaseMillis();
+
+    long getNew();
+
+    long getEqual();
+
+    long getSampled();
+
+    long getModified();
+
+    long getDeleted();
+
+    long getSkipped();
+
+    long getFilesHashed();
+
+    long getBytesHashed();
+
+    double getFilesPerSecond();
+
+    double getMegabytesPerSecond();
+
+    /**
+     * Returns the time spent hashing, summed over all workers.
+     */
+    long getHashingMillis();
+
+    /**
+     * Returns the time the walker waited for hashes.
+     */
+    long getWaitingMillis();
+
+    /**
+     * Returns the number of files per hashing latency. Bucket i counts the
+     * latencies from 2^i (inclusive) to 2^(i+1) (exclusive) microseconds,
+     * bucket 0 also the shorter ones.
+     */
+    long[] getLatencyHistogram();
+
+    long getLatencyMicros50();
+
+    long getLatencyMicros99();
+
+    long getLatencyMicrosMax();
+
+}
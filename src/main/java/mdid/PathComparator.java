@@ -0,0 +1,73 @@
+/*
+** Copyright 2012 Phokham Nonava
+**
+** This file is part of Message Digest Integrity Database.
+**
+** Message Digest Integrity Database is free software: you can redistribute it and/or modify
+** it under the terms of the GNU Lesser General Public License as published by
+** the Free Software Foundation, either version 3 of the License, or
+** (at your option) any later version.
+**
+** Message Digest Integrity Database is distributed in the hope that it will be useful,
+** but WITHOUT ANY WARRANTY; without even the implied warranty of
+** MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+** GNU Lesser General Public License for more details.
+**
+** You should have received a copy of the GNU Lesser General Public License
+** along with Message Digest Integrity Database.  If not, see <http://www.gnu.org/licenses/>.
+*/
+package mdid;
+
+import java.io.File;
+import java.io.Serializable;
+import java.util.Comparator;
+
+/**
+ * Orders path strings component by component, which is the order of a
+ * depth-first walk visiting the entries of each directory sorted by name.
+ * This is the same as comparing the strings character by character, except
+ * that the separator sorts before every other character.
+ *
+ * @author Phokham Nonava
+ */
+public final class PathComparator implements Comparator<String>, Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    private static final PathComparator instance = new PathComparator(File.separatorChar);
+
+    private final char separator;
+
+    public PathComparator(char separator) {
+        this.separator = separator;
+    }
+
+    public static PathComparator getInstance() {
+        return instance;
+    }
+
+    public char getSeparator() {
+        return separator;
+    }
+
+    @Override
+    public int compare(String path1, String path2) {
+        int length = Math.min(path1.length(), path2.length());
+        for (int i = 0; i < length; ++i) {
+            char c1 = path1.charAt(i);
+            char c2 = path2.charAt(i);
+            if (c1 != c2) {
+                if (c1 == separator) {
+                    return -1;
+                } else if (c2 == separator) {
+                    return 1;
+                } else {
+                    return c1 - c2;
+                }
+            }
+        }
+
+        return path1.length() - path2.length();
+    }
+
+}
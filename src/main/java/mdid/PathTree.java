@@ -0,0 +1,307 @@
+/*
+** Copyright 2012 Phokham Nonava
+**
+** This file is part of Message Digest Integrity Database.
+**
+** Message Digest Integrity Database is free software: you can redistribute it and/or modify
+** it under the terms of the GNU Lesser General Public License as published by
+** the Free Software Foundation, either version 3 of the License, or
+** (at your option) any later version.
+**
+** Message Digest Integrity Database is distributed in the hope that it will be useful,
+** but WITHOUT ANY WARRANTY; without even the implied warranty of
+** MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+** GNU Lesser General Public License for more details.
+**
+** You should have received a copy of the GNU Lesser General Public License
+** along with Message Digest Integrity Database.  If not, see <http://www.gnu.org/licenses/>.
+*/
+package mdid;
+
+import java.io.File;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.Objects;
+
+/**
+ * Interns paths as a tree of nodes. Every node stores the id of its parent,
+ * its first child and next sibling, the hash used to find it and its own name
+ * as UTF-8 bytes, so a directory prefix shared by many paths is stored only
+ * once. Nodes are identified by consecutive ids starting at 1; the root node
+ * 0 stands for the empty prefix. Nodes are never removed.
+ *
+ * A path is split at every separator, so joining the names on the way back
+ * from a node to the root gives exactly the interned string.
+ *
+ * @author Phokham Nonava
+ */
+public final class PathTree {
+
+    public static final int ROOT = 0;
+
+    private static final Charset CHARSET = Charset.forName("UTF-8");
+    private static final int INITIAL_CAPACITY = 1024;
+
+    private final char separator;
+
+    private int size = 1;
+    private int[] parents;
+    private int[] hashes;
+    private byte[][] names;
+
+    // Children of a node as a list, 0 ends it
+    private int[] firstChildren;
+    private int[] nextSiblings;
+
+    // Open addressing table of node ids keyed by (parent, name), 0 is empty
+    private int[] slots;
+
+    private String cachedDirectory = null;
+    private int cachedNode = ROOT;
+
+    public PathTree() {
+        this(File.separatorChar, INITIAL_CAPACITY);
+    }
+
+    /**
+     * Creates a tree with room for the given number of nodes.
+     */
+    public PathTree(int capacity) {
+        this(File.separatorChar, capacity);
+    }
+
+    public PathTree(char separator, int capacity) {
+        this.separator = separator;
+
+        int nodes = Math.max(capacity, INITIAL_CAPACITY);
+        parents = new int[nodes];
+        hashes = new int[nodes];
+        names = new byte[nodes][];
+        firstChildren = new int[nodes];
+        nextSiblings = new int[nodes];
+        slots = new int[Integer.highestOneBit(nodes - 1) << 2];
+
+        names[ROOT] = new byte[0];
+    }
+
+    /**
+     * Returns the number of nodes including the root.
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Returns the node id of the path, creating missing nodes.
+     */
+    public int intern(String path) {
+        Objects.requireNonNull(path);
+
+        return resolve(path, true);
+    }
+
+    /**
+     * Returns the node id of the path or -1 if the path has not been
+     * interned.
+     */
+    public int find(String path) {
+        Objects.requireNonNull(path);
+
+        return resolve(path, false);
+    }
+
+    /**
+     * Returns the path of the node.
+     */
+    public String getPath(int node) {
+        if (node <= ROOT || node >= size) {
+            throw new IllegalArgumentException("Invalid node: " + node);
+        }
+
+        // Collect the names from the node up to the root
+        int depth = 0;
+        int length = 0;
+        for (int current = node; current != ROOT; current = parents[current]) {
+            ++depth;
+            length += names[current].length + 1;
+        }
+
+        byte[][] path = new byte[depth][];
+        for (int current = node, i = depth - 1; current != ROOT; current = parents[current], --i) {
+            path[i] = names[current];
+        }
+
+        StringBuilder builder = new StringBuilder(length);
+        for (int i = 0; i < depth; ++i) {
+            if (i > 0) {
+                builder.append(separator);
+            }
+            builder.append(new String(path[i], CHARSET));
+        }
+
+        return builder.toString();
+    }
+
+    /**
+     * Returns the first child of the node or -1 if it has none.
+     */
+    public int getFirstChild(int node) {
+        if (node < ROOT || node >= size) {
+            throw new IllegalArgumentException("Invalid node: " + node);
+        }
+
+        int child = firstChildren[node];
+
+        return child == ROOT ? -1 : child;
+    }
+
+    /**
+     * Returns the next child of the node's parent or -1 if there is none.
+     */
+    public int getNextSibling(int node) {
+        if (node <= ROOT || node >= size) {
+            throw new IllegalArgumentException("Invalid node: " + node);
+        }
+
+        int sibling = nextSiblings[node];
+
+        return sibling == ROOT ? -1 : sibling;
+    }
+
+    private int resolve(String path, boolean create) {
+        // Paths usually come directory by directory, so remember the last
+        // directory and only look up the name below it
+        int index = path.lastIndexOf(separator);
+        int parent;
+        if (index == -1) {
+            parent = ROOT;
+        } else if (cachedDirectory != null && cachedDirectory.length() == index && path.startsWith(cachedDirectory)) {
+            parent = cachedNode;
+        } else {
+            String directory = path.substring(0, index);
+            parent = resolve(ROOT, directory, 0, create);
+            if (parent == -1) {
+                return -1;
+            }
+
+            cachedDirectory = directory;
+            cachedNode = parent;
+        }
+
+        return resolve(parent, path, index + 1, create);
+    }
+
+    private int resolve(int parent, String path, int start, boolean create) {
+        int node = parent;
+        while (start <= path.length()) {
+            int end = path.indexOf(separator, start);
+            if (end == -1) {
+                end = path.length();
+            }
+
+            int hash = hash(node, path, start, end);
+            int child = findChild(node, hash, path, start, end);
+            if (child == -1) {
+                if (!create) {
+                    return -1;
+                }
+                child = addChild(node, hash, path.substring(start, end).getBytes(CHARSET));
+            }
+            node = child;
+
+            start = end + 1;
+        }
+
+        return node;
+    }
+
+    private int findChild(int parent, int hash, String path, int start, int end) {
+        int mask = slots.length - 1;
+        for (int slot = hash & mask; slots[slot] != 0; slot = (slot + 1) & mask) {
+            int node = slots[slot];
+            if (hashes[node] == hash && parents[node] == parent && equals(names[node], path, start, end)) {
+                return node;
+            }
+        }
+
+        return -1;
+    }
+
+    private int addChild(int parent, int hash, byte[] name) {
+        if (size == parents.length) {
+            parents = Arrays.copyOf(parents, size * 2);
+            hashes = Arrays.copyOf(hashes, size * 2);
+            names = Arrays.copyOf(names, size * 2);
+            firstChildren = Arrays.copyOf(firstChildren, size * 2);
+            nextSiblings = Arrays.copyOf(nextSiblings, size * 2);
+        }
+
+        int node = size++;
+        parents[node] = parent;
+        hashes[node] = hash;
+        names[node] = name;
+        nextSiblings[node] = firstChildren[parent];
+        firstChildren[parent] = node;
+
+        // Keep the load factor at or below one half
+        if (size * 2 > slots.length) {
+            rehash(slots.length * 2);
+        } else {
+            insert(node);
+        }
+
+        return node;
+    }
+
+    private void rehash(int capacity) {
+        slots = new int[capacity];
+        for (int node = ROOT + 1; node < size; ++node) {
+            insert(node);
+        }
+    }
+
+    private void insert(int node) {
+        int mask = slots.length - 1;
+        int slot = hashes[node] & mask;
+        while (slots[slot] != 0) {
+            slot = (slot + 1) & mask;
+        }
+        slots[slot] = node;
+    }
+
+    /**
+     * Compares the UTF-8 name with the characters from start to end without
+     * encoding them, unless they are not plain ASCII.
+     */
+    private static boolean equals(byte[] name, String path, int start, int end) {
+        if (name.length == end - start) {
+            boolean ascii = true;
+            for (int i = 0; i < name.length && ascii; ++i) {
+                char c = path.charAt(start + i);
+                if (c >= 0x80) {
+                    ascii = false;
+                } else if (name[i] != c) {
+                    return false;
+                }
+            }
+            if (ascii) {
+                return true;
+            }
+        } else if (name.length < end - start) {
+            // UTF-8 never needs fewer bytes than characters
+            return false;
+        }
+
+        return Arrays.equals(name, path.substring(start, end).getBytes(CHARSET));
+    }
+
+    private static int hash(int parent, String path, int start, int end) {
+        int hash = parent * 0x9E3779B9;
+        for (int i = start; i < end; ++i) {
+            hash = 31 * hash + path.charAt(i);
+        }
+
+        return hash ^ (hash >>> 16);
+    }
+
+}
@@ -0,0 +1,44 @@
+/*
+** Copyright 2012 Phokham Nonava
+**
+** This file is part of Message Digest Integrity Database.
+**
+** Message Digest Integrity Database is free software: you can redistribute it and/or modify
+** it under the terms of the GNU Lesser General Public License as published by
+** the Free Software Foundation, either version 3 of the License, or
+** (at your option) any later version.
+**
+** Message Digest Integrity Database is distributed in the hope that it will be useful,
+** but WITHOUT ANY WARRANTY; without even the implied warranty of
+** MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+** GNU Lesser General Public License for more details.
+**
+** You should have received a copy of the GNU Lesser General Public License
+** along with Message Digest Integrity Database.  If not, see <http://www.gnu.org/licenses/>.
+*/
+package mdid;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+/**
+ * Receives the per-path results of an operation mode, like new or modified
+ * files. Results are separate from the log, which only carries operational
+ * messages.
+ *
+ * @author Phokham Nonava
+ */
+public interface ReportWriter extends Closeable {
+
+    /**
+     * Writes the result of the path. The result is one of the report
+     * constants of {@link AbstractOperationMode}.
+     */
+    void write(String result, String path) throws IOException;
+
+    /**
+     * Writes all buffered results.
+     */
+    void flush() throws IOException;
+
+}
@@ -0,0 +1,210 @@
+/*
+** Copyright 2012 Phokham Nonava
+**
+** This file is part of Message Digest Integrity Database.
+**
+** Message Digest Integrity Database is free software: you can redistribute it and/or modify
+** it under the terms of the GNU Lesser General Public License as published by
+** the Free Software Foundation, either version 3 of the License, or
+** (at your option) any later version.
+**
+** Message Digest Integrity Database is distributed in the hope that it will be useful,
+** but WITHOUT ANY WARRANTY; without even the implied warranty of
+** MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+** GNU Lesser General Public License for more details.
+**
+** You should have received a copy of the GNU Lesser General Public License
+** along with Message Digest Integrity Database.  If not, see <http://www.gnu.org/licenses/>.
+*/
+package mdid;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Objects;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Analyzes a tree by merge-joining a sorted walk against a hash file sorted by
+ * path. The hash file is streamed instead of loaded, so memory use depends on
+ * the depth and width of the tree only. Hash files written before they were
+ * sorted have to be converted first.
+ *
+ * @author Phokham Nonava
+ */
+public class StreamingAnalysisMode implements OperationMode {
+
+    private static final Logger logger = LoggerFactory.getLogger(StreamingAnalysisMode.class);
+
+    private static final Comparator<Path> order = new Comparator<Path>() {
+        @Override
+        public int compare(Path path1, Path path2) {
+            return PathComparator.getInstance().compare(path1.toString(), path2.toString());
+        }
+    };
+
+    private final Path hashFile;
+    private final ExceptionDatabase exceptionDatabase;
+    private final HashPipeline hashPipeline;
+    private final boolean quick;
+
+    private ReportWriter reportWriter = new TextReportWriter(System.out);
+    private Metrics metrics = new Metrics();
+    private HashFileReader reader = null;
+
+    public StreamingAnalysisMode(Path hashFile, Path exceptionFile, HashPipeline hashPipeline, boolean quick) throws IOException {
+        Objects.requireNonNull(hashFile);
+        Objects.requireNonNull(hashPipeline);
+
+        AbstractOperationMode.checkAlgorithm(hashFile, hashPipeline);
+
+        this.hashFile = hashFile;
+        this.exceptionDatabase = AbstractOperationMode.createExceptionDatabase(hashFile, exceptionFile);
+        this.hashPipeline = hashPipeline;
+        this.quick = quick;
+    }
+
+    /**
+     * Sets the writer receiving the results. It is flushed, but not closed
+     * at the end of the run.
+     */
+    public void setReportWriter(ReportWriter reportWriter) {
+        Objects.requireNonNull(reportWriter);
+
+        this.reportWriter = reportWriter;
+    }
+
+    /**
+     * Sets the metrics to record the run in.
+     */
+    public void setMetrics(Metrics metrics) {
+        Objects.requireNonNull(metrics);
+
+        this.metrics = metrics;
+    }
+
+    @Override
+    public void run(Path path) throws IOException {
+        Objects.requireNonNull(path);
+
+        logger.info("Streaming hash file {}", hashFile.toString());
+        try (HashFileReader hashFileReader = HashDatabase.newReader(hashFile)) {
+            reader = hashFileReader;
+            advance();
+
+            metrics.startPhase("walk");
+            visit(path);
+
+            // Everything left in the hash file has not been seen
+            while (reader.getPath() != null) {
+                report(AbstractOperationMode.DELETED, reader.getPath());
+                advance();
+            }
+
+            hashPipeline.flush();
+            metrics.startPhase("close");
+            reportWriter.flush();
+        } finally {
+            hashPipeline.close();
+        }
+    }
+
+    private void visit(Path file) throws IOException {
+        BasicFileAttributes attrs = Files.readAttributes(file, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+        if (attrs.isDirectory()) {
+            visitDirectory(file);
+        } else {
+            visitFile(file, attrs);
+        }
+    }
+
+    private void visitDirectory(Path dir) throws IOException {
+        if (exceptionDatabase.contains(dir.toString())) {
+            report(AbstractOperationMode.SKIPPING, dir.toString());
+            return;
+        }
+
+        List<Path> children = new ArrayList<>();
+        try (DirectoryStream<Path> directoryStream = Files.newDirectoryStream(dir)) {
+            for (Path child : directoryStream) {
+                children.add(child);
+            }
+        }
+        Collections.sort(children, order);
+
+        for (Path child : children) {
+            visit(child);
+        }
+    }
+
+    private void visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+        final String path = file.toString();
+
+        // Hash entries sorting before this file have not been seen
+        while (reader.getPath() != null && PathComparator.getInstance().compare(reader.getPath(), path) < 0) {
+            report(AbstractOperationMode.DELETED, reader.getPath());
+            advance();
+        }
+
+        if (exceptionDatabase.contains(path)) {
+            report(AbstractOperationMode.SKIPPING, path);
+        } else if (path.equals(reader.getPath())) {
+            HashEntry entry = reader.getEntry();
+            advance();
+
+            if (quick && entry.matches(attrs)) {
+                report(AbstractOperationMode.EQUAL, path);
+            } else {
+                final byte[] oldDigest = entry.getDigest();
+                final boolean sampled = entry.isSampled();
+                HashPipeline.Callback callback = new HashPipeline.Callback() {
+                    @Override
+                    public void done(byte[] digest) throws IOException {
+                        if (Arrays.equals(digest, oldDigest)) {
+                            reportWriter.write(sampled ? AbstractOperationMode.SAMPLED : AbstractOperationMode.EQUAL, path);
+                        } else {
+                            reportWriter.write(AbstractOperationMode.MODIFIED, path);
+                        }
+                    }
+                };
+
+                // Tree entries are verified by their root digest only, as
+                // streaming does not load the block manifest
+                if (entry.isTree()) {
+                    hashPipeline.submitTree(file, HashEntry.toFileKey(attrs), attrs.size(), null, callback);
+                } else {
+                    hashPipeline.submit(file, HashEntry.toFileKey(attrs), sampled, callback);
+                }
+            }
+        } else {
+            report(AbstractOperationMode.NEW, path);
+        }
+    }
+
+    private void advance() throws IOException {
+        String previous = reader.getPath();
+        if (reader.next() && previous != null && PathComparator.getInstance().compare(previous, reader.getPath()) >= 0) {
+            throw new IOException("Hash file is not sorted by path, please convert it: " + hashFile.toString());
+        }
+    }
+
+    private void report(final String result, final String path) throws IOException {
+        hashPipeline.submit(new HashPipeline.Callback() {
+            @Override
+            public void done(byte[] digest) throws IOException {
+                reportWriter.write(result, path);
+            }
+        });
+    }
+
+}
@@ -0,0 +1,455 @@
+/*
+** Copyright 2012 Phokham Nonava
+**
+** This file is part of Message Digest Integrity Database.
+**
+** Message Digest Integrity Database is free software: you can redistribute it and/or modify
+** it under the terms of the GNU Lesser General Public License as published by
+** the Free Software Foundation, either version 3 of the License, or
+** (at your option) any later version.
+**
+** Message Digest Integrity Database is distributed in the hope that it will be useful,
+** but WITHOUT ANY WARRANTY; without even the implied warranty of
+** MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+** GNU Lesser General Public License for more details.
+**
+** You should have received a copy of the GNU Lesser General Public License
+** along with Message Digest Integrity Database.  If not, see <http://www.gnu.org/licenses/>.
+*/
+package mdid;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Loads a whole text hash file in parallel. The file is split into
+ * line-aligned chunks, which are memory-mapped and parsed directly from bytes
+ * on a pool of worker threads. The entries are handed to the handler on the
+ * calling thread in file order, so later lines still replace earlier ones
+ * with the same path. Invalid lines are logged and skipped like
+ * {@link TextHashFileReader} does.
+ *
+ * Splitting on bytes requires a charset that encodes the line feed and the
+ * space as in ASCII. For any other default charset the file is read with a
+ * {@link TextHashFileReader}.
+ *
+ * @author Phokham Nonava
+ */
+public class TextHashFileLoader implements Closeable {
+
+    /**
+     * Receives the loaded entries on the calling thread.
+     */
+    public interface Handler {
+        void entry(String path, HashEntry entry) throws IOException;
+    }
+
+    private static final Logger logger = LoggerFactory.getLogger(TextHashFileLoader.class);
+
+    private static final int DEFAULT_CHUNK_SIZE = 16 * 1024 * 1024;
+    private static final int PENDING_PER_THREAD = 2;
+    private static final int SCAN_BUFFER_SIZE = 4 * 1024;
+    private static final int BLOCK_SIZE = 64 * 1024;
+
+    private final Path hashFile;
+    private final Charset charset = Charset.defaultCharset();
+    private final FileChannel channel;
+    private final long[] boundaries;
+    private final int threads;
+
+    private String algorithm = HashDatabase.MESSAGEDIGEST;
+
+    public TextHashFileLoader(Path hashFile, int threads) throws IOException {
+        this(hashFile, threads, DEFAULT_CHUNK_SIZE);
+    }
+
+    TextHashFileLoader(Path hashFile, int threads, int chunkSize) throws IOException {
+        Objects.requireNonNull(hashFile);
+        if (threads < 1) {
+            throw new IllegalArgumentException("Invalid number of threads: " + threads);
+        }
+        if (chunkSize < 1) {
+            throw new IllegalArgumentException("Invalid chunk size: " + chunkSize);
+        }
+
+        this.hashFile = hashFile;
+        this.threads = threads;
+
+        channel = FileChannel.open(hashFile, StandardOpenOption.READ);
+        try {
+            if (isAsciiCompatible(charset)) {
+                boundaries = split(chunkSize, readHeader());
+            } else {
+                boundaries = new long[0];
+                try (HashFileReader reader = new TextHashFileReader(hashFile)) {
+                    algorithm = reader.getAlgorithm();
+                }
+            }
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Returns the digest algorithm recorded in the header.
+     */
+    public String getAlgorithm() {
+        return algorithm;
+    }
+
+    /**
+     * Estimates the number of lines from the first chunk. The estimate is
+     * exact if the file consists of a single chunk.
+     */
+    public int estimateLines() throws IOException {
+        if (boundaries.length < 2) {
+            return 0;
+        }
+
+        long size = boundaries[boundaries.length - 1] - boundaries[0];
+        MappedByteBuffer buffer = map(0);
+        int count = 0;
+        while (buffer.hasRemaining()) {
+            if (buffer.get() == '\n') {
+                ++count;
+            }
+        }
+
+        return (int) Math.min(Integer.MAX_VALUE, (long) count * size / buffer.capacity());
+    }
+
+    /**
+     * Loads all entries and passes them to the handler in file order.
+     *
+     * @return the number of entries loaded.
+     */
+    public int load(Handler handler) throws IOException {
+        Objects.requireNonNull(handler);
+
+        if (!isAsciiCompatible(charset)) {
+            return loadSequentially(handler);
+        }
+
+        int chunks = boundaries.length - 1;
+        if (threads == 1 || chunks <= 1) {
+            int count = 0;
+            for (int chunk = 0; chunk < chunks; ++chunk) {
+                count += parse(chunk).apply(handler);
+            }
+
+            return count;
+        }
+
+        ExecutorService executor = Executors.newFixedThreadPool(Math.min(threads, chunks), new LoaderThreadFactory());
+        try {
+            Deque<Future<Chunk>> pending = new ArrayDeque<>();
+            int count = 0;
+
+            // Keep only a few parsed chunks in memory while merging in order
+            int next = 0;
+            while (next < chunks || !pending.isEmpty()) {
+                while (next < chunks && pending.size() < threads * PENDING_PER_THREAD) {
+                    final int chunk = next++;
+                    pending.add(executor.submit(new Callable<Chunk>() {
+                        @Override
+                        public Chunk call() throws IOException {
+                            return parse(chunk);
+                        }
+                    }));
+                }
+
+                count += get(pending.remove()).apply(handler);
+            }
+
+            return count;
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    private int loadSequentially(Handler handler) throws IOException {
+        int count = 0;
+
+        try (HashFileReader reader = new TextHashFileReader(hashFile)) {
+            while (reader.next()) {
+                handler.entry(reader.getPath(), reader.getEntry());
+                ++count;
+            }
+        }
+
+        return count;
+    }
+
+    /**
+     * Reads the algorithm header.
+     *
+     * @return the position of the first entry line.
+     */
+    private long readHeader() throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(SCAN_BUFFER_SIZE);
+        while (buffer.hasRemaining() && channel.read(buffer, buffer.position()) > 0) {
+        }
+
+        byte[] header = TextHashFileWriter.HEADER.getBytes(charset);
+        if (buffer.position() < header.length || !Arrays.equals(header, Arrays.copyOf(buffer.array(), header.length))) {
+            return 0;
+        }
+
+        for (int i = header.length; i < buffer.position(); ++i) {
+            if (buffer.get(i) == '\n') {
+                algorithm = new String(buffer.array(), header.length, i - header.length, charset).trim();
+                return i + 1;
+            }
+        }
+
+        return 0;
+    }
+
+    /**
+     * Returns the chunk boundaries. Every chunk but the last one ends right
+     * after a line feed, so no line is split between two chunks.
+     */
+    private long[] split(int chunkSize, long start) throws IOException {
+        long size = channel.size();
+        List<Long> list = new ArrayList<>();
+        list.add(start);
+
+        ByteBuffer buffer = ByteBuffer.allocate(SCAN_BUFFER_SIZE);
+        long position = start;
+        while (size - position > chunkSize) {
+            // Search the next line feed after the nominal end of the chunk
+            long end = -1;
+            long offset = position + chunkSize - 1;
+            while (end == -1 && offset < size) {
+                buffer.clear();
+                int read = channel.read(buffer, offset);
+                if (read <= 0) {
+                    break;
+                }
+                for (int i = 0; i < read; ++i) {
+                    if (buffer.get(i) == '\n') {
+                        end = offset + i + 1;
+                        break;
+                    }
+                }
+                offset += read;
+            }
+            if (end == -1 || end == size) {
+                break;
+            }
+
+            list.add(end);
+            position = end;
+        }
+
+        if (size > start) {
+            list.add(size);
+        }
+
+        long[] result = new long[list.size()];
+        for (int i = 0; i < result.length; ++i) {
+            result[i] = list.get(i);
+        }
+
+        return result;
+    }
+
+    private MappedByteBuffer map(int chunk) throws IOException {
+        long start = boundaries[chunk];
+        long length = boundaries[chunk + 1] - start;
+        if (length > Integer.MAX_VALUE) {
+            throw new IOException("Line too long in hash file " + hashFile.toString());
+        }
+
+        return channel.map(FileChannel.MapMode.READ_ONLY, start, length);
+    }
+
+    private Chunk parse(int chunk) throws IOException {
+        MappedByteBuffer buffer = map(chunk);
+        Chunk result = new Chunk();
+
+        // Copy the chunk in blocks, an incomplete line is moved to the front
+        byte[] block = new byte[BLOCK_SIZE];
+        int length = 0;
+        while (buffer.hasRemaining()) {
+            if (length == block.length) {
+                block = Arrays.copyOf(block, length * 2);
+            }
+            int count = Math.min(buffer.remaining(), block.length - length);
+            buffer.get(block, length, count);
+
+            int start = 0;
+            for (int i = length; i < length + count; ++i) {
+                if (block[i] == '\n') {
+                    parseLine(block, start, i, result);
+                    start = i + 1;
+                }
+            }
+            length += count - start;
+            System.arraycopy(block, start, block, 0, length);
+        }
+
+        // The last line of the file may lack a line feed
+        if (length > 0) {
+            parseLine(block, 0, length, result);
+        }
+
+        return result;
+    }
+
+    /**
+     * Parses <hash value> <path> with the same trimming as the line reader.
+     */
+    private void parseLine(byte[] block, int start, int end, Chunk result) {
+        // The line reader also strips the carriage return of CRLF line endings
+        if (end > start && block[end - 1] == '\r') {
+            --end;
+        }
+
+        // Search for the first space
+        int index = -1;
+        for (int i = start; i < end; ++i) {
+            if (block[i] == ' ') {
+                index = i;
+                break;
+            }
+        }
+
+        if (index != -1) {
+            int tokenStart = skipWhitespace(block, start, index);
+            int tokenEnd = trimWhitespace(block, tokenStart, index);
+
+            HashEntry entry = HashEntry.parse(block, tokenStart, tokenEnd, charset);
+            if (entry != null) {
+                int pathStart = skipWhitespace(block, index, end);
+                int pathEnd = trimWhitespace(block, pathStart, end);
+
+                result.add(new String(block, pathStart, pathEnd - pathStart, charset), entry);
+                return;
+            }
+        }
+
+        result.invalid(new String(block, start, end - start, charset));
+    }
+
+    private static int skipWhitespace(byte[] line, int start, int end) {
+        while (start < end && (line[start] & 0xFF) <= ' ') {
+            ++start;
+        }
+
+        return start;
+    }
+
+    private static int trimWhitespace(byte[] line, int start, int end) {
+        while (end > start && (line[end - 1] & 0xFF) <= ' ') {
+            --end;
+        }
+
+        return end;
+    }
+
+    private static boolean isAsciiCompatible(Charset charset) {
+        return Arrays.equals("\n\r :-0123456789abcdef".getBytes(charset), "\n\r :-0123456789abcdef".getBytes(BinaryHashFile.CHARSET));
+    }
+
+    private static Chunk get(Future<Chunk> future) throws IOException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while loading hash file");
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            } else if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            } else {
+                throw new IOException(cause);
+            }
+        }
+    }
+
+    /**
+     * The parsed entries and invalid lines of a chunk in file order.
+     */
+    private static final class Chunk {
+
+        private final List<String> paths = new ArrayList<>();
+        private final List<HashEntry> entries = new ArrayList<>();
+
+        // Invalid lines and the number of entries before each of them, so
+        // the warnings are logged between the same entries as before
+        private final List<String> invalidLines = new ArrayList<>();
+        private final List<Integer> invalidPositions = new ArrayList<>();
+
+        private void add(String path, HashEntry entry) {
+            paths.add(path);
+            entries.add(entry);
+        }
+
+        private void invalid(String line) {
+            invalidLines.add(line);
+            invalidPositions.add(paths.size());
+        }
+
+        private int apply(Handler handler) throws IOException {
+            int next = 0;
+            for (int i = 0; i < invalidLines.size(); ++i) {
+                for (int position = invalidPositions.get(i); next < position; ++next) {
+                    handler.entry(paths.get(next), entries.get(next));
+                }
+                logger.warn("Invalid line format {}", invalidLines.get(i));
+            }
+            for (; next < paths.size(); ++next) {
+                handler.entry(paths.get(next), entries.get(next));
+            }
+
+            return paths.size();
+        }
+
+    }
+
+    private static final class LoaderThreadFactory implements ThreadFactory {
+
+        private final AtomicInteger count = new AtomicInteger();
+
+        @Override
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, "mdid-loader-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+
+    }
+
+}
@@ -0,0 +1,116 @@
+/*
+** Copyright 2012 Phokham Nonava
+**
+** This file is part of Message Digest Integrity Database.
+**
+** Message Digest Integrity Database is free software: you can redistribute it and/or modify
+** it under the terms of the GNU Lesser General Public License as published by
+** the Free Software Foundation, either version 3 of the License, or
+** (at your option) any later version.
+**
+** Message Digest Integrity Database is distributed in the hope that it will be useful,
+** but WITHOUT ANY WARRANTY; without even the implied warranty of
+** MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+** GNU Lesser General Public License for more details.
+**
+** You should have received a copy of the GNU Lesser General Public License
+** along with Message Digest Integrity Database.  If not, see <http://www.gnu.org/licenses/>.
+*/
+package mdid;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Objects;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Reads hash entries from text lines of the form <hash value> <path>. Invalid
+ * lines are logged and skipped. Hash files without an algorithm header were
+ * written with {@link HashDatabase#MESSAGEDIGEST}.
+ *
+ * @author Phokham Nonava
+ */
+public class TextHashFileReader implements HashFileReader {
+
+    private static final Logger logger = LoggerFactory.getLogger(TextHashFileReader.class);
+
+    private final BufferedReader bufferedReader;
+    private final String algorithm;
+
+    // The first line, if it is not a header
+    private String firstLine;
+
+    private String path = null;
+    private HashEntry entry = null;
+
+    public TextHashFileReader(Path hashFile) throws IOException {
+        Objects.requireNonNull(hashFile);
+
+        bufferedReader = Files.newBufferedReader(hashFile, Charset.defaultCharset());
+
+        firstLine = bufferedReader.readLine();
+        if (firstLine != null && firstLine.startsWith(TextHashFileWriter.HEADER)) {
+            algorithm = firstLine.substring(TextHashFileWriter.HEADER.length()).trim();
+            firstLine = null;
+        } else {
+            algorithm = HashDatabase.MESSAGEDIGEST;
+        }
+    }
+
+    @Override
+    public String getAlgorithm() {
+        return algorithm;
+    }
+
+    @Override
+    public boolean next() throws IOException {
+        String line = firstLine;
+        firstLine = null;
+        if (line == null) {
+            line = bufferedReader.readLine();
+        }
+        while (line != null) {
+            // A hash line consists of <hash value> <path>, where the hash
+            // value is optionally followed by :<size>:<last modified>:<file key>
+            // Search for the first space
+            int index = line.indexOf(" ");
+            if (index != -1) {
+                entry = HashEntry.parse(line.substring(0, index).trim());
+                if (entry != null) {
+                    path = line.substring(index).trim();
+                    return true;
+                }
+            }
+
+            logger.warn("Invalid line format {}", line);
+
+            line = bufferedReader.readLine();
+        }
+
+        path = null;
+        entry = null;
+
+        return false;
+    }
+
+    @Override
+    public String getPath() {
+        return path;
+    }
+
+    @Override
+    public HashEntry getEntry() {
+        return entry;
+    }
+
+    @Override
+    public void close() throws IOException {
+        bufferedReader.close();
+    }
+
+}
@@ -0,0 +1,66 @@
+/*
+** Copyright 2012 Phokham Nonava
+**
+** This file is part of Message Digest Integrity Database.
+**
+** Message Digest Integrity Database is free software: you can redistribute it and/or modify
+** it under the terms of the GNU Lesser General Public License as published by
+** the Free Software Foundation, either version 3 of the License, or
+** (at your option) any later version.
+**
+** Message Digest Integrity Database is distributed in the hope that it will be useful,
+** but WITHOUT ANY WARRANTY; without even the implied warranty of
+** MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+** GNU Lesser General Public License for more details.
+**
+** You should have received a copy of the GNU Lesser General Public License
+** along with Message Digest Integrity Database.  If not, see <http://www.gnu.org/licenses/>.
+*/
+package mdid;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Objects;
+
+/**
+ * Writes hash entries as text lines of the form <hash value> <path>. The first
+ * line is a header naming the digest algorithm.
+ *
+ * @author Phokham Nonava
+ */
+public class TextHashFileWriter implements HashFileWriter {
+
+    static final String HEADER = "# mdid algorithm ";
+
+    private final BufferedWriter bufferedWriter;
+
+    public TextHashFileWriter(Path hashFile, String algorithm) throws IOException {
+        Objects.requireNonNull(hashFile);
+        Objects.requireNonNull(algorithm);
+
+        bufferedWriter = Files.newBufferedWriter(hashFile, Charset.defaultCharset());
+        bufferedWriter.write(HEADER);
+        bufferedWriter.write(algorithm);
+        bufferedWriter.newLine();
+    }
+
+    @Override
+    public void write(String path, HashEntry entry) throws IOException {
+        Objects.requireNonNull(path);
+        Objects.requireNonNull(entry);
+
+        bufferedWriter.write(entry.format());
+        bufferedWriter.write(' ');
+        bufferedWriter.write(path);
+        bufferedWriter.newLine();
+    }
+
+    @Override
+    public void close() throws IOException {
+        bufferedWriter.close();
+    }
+
+}
@@ -0,0 +1,249 @@
+/*
+** Copyright 2012 Phokham Nonava
+**
+** This file is part of Message Digest Integrity Database.
+**
+** Message Digest Integrity Database is free software: you can redistribute it and/or modify
+** it under the terms of the GNU Lesser General Public License as published by
+** the Free Software Foundation, either version 3 of the License, or
+** (at your option) any later version.
+**
+** Message Digest Integrity Database is distributed in the hope that it will be useful,
+** but WITHOUT ANY WARRANTY; without even the implied warranty of
+** MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+** GNU Lesser General Public License for more details.
+**
+** You should have received a copy of the GNU Lesser General Public License
+** along with Message Digest Integrity Database.  If not, see <http://www.gnu.org/licenses/>.
+*/
+package mdid;
+
+import java.io.InterruptedIOException;
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Limits the bytes read and the files opened per second by all hashers
+ * together. Both limits are token buckets holding at most one second of
+ * tokens. A hasher takes its tokens before reading and, if the bucket runs
+ * into debt, waits until the debt is paid off. This spreads the reads of all
+ * threads evenly over time.
+ *
+ * With a latency target the throttle also watches how long the reads take.
+ * While their average is above the target, the share of the time the hashers
+ * are allowed to read is halved, and slowly given back once the average has
+ * dropped again. This keeps the hashers out of the way of a busy disk even
+ * if no rates are set.
+ *
+ * All settings can be changed at runtime over JMX.
+ *
+ * @author Phokham Nonava
+ */
+public class Throttle implements ThrottleMBean {
+
+    public static final String OBJECT_NAME = "mdid:type=Throttle";
+
+    private static final double MINIMUM_DUTY_CYCLE = 1.0 / 64;
+    private static final long ADJUSTMENT_INTERVAL = TimeUnit.MILLISECONDS.toNanos(100);
+    private static final double SMOOTHING = 0.1;
+
+    private static final Logger logger = LoggerFactory.getLogger(Throttle.class);
+
+    private final Bucket bytes = new Bucket();
+    private final Bucket files = new Bucket();
+    private final AtomicLong throttledNanos = new AtomicLong();
+
+    private volatile long latencyTarget = 0;
+
+    // Guarded by this
+    private double averageLatency = 0;
+    private long lastAdjustment = System.nanoTime();
+    private volatile double dutyCycle = 1;
+
+    /**
+     * Registers the throttle with the platform MBean server. A failure is
+     * only logged, as the run does not depend on it.
+     */
+    public void register() {
+        try {
+            ManagementFactory.getPlatformMBeanServer().registerMBean(this, new ObjectName(OBJECT_NAME));
+        } catch (JMException e) {
+            logger.warn("Cannot register throttle: {}", e.getLocalizedMessage());
+        }
+    }
+
+    /**
+     * Waits until the next file may be opened.
+     */
+    public void acquireFile() throws InterruptedIOException {
+        pause(files.take(1));
+    }
+
+    /**
+     * Waits until the number of bytes may be read.
+     */
+    public void acquireBytes(long count) throws InterruptedIOException {
+        pause(bytes.take(count));
+    }
+
+    /**
+     * Records the time a read took. If a latency target is set, this pauses
+     * the calling hasher according to the current duty cycle.
+     */
+    public void read(long nanos) throws InterruptedIOException {
+        if (latencyTarget == 0) {
+            return;
+        }
+
+        adjust(nanos);
+
+        double cycle = dutyCycle;
+        if (cycle < 1) {
+            pause((long) (nanos * (1 / cycle - 1)));
+        }
+    }
+
+    @Override
+    public long getBytesPerSecond() {
+        return bytes.getRate();
+    }
+
+    @Override
+    public void setBytesPerSecond(long bytesPerSecond) {
+        bytes.setRate(bytesPerSecond);
+    }
+
+    @Override
+    public long getFilesPerSecond() {
+        return files.getRate();
+    }
+
+    @Override
+    public void setFilesPerSecond(long filesPerSecond) {
+        files.setRate(filesPerSecond);
+    }
+
+    @Override
+    public long getLatencyTargetMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(latencyTarget);
+    }
+
+    @Override
+    public synchronized void setLatencyTargetMillis(long latencyTargetMillis) {
+        if (latencyTargetMillis < 0) {
+            throw new IllegalArgumentException("Invalid latency target: " + latencyTargetMillis);
+        }
+
+        latencyTarget = TimeUnit.MILLISECONDS.toNanos(latencyTargetMillis);
+        if (latencyTarget == 0) {
+            dutyCycle = 1;
+        }
+    }
+
+    @Override
+    public double getDutyCycle() {
+        return dutyCycle;
+    }
+
+    @Override
+    public long getThrottledMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(throttledNanos.get());
+    }
+
+    /**
+     * Halves the duty cycle while the average latency is above the target
+     * and raises it by a sixteenth while it is below, at most once per
+     * adjustment interval.
+     */
+    private synchronized void adjust(long nanos) {
+        averageLatency += SMOOTHING * (nanos - averageLatency);
+
+        long now = System.nanoTime();
+        if (now - lastAdjustment < ADJUSTMENT_INTERVAL || latencyTarget == 0) {
+            return;
+        }
+        lastAdjustment = now;
+
+        if (averageLatency > latencyTarget) {
+            dutyCycle = Math.max(dutyCycle / 2, MINIMUM_DUTY_CYCLE);
+        } else if (dutyCycle < 1) {
+            dutyCycle = Math.min(dutyCycle + 1.0 / 16, 1);
+        }
+    }
+
+    private void pause(long nanos) throws InterruptedIOException {
+        if (nanos <= 0) {
+            return;
+        }
+
+        throttledNanos.addAndGet(nanos);
+        try {
+            TimeUnit.NANOSECONDS.sleep(nanos);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while throttled");
+        }
+    }
+
+    private static final class Bucket {
+
+        private volatile long rate = 0;
+
+        // Guarded by this
+        private double tokens = 0;
+        private long last = System.nanoTime();
+
+        private long getRate() {
+            return rate;
+        }
+
+        private synchronized void setRate(long rate) {
+            if (rate < 0) {
+                throw new IllegalArgumentException("Invalid rate: " + rate);
+            }
+
+            refill();
+            this.rate = rate;
+            tokens = Math.min(tokens, rate);
+        }
+
+        /**
+         * Takes the tokens and returns the time to wait until the bucket is
+         * out of debt again.
+         */
+        private long take(long count) {
+            if (rate == 0) {
+                // Do not contend for the lock without a limit
+                return 0;
+            }
+
+            synchronized (this) {
+                if (rate == 0) {
+                    return 0;
+                }
+
+                refill();
+                tokens -= count;
+
+                return tokens < 0 ? (long) (-tokens * TimeUnit.SECONDS.toNanos(1) / rate) : 0;
+            }
+        }
+
+        private void refill() {
+            long now = System.nanoTime();
+            if (rate > 0) {
+                tokens = Math.min(tokens + (double) (now - last) * rate / TimeUnit.SECONDS.toNanos(1), rate);
+            }
+            last = now;
+        }
+
+    }
+
+}
@@ -0,0 +1,57 @@
+/*
+** Copyright 2012 Phokham Nonava
+**
+** This file is part of Message Digest Integrity Database.
+**
+** Message Digest Integrity Database is free software: you can redistribute it and/or modify
+** it under the terms of the GNU Lesser General Public License as published by
+** the Free Software Foundation, either version 3 of the License, or
+** (at your option) any later version.
+**
+** Message Digest Integrity Database is distributed in the hope that it will be useful,
+** but WITHOUT ANY WARRANTY; without even the implied warranty of
+** MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+** GNU Lesser General Public License for more details.
+**
+** You should have received a copy of the GNU Lesser General Public License
+** along with Message Digest Integrity Database.  If not, see <http://www.gnu.org/licenses/>.
+*/
+package mdid;
+
+/**
+ * The management interface of {@link Throttle}. Setting a rate to zero
+ * removes its limit.
+ *
+ * @author Phokham Nonava
+ */
+public interface ThrottleMBean {
+
+    long getBytesPerSecond();
+
+    void setBytesPerSecond(long bytesPerSecond);
+
+    long getFilesPerSecond();
+
+    void setFilesPerSecond(long filesPerSecond);
+
+    /**
+     * Returns the read latency above which the hashers back off, or zero if
+     * they never back off.
+     */
+    long getLatencyTargetMillis();
+
+    void setLatencyTargetMillis(long latencyTargetMillis);
+
+    /**
+     * Returns the share of the time the hashers are currently allowed to
+     * read, between 1/64 and 1.
+     */
+    double getDutyCycle();
+
+    /**
+     * Returns the time spent waiting for the throttle, summed over all
+     * hashers.
+     */
+    long getThrottledMillis();
+
+}
@@ -22,7 +22,6 @@ import java.io.IOException;
 import java.nio.file.FileVisitResult;
 import java.nio.file.Path;
 import java.nio.file.attribute.BasicFileAttributes;
-import java.security.NoSuchAlgorithmException;
 import java.util.Objects;
 
 import org.slf4j.Logger;
@@ -35,25 +34,33 @@ public class UpdateMode extends AbstractOperationMode {
 
     private static final Logger logger = LoggerFactory.getLogger(UpdateMode.class);
 
-    public UpdateMode(Path hashFile, Path exceptionFile) throws IOException, NoSuchAlgorithmException {
-        super(hashFile, exceptionFile, true);
+    public UpdateMode(Path hashFile, Path exceptionFile, HashPipeline hashPipeline) throws IOException {
+        super(hashFile, exceptionFile, hashPipeline, true);
     }
 
     @Override
-    public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+    public FileVisitResult visitFile(Path file, final BasicFileAttributes attrs) throws IOException {
         Objects.requireNonNull(file);
         Objects.requireNonNull(attrs);
 
-        if (exceptionDatabase.contains(file.toString())) {
-            logger.info("{} {}", SKIPPING, file.toString());
+        final String path = file.toString();
+        if (exceptionDatabase.contains(path)) {
+            report(SKIPPING, path);
         } else {
-            String oldHash = hashDatabase.get(file.toString());
+            String oldHash = hashDatabase.get(path);
             if (oldHash == null) {
-                String hash = getHash(file);
-                hashDatabase.putAndMark(file.toString(), hash);
-                logger.info("{} {}", NEW, file.toString());
+                final HashEntry.Kind kind = getKind(attrs);
+                hash(file, path, attrs, kind, new HashPipeline.Callback() {
+                    @Override
+                    public void done(byte[] digest) throws IOException {
+                        hashDatabase.putAndMark(path, new HashEntry(digest, attrs, kind));
+                        reportWriter.write(NEW, path);
+                    }
+                });
             } else {
-                hashDatabase.mark(file.toString());
+                // Entries without metadata stay as they are. Their digest
+                // may be stale, so quick analysis keeps hashing them.
+                hashDatabase.mark(path);
             }
         }
 
@@ -62,11 +69,19 @@ public class UpdateMode extends AbstractOperationMode {
 
     @Override
     public void doFinal() {
-        for (String path : hashDatabase.getUnmarked()) {
-            logger.info("{} {}", DELETED, path);
+        try {
+            for (String path : hashDatabase.getUnmarked()) {
+                reportWriter.write(DELETED, path);
+            }
+        } catch (IOException e) {
+            logger.warn("Cannot write report");
         }
 
-        hashDatabase.removeUnmarked();
+        try {
+            hashDatabase.removeUnmarked();
+        } catch (IOException e) {
+            logger.warn("Cannot remove unmarked entries");
+        }
 
         super.doFinal();
     }
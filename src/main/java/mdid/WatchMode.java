@@ -0,0 +1,448 @@
+/*
+** Copyright 2012 Phokham Nonava
+**
+** This file is part of Message Digest Integrity Database.
+**
+** Message Digest Integrity Database is free software: you can redistribute it and/or modify
+** it under the terms of the GNU Lesser General Public License as published by
+** the Free Software Foundation, either version 3 of the License, or
+** (at your option) any later version.
+**
+** Message Digest Integrity Database is distributed in the hope that it will be useful,
+** but WITHOUT ANY WARRANTY; without even the implied warranty of
+** MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+** GNU Lesser General Public License for more details.
+**
+** You should have received a copy of the GNU Lesser General Public License
+** along with Message Digest Integrity Database.  If not, see <http://www.gnu.org/licenses/>.
+*/
+package mdid;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Keeps the hash database up to date while the tree changes. After an initial
+ * scan, which rehashes files whose metadata differs from their entry, every
+ * directory is registered with a watch service. Change events are collected
+ * until the tree has been quiet for a moment, then only the touched files are
+ * rehashed. If the watch service loses events of a directory, its subtree is
+ * scanned again. Subtrees of directories which cannot be registered, for
+ * example because the limit of watches is reached, are scanned periodically
+ * instead.
+ *
+ * The hash file is rewritten periodically and when the mode is stopped by
+ * shutting down the virtual machine.
+ *
+ * @author Phokham Nonava
+ */
+public class WatchMode extends AbstractOperationMode {
+
+    private static final long DEBOUNCE_INTERVAL = 1000;
+    private static final long MAXIMUM_DELAY = 10 * 1000;
+    private static final long CHECKPOINT_INTERVAL = 5 * 60 * 1000;
+    private static final long RESCAN_INTERVAL = 60 * 1000;
+
+    private static final Logger logger = LoggerFactory.getLogger(WatchMode.class);
+
+    private final Map<WatchKey, Path> keys = new HashMap<>();
+    private final Set<Path> changes = new LinkedHashSet<>();
+    private final Set<Path> rescans = new LinkedHashSet<>();
+
+    // Directories which could not be registered
+    private final Set<Path> unwatched = new LinkedHashSet<>();
+
+    private volatile WatchService watchService = null;
+
+    // Entries below the directory being scanned which have not been seen yet
+    private Set<String> unseen = null;
+    private boolean modified = false;
+
+    public WatchMode(Path hashFile, Path exceptionFile, HashPipeline hashPipeline) throws IOException {
+        super(hashFile, exceptionFile, hashPipeline, true);
+    }
+
+    @Override
+    public void run(Path path) throws IOException {
+        Objects.requireNonNull(path);
+
+        begin(path);
+
+        final Thread runner = Thread.currentThread();
+        Thread stopper = new Thread("mdid-watch-stop") {
+            @Override
+            public void run() {
+                WatchMode.this.stop();
+                try {
+                    runner.join();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        };
+
+        try (WatchService service = path.getFileSystem().newWatchService()) {
+            watchService = service;
+            Runtime.getRuntime().addShutdownHook(stopper);
+
+            metrics.startPhase("scan");
+            scan(path);
+            apply();
+            checkpoint();
+
+            logger.info("Watching {} directories", keys.size());
+            metrics.startPhase("watch");
+            watch();
+        } catch (ClosedWatchServiceException e) {
+            logger.info("Stopped watching");
+        } finally {
+            try {
+                Runtime.getRuntime().removeShutdownHook(stopper);
+            } catch (IllegalStateException e) {
+                // We are being stopped by the hook
+            }
+
+            flush();
+            doFinal();
+        }
+    }
+
+    /**
+     * Stops watching. The running mode writes the hash file and returns.
+     */
+    public void stop() {
+        WatchService service = watchService;
+        if (service != null) {
+            try {
+                service.close();
+            } catch (IOException e) {
+                logger.warn("Cannot close watch service");
+            }
+        }
+    }
+
+    private void watch() throws IOException {
+        long nextCheckpoint = System.currentTimeMillis() + CHECKPOINT_INTERVAL;
+        long nextRescan = System.currentTimeMillis() + RESCAN_INTERVAL;
+
+        while (!keys.isEmpty() || !unwatched.isEmpty()) {
+            WatchKey key = poll(Math.max(Math.min(nextCheckpoint, nextRescan) - System.currentTimeMillis(), 1));
+
+            // Collect events until the tree is quiet, but not forever
+            long start = System.currentTimeMillis();
+            while (key != null) {
+                collect(key);
+                if (System.currentTimeMillis() - start >= MAXIMUM_DELAY) {
+                    break;
+                }
+                key = poll(DEBOUNCE_INTERVAL);
+            }
+
+            if (System.currentTimeMillis() >= nextRescan) {
+                rescanUnwatched();
+                nextRescan = System.currentTimeMillis() + RESCAN_INTERVAL;
+            }
+            apply();
+
+            if (System.currentTimeMillis() >= nextCheckpoint) {
+                checkpoint();
+                nextCheckpoint = System.currentTimeMillis() + CHECKPOINT_INTERVAL;
+            }
+        }
+
+        logger.info("No directories left to watch");
+    }
+
+    /**
+     * Schedules rescans of the directories which could not be registered.
+     * A rescan registers them again.
+     */
+    private void rescanUnwatched() {
+        List<Path> dirs = new ArrayList<>(unwatched);
+        unwatched.clear();
+
+        for (Path dir : dirs) {
+            if (Files.isDirectory(dir, LinkOption.NOFOLLOW_LINKS)) {
+                rescans.add(dir);
+            } else {
+                // Gone, remove its entries
+                changes.add(dir);
+            }
+        }
+    }
+
+    private WatchKey poll(long timeout) throws IOException {
+        try {
+            return watchService.poll(timeout, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while watching");
+        }
+    }
+
+    private void collect(WatchKey key) {
+        Path dir = keys.get(key);
+        if (dir == null) {
+            key.cancel();
+            return;
+        }
+
+        for (WatchEvent<?> event : key.pollEvents()) {
+            if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+                rescans.add(dir);
+            } else {
+                changes.add(dir.resolve((Path) event.context()));
+            }
+        }
+
+        if (!key.reset()) {
+            // The directory is gone or not accessible anymore
+            keys.remove(key);
+            changes.add(dir);
+        }
+    }
+
+    /**
+     * Applies the collected changes. A rescan of a directory covers all
+     * changes below it.
+     */
+    private void apply() throws IOException {
+        List<Path> dirs = new ArrayList<>();
+        for (Path dir : rescans) {
+            if (!isCovered(dir, dirs)) {
+                dirs.add(dir);
+            }
+        }
+
+        for (Path dir : dirs) {
+            logger.info("Rescanning {}", dir.toString());
+            scan(dir);
+        }
+        for (Path file : changes) {
+            if (!isCovered(file, dirs)) {
+                update(file);
+            }
+        }
+
+        rescans.clear();
+        changes.clear();
+
+        flush();
+        hashDatabase.flush();
+
+        // Links changed later must be read again
+        clearLinks();
+    }
+
+    private static boolean isCovered(Path path, List<Path> dirs) {
+        for (Path dir : dirs) {
+            // The empty path contains all relative paths
+            if (path.startsWith(dir) || (dir.toString().isEmpty() && !path.isAbsolute())) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    private void checkpoint() throws IOException {
+        if (modified) {
+            if (blockManifest.isModified()) {
+                blockManifest.write(hashDatabase);
+            }
+            hashDatabase.checkpoint();
+            modified = false;
+        }
+    }
+
+    /**
+     * Scans the subtree of the directory and removes the entries of files
+     * which do not exist anymore.
+     */
+    private void scan(Path dir) throws IOException {
+        unseen = new HashSet<>(hashDatabase.getPaths(dir.toString()));
+        try {
+            Files.walkFileTree(dir, this);
+            flush();
+
+            for (String path : unseen) {
+                remove(path);
+            }
+        } finally {
+            unseen = null;
+        }
+    }
+
+    private void update(Path file) throws IOException {
+        String path = file.toString();
+        if (exceptionDatabase.contains(path)) {
+            return;
+        }
+
+        BasicFileAttributes attrs;
+        try {
+            attrs = Files.readAttributes(file, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+        } catch (NoSuchFileException e) {
+            // Otherwise the path may have been a directory
+            if (!remove(path)) {
+                for (String child : hashDatabase.getPaths(path)) {
+                    remove(child);
+                }
+            }
+            return;
+        }
+
+        if (attrs.isDirectory()) {
+            scan(file);
+        } else {
+            visitFile(file, attrs);
+        }
+    }
+
+    /**
+     * Removes the entry of the path.
+     *
+     * @return whether there was an entry.
+     */
+    private boolean remove(final String path) throws IOException {
+        if (hashDatabase.remove(path) != null) {
+            report(DELETED, path);
+            modified = true;
+            return true;
+        }
+
+        return false;
+    }
+
+    /**
+     * Keeps the entries of a subtree which is skipped or cannot be read
+     * during a scan.
+     */
+    private void keep(Path dir) {
+        if (unseen != null) {
+            unseen.remove(dir.toString());
+            unseen.removeAll(hashDatabase.getPaths(dir.toString()));
+        }
+    }
+
+    @Override
+    public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) throws IOException {
+        FileVisitResult result = super.preVisitDirectory(dir, attrs);
+        if (result == FileVisitResult.SKIP_SUBTREE) {
+            keep(dir);
+        } else if (result == FileVisitResult.CONTINUE) {
+            try {
+                WatchKey key = dir.register(watchService,
+                        StandardWatchEventKinds.ENTRY_CREATE,
+                        StandardWatchEventKinds.ENTRY_DELETE,
+                        StandardWatchEventKinds.ENTRY_MODIFY);
+                keys.put(key, dir);
+            } catch (NoSuchFileException e) {
+                return FileVisitResult.SKIP_SUBTREE;
+            } catch (IOException e) {
+                logger.warn("Cannot watch {}, rescanning it periodically: {}", dir.toString(), e.getLocalizedMessage());
+                unwatched.add(dir);
+            }
+        }
+
+        return result;
+    }
+
+    @Override
+    public FileVisitResult visitFile(final Path file, final BasicFileAttributes attrs) throws IOException {
+        Objects.requireNonNull(file);
+        Objects.requireNonNull(attrs);
+
+        final String path = file.toString();
+        if (unseen != null) {
+            unseen.remove(path);
+        }
+
+        if (exceptionDatabase.contains(path)) {
+            report(SKIPPING, path);
+            return FileVisitResult.CONTINUE;
+        }
+
+        final HashEntry entry = hashDatabase.getEntry(path);
+        if (entry != null && entry.matches(attrs)) {
+            return FileVisitResult.CONTINUE;
+        }
+
+        // Existing entries keep their kind of digest, so they stay comparable
+        final HashEntry.Kind kind = entry == null ? getKind(attrs) : entry.getKind();
+        hash(file, path, attrs, kind, new HashPipeline.ErrorCallback() {
+            @Override
+            public void done(byte[] digest) throws IOException {
+                hashDatabase.putAndMark(path, new HashEntry(digest, attrs, kind));
+                modified = true;
+
+                if (entry == null) {
+                    reportWriter.write(NEW, path);
+                } else if (!Arrays.equals(digest, entry.getDigest())) {
+                    reportWriter.write(MODIFIED, path);
+                }
+            }
+
+            @Override
+            public void failed(IOException exception) throws IOException {
+                if (exception instanceof NoSuchFileException) {
+                    // Deleted before we got to it
+                    if (hashDatabase.remove(path) != null) {
+                        reportWriter.write(DELETED, path);
+                        modified = true;
+                    }
+                } else {
+                    logger.warn("Cannot hash {}: {}", path, exception.getLocalizedMessage());
+                }
+            }
+        });
+
+        return FileVisitResult.CONTINUE;
+    }
+
+    @Override
+    public FileVisitResult visitFileFailed(Path file, IOException exc) throws IOException {
+        if (!(exc instanceof NoSuchFileException)) {
+            logger.warn("Cannot visit {}: {}", file.toString(), exc.getLocalizedMessage());
+            keep(file);
+        }
+
+        return FileVisitResult.CONTINUE;
+    }
+
+    @Override
+    public FileVisitResult postVisitDirectory(Path dir, IOException exc) throws IOException {
+        if (exc != null) {
+            logger.warn("Cannot read {}: {}", dir.toString(), exc.getLocalizedMessage());
+            keep(dir);
+        }
+
+        // There is no resuming, so directories are not checkpointed
+        return FileVisitResult.CONTINUE;
+    }
+
+}
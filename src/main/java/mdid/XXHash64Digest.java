@@ -0,0 +1,221 @@
+/*
+** Copyright 2012 Phokham Nonava
+**
+** This file is part of Message Digest Integrity Database.
+**
+** Message Digest Integrity Database is free software: you can redistribute it and/or modify
+** it under the terms of the GNU Lesser General Public License as published by
+** the Free Software Foundation, either version 3 of the License, or
+** (at your option) any later version.
+**
+** Message Digest Integrity Database is distributed in the hope that it will be useful,
+** but WITHOUT ANY WARRANTY; without even the implied warranty of
+** MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+** GNU Lesser General Public License for more details.
+**
+** You should have received a copy of the GNU Lesser General Public License
+** along with Message Digest Integrity Database.  If not, see <http://www.gnu.org/licenses/>.
+*/
+package mdid;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.security.MessageDigest;
+
+/**
+ * The 64-bit xxHash (XXH64) with seed 0 as message digest. The hash is
+ * returned as eight big-endian bytes, which is the canonical representation
+ * printed by xxhsum. Buffers are read in place instead of being copied into
+ * an array first.
+ *
+ * It only detects accidental changes and is no cryptographic hash.
+ *
+ * @author Phokham Nonava
+ */
+public final class XXHash64Digest extends MessageDigest {
+
+    public static final String ALGORITHM = "XXH64";
+
+    private static final long PRIME1 = 0x9E3779B185EBCA87L;
+    private static final long PRIME2 = 0xC2B2AE3D27D4EB4FL;
+    private static final long PRIME3 = 0x165667B19E3779F9L;
+    private static final long PRIME4 = 0x85EBCA77C2B2AE63L;
+    private static final long PRIME5 = 0x27D4EB2F165667C5L;
+
+    private static final int STRIPE_SIZE = 32;
+
+    private long v1;
+    private long v2;
+    private long v3;
+    private long v4;
+    private long length;
+
+    // Input not yet consumed as a full stripe
+    private final byte[] stripe = new byte[STRIPE_SIZE];
+    private int stripeLength;
+
+    public XXHash64Digest() {
+        super(ALGORITHM);
+
+        engineReset();
+    }
+
+    @Override
+    protected int engineGetDigestLength() {
+        return 8;
+    }
+
+    @Override
+    protected void engineUpdate(byte input) {
+        stripe[stripeLength++] = input;
+        ++length;
+        if (stripeLength == STRIPE_SIZE) {
+            process(stripe, 0);
+            stripeLength = 0;
+        }
+    }
+
+    @Override
+    protected void engineUpdate(byte[] input, int offset, int count) {
+        length += count;
+
+        int i = offset;
+        int end = offset + count;
+        if (stripeLength > 0) {
+            int fill = Math.min(STRIPE_SIZE - stripeLength, count);
+            System.arraycopy(input, i, stripe, stripeLength, fill);
+            stripeLength += fill;
+            i += fill;
+            if (stripeLength < STRIPE_SIZE) {
+                return;
+            }
+            process(stripe, 0);
+            stripeLength = 0;
+        }
+
+        for (; i + STRIPE_SIZE <= end; i += STRIPE_SIZE) {
+            process(input, i);
+        }
+
+        stripeLength = end - i;
+        System.arraycopy(input, i, stripe, 0, stripeLength);
+    }
+
+    @Override
+    protected void engineUpdate(ByteBuffer input) {
+        if (input.hasArray()) {
+            engineUpdate(input.array(), input.arrayOffset() + input.position(), input.remaining());
+            input.position(input.limit());
+            return;
+        }
+
+        // Complete a partial stripe byte by byte
+        while (stripeLength > 0 && input.hasRemaining()) {
+            engineUpdate(input.get());
+        }
+
+        ByteBuffer buffer = input.slice().order(ByteOrder.LITTLE_ENDIAN);
+        int i = 0;
+        int end = buffer.limit();
+        for (; i + STRIPE_SIZE <= end; i += STRIPE_SIZE) {
+            v1 = round(v1, buffer.getLong(i));
+            v2 = round(v2, buffer.getLong(i + 8));
+            v3 = round(v3, buffer.getLong(i + 16));
+            v4 = round(v4, buffer.getLong(i + 24));
+        }
+        length += i;
+
+        buffer.position(i);
+        stripeLength = end - i;
+        buffer.get(stripe, 0, stripeLength);
+        length += stripeLength;
+
+        input.position(input.limit());
+    }
+
+    @Override
+    protected byte[] engineDigest() {
+        long hash;
+        if (length >= STRIPE_SIZE) {
+            hash = Long.rotateLeft(v1, 1) + Long.rotateLeft(v2, 7) + Long.rotateLeft(v3, 12) + Long.rotateLeft(v4, 18);
+            hash = merge(hash, v1);
+            hash = merge(hash, v2);
+            hash = merge(hash, v3);
+            hash = merge(hash, v4);
+        } else {
+            hash = PRIME5;
+        }
+        hash += length;
+
+        int i = 0;
+        for (; i + 8 <= stripeLength; i += 8) {
+            hash ^= round(0, getLong(stripe, i));
+            hash = Long.rotateLeft(hash, 27) * PRIME1 + PRIME4;
+        }
+        if (i + 4 <= stripeLength) {
+            hash ^= (getInt(stripe, i) & 0xFFFFFFFFL) * PRIME1;
+            hash = Long.rotateLeft(hash, 23) * PRIME2 + PRIME3;
+            i += 4;
+        }
+        for (; i < stripeLength; ++i) {
+            hash ^= (stripe[i] & 0xFF) * PRIME5;
+            hash = Long.rotateLeft(hash, 11) * PRIME1;
+        }
+
+        hash ^= hash >>> 33;
+        hash *= PRIME2;
+        hash ^= hash >>> 29;
+        hash *= PRIME3;
+        hash ^= hash >>> 32;
+
+        engineReset();
+
+        byte[] digest = new byte[8];
+        for (int j = 7; j >= 0; --j) {
+            digest[j] = (byte) hash;
+            hash >>>= 8;
+        }
+
+        return digest;
+    }
+
+    @Override
+    protected void engineReset() {
+        v1 = PRIME1 + PRIME2;
+        v2 = PRIME2;
+        v3 = 0;
+        v4 = -PRIME1;
+        length = 0;
+        stripeLength = 0;
+    }
+
+    private void process(byte[] input, int offset) {
+        v1 = round(v1, getLong(input, offset));
+        v2 = round(v2, getLong(input, offset + 8));
+        v3 = round(v3, getLong(input, offset + 16));
+        v4 = round(v4, getLong(input, offset + 24));
+    }
+
+    private static long round(long accumulator, long input) {
+        accumulator += input * PRIME2;
+        accumulator = Long.rotateLeft(accumulator, 31);
+        return accumulator * PRIME1;
+    }
+
+    private static long merge(long hash, long value) {
+        hash ^= round(0, value);
+        return hash * PRIME1 + PRIME4;
+    }
+
+    private static long getLong(byte[] bytes, int offset) {
+        return (getInt(bytes, offset) & 0xFFFFFFFFL) | ((long) getInt(bytes, offset + 4) << 32);
+    }
+
+    private static int getInt(byte[] bytes, int offset) {
+        return (bytes[offset] & 0xFF)
+            | (bytes[offset + 1] & 0xFF) << 8
+            | (bytes[offset + 2] & 0xFF) << 16
+            | (bytes[offset + 3] & 0xFF) << 24;
+    }
+
+}
@@ -0,0 +1,110 @@
+/*
+** Copyright 2012 Phokham Nonava
+**
+** This file is part of Message Digest Integrity Database.
+**
+** Message Digest Integrity Database is free software: you can redistribute it and/or modify
+** it under the terms of the GNU Lesser General Public License as published by
+** the Free Software Foundation, either version 3 of the License, or
+** (at your option) any later version.
+**
+** Message Digest Integrity Database is distributed in the hope that it will be useful,
+** but WITHOUT ANY WARRANTY; without even the implied warranty of
+** MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+** GNU Lesser General Public License for more details.
+**
+** You should have received a copy of the GNU Lesser General Public License
+** along with Message Digest Integrity Database.  If not, see <http://www.gnu.org/licenses/>.
+*/
+package mdid;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * @author Phokham Nonava
+ */
+public class AlgorithmsTest {
+
+    private static final Charset ASCII = Charset.forName("US-ASCII");
+
+    @Test
+    public void testFind() {
+        Assert.assertEquals(Algorithms.SHA256, Algorithms.find("sha-256"));
+        Assert.assertEquals(Algorithms.XXH64, Algorithms.find("xxh64"));
+        Assert.assertNull(Algorithms.find("MD4"));
+    }
+
+    @Test
+    public void testCRC32C() throws Exception {
+        byte[] zeros = new byte[32];
+        byte[] ones = new byte[32];
+        byte[] increasing = new byte[32];
+        for (int i = 0; i < 32; ++i) {
+            ones[i] = (byte) 0xFF;
+            increasing[i] = (byte) i;
+        }
+
+        Assert.assertEquals("e3069283", digest(Algorithms.CRC32C, "123456789".getBytes(ASCII)));
+        Assert.assertEquals("8a9136aa", digest(Algorithms.CRC32C, zeros));
+        Assert.assertEquals("62a8ab43", digest(Algorithms.CRC32C, ones));
+        Assert.assertEquals("46dd794e", digest(Algorithms.CRC32C, increasing));
+    }
+
+    @Test
+    public void testXXH64() throws Exception {
+        byte[] pattern = new byte[256 * 4 + 3];
+        for (int i = 0; i < 256 * 4; ++i) {
+            pattern[i] = (byte) i;
+        }
+        pattern[1024] = 'x';
+        pattern[1025] = 'y';
+        pattern[1026] = 'z';
+
+        Assert.assertEquals("ef46db3751d8e999", digest(Algorithms.XXH64, new byte[0]));
+        Assert.assertEquals("d24ec4f1a98c6e5b", digest(Algorithms.XXH64, "a".getBytes(ASCII)));
+        Assert.assertEquals("44bc2cf5ad770999", digest(Algorithms.XXH64, "abc".getBytes(ASCII)));
+        Assert.assertEquals("fbcea83c8a378bf1", digest(Algorithms.XXH64, "Nobody inspects the spammish repetition".getBytes(ASCII)));
+        Assert.assertEquals("e146cb31b65bc21a", digest(Algorithms.XXH64, pattern));
+    }
+
+    @Test
+    public void testUpdate() throws Exception {
+        Random random = new Random(42);
+        byte[] bytes = new byte[10000];
+        random.nextBytes(bytes);
+
+        for (String algorithm : Algorithms.getNames()) {
+            MessageDigest messageDigest = Algorithms.getInstance(algorithm);
+            byte[] expected = messageDigest.digest(bytes);
+
+            // Feed the same bytes in pieces of random length
+            for (int i = 0; i < bytes.length;) {
+                int length = Math.min(random.nextInt(100), bytes.length - i);
+                if (length == 0) {
+                    messageDigest.update(bytes[i++]);
+                } else {
+                    messageDigest.update(bytes, i, length);
+                    i += length;
+                }
+            }
+            Assert.assertTrue(algorithm, Arrays.equals(expected, messageDigest.digest()));
+
+            ByteBuffer buffer = ByteBuffer.allocateDirect(bytes.length);
+            buffer.put(bytes).flip();
+            messageDigest.update(buffer);
+            Assert.assertTrue(algorithm, Arrays.equals(expected, messageDigest.digest()));
+        }
+    }
+
+    private static String digest(String algorithm, byte[] bytes) throws Exception {
+        return HexCodec.encode(Algorithms.getInstance(algorithm).digest(bytes));
+    }
+
+}
@@ -0,0 +1,123 @@
+/*
+** Copyright 2012 Phokham Nonava
+**
+** This file is part of Message Digest Integrity Database.
+**
+** Message Digest Integrity Database is free software: you can redistribute it and/or modify
+** it under the terms of the GNU Lesser General Public License as published by
+** the Free Software Foundation, either version 3 of the License, or
+** (at your option) any later version.
+**
+** Message Digest Integrity Database is distributed in the hope that it will be useful,
+** but WITHOUT ANY WARRANTY; without even the implied warranty of
+** MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+** GNU Lesser General Public License for more details.
+**
+** You should have received a copy of the GNU Lesser General Public License
+** along with Message Digest Integrity Database.  If not, see <http://www.gnu.org/licenses/>.
+*/
+package mdid;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/**
+ * @author Phokham Nonava
+ */
+public class BinaryHashFileTest {
+
+    private static Path tempDirectory = null;
+    private Path hashFile = null;
+
+    @BeforeClass
+    public static void beforeClass() throws IOException {
+        tempDirectory = Files.createTempDirectory("mdid");
+    }
+
+    @AfterClass
+    public static void afterClass() throws IOException {
+        Files.delete(tempDirectory);
+    }
+
+    @Before
+    public void before() {
+        hashFile = tempDirectory.resolve("mdid.db");
+    }
+
+    @After
+    public void after() throws IOException {
+        Files.deleteIfExists(hashFile);
+    }
+
+    @Test
+    public void testBinaryHashFile() throws IOException {
+        try (HashFileWriter writer = new BinaryHashFileWriter(hashFile, HashDatabase.MESSAGEDIGEST)) {
+            writer.write("a/path", new HashEntry("1234"));
+            writer.write("a/path/below", new HashEntry(HexCodec.decode("5678"), 42, 1000, "(dev=1,ino=2)"));
+            writer.write("a/path.txt", new HashEntry("9abc"));
+        }
+
+        Assert.assertTrue(BinaryHashFile.isBinary(hashFile));
+
+        try (BinaryHashFile binaryHashFile = new BinaryHashFile(hashFile)) {
+            Assert.assertEquals(3, binaryHashFile.size());
+            Assert.assertEquals(HashDatabase.MESSAGEDIGEST, binaryHashFile.getAlgorithm());
+            Assert.assertEquals(0, binaryHashFile.find("a/path"));
+            Assert.assertEquals(1, binaryHashFile.find("a/path/below"));
+            Assert.assertEquals(2, binaryHashFile.find("a/path.txt"));
+            Assert.assertEquals(-1, binaryHashFile.find("another/path"));
+
+            HashEntry entry = binaryHashFile.getEntry(1);
+            Assert.assertEquals("5678", entry.getHash());
+            Assert.assertEquals(42, entry.getSize());
+            Assert.assertEquals(1000, entry.getLastModified());
+            Assert.assertEquals("(dev=1,ino=2)", entry.getFileKey());
+            Assert.assertNull(binaryHashFile.getEntry(2).getFileKey());
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testUnsorted() throws IOException {
+        try (HashFileWriter writer = new BinaryHashFileWriter(hashFile, HashDatabase.MESSAGEDIGEST)) {
+            writer.write("a/path.txt", new HashEntry("1234"));
+            writer.write("a/path/below", new HashEntry("5678"));
+        }
+    }
+
+    @Test
+    public void testBinaryHashDatabase() throws IOException {
+        try (HashDatabase database = new HashDatabase(hashFile, HashDatabase.Format.BINARY, Algorithms.CRC32C)) {
+            database.putAndMark("a/path", "1234");
+            database.putAndMark("another/path", "5678");
+            database.putAndMark("yet/another/path", "9abc");
+        }
+
+        try (HashDatabase database = new HashDatabase(hashFile, true)) {
+            Assert.assertEquals(HashDatabase.Format.BINARY, database.getFormat());
+            Assert.assertEquals(Algorithms.CRC32C, database.getAlgorithm());
+            Assert.assertEquals("1234", database.get("a/path"));
+
+            database.mark("a/path");
+            database.putAndMark("another/path", "def0");
+            database.putAndMark("new/path", "4321");
+            Assert.assertEquals(1, database.getUnmarked().size());
+            database.removeUnmarked();
+        }
+
+        try (HashDatabase database = new HashDatabase(hashFile, false)) {
+            Assert.assertEquals("1234", database.get("a/path"));
+            Assert.assertEquals("def0", database.get("another/path"));
+            Assert.assertEquals("4321", database.get("new/path"));
+            Assert.assertNull(database.get("yet/another/path"));
+        }
+    }
+
+}
@@ -0,0 +1,92 @@
+/*
+** Copyright 2012 Phokham Nonava
+**
+** This file is part of Message Digest Integrity Database.
+**
+** Message Digest Integrity Database is free software: you can redistribute it and/or modify
+** it under the terms of the GNU Lesser General Public License as published by
+** the Free Software Foundation, either version 3 of the License, or
+** (at your option) any later version.
+**
+** Message Digest Integrity Database is distributed in the hope that it will be useful,
+** but WITHOUT ANY WARRANTY; without even the implied warranty of
+** MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+** GNU Lesser General Public License for more details.
+**
+** You should have received a copy of the GNU Lesser General Public License
+** along with Message Digest Integrity Database.  If not, see <http://www.gnu.org/licenses/>.
+*/
+package mdid;
+
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * @author Phokham Nonava
+ */
+public class DeviceSchedulerTest {
+
+    @Test
+    public void testSchedule() throws Exception {
+        final AtomicInteger count = new AtomicInteger();
+        final List<String> runs = Collections.synchronizedList(new ArrayList<String>());
+        final List<String> threads = Collections.synchronizedList(new ArrayList<String>());
+
+        try (DeviceScheduler scheduler = new DeviceScheduler(1, new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                return new Thread(runnable, "device-" + count.incrementAndGet());
+            }
+        })) {
+            List<Future<byte[]>> futures = new ArrayList<>();
+            String[] fileKeys = {"(dev=fe00,ino=30)", "(dev=fe01,ino=5)", "(dev=fe00,ino=10)", "(dev=fe00,ino=20)"};
+            for (final String fileKey : fileKeys) {
+                Path file = Paths.get(fileKey);
+                futures.add(scheduler.schedule(file, fileKey, new Callable<byte[]>() {
+                    @Override
+                    public byte[] call() {
+                        runs.add(fileKey);
+                        threads.add(fileKey.substring(0, 10) + " " + Thread.currentThread().getName());
+                        return null;
+                    }
+                }));
+            }
+
+            // Nothing runs before the batch is dispatched
+            Assert.assertEquals(4, scheduler.size());
+            for (Future<byte[]> future : futures) {
+                Assert.assertFalse(future.isDone());
+            }
+
+            scheduler.dispatch();
+            Assert.assertEquals(0, scheduler.size());
+            for (Future<byte[]> future : futures) {
+                future.get();
+            }
+        }
+
+        // Each device has its own worker, which reads in inode order
+        Assert.assertEquals(2, count.get());
+        List<String> device = new ArrayList<>();
+        for (String run : runs) {
+            if (run.startsWith("(dev=fe00")) {
+                device.add(run);
+            }
+        }
+        Assert.assertEquals(Arrays.asList("(dev=fe00,ino=10)", "(dev=fe00,ino=20)", "(dev=fe00,ino=30)"), device);
+        Assert.assertEquals(1, Collections.frequency(threads, "(dev=fe01, device-2"));
+        Assert.assertEquals(3, Collections.frequency(threads, "(dev=fe00, device-1"));
+    }
+
+}
@@ -43,6 +43,12 @@ public class ExceptionDatabaseTest {
         try (BufferedWriter bufferedWriter = Files.newBufferedWriter(exceptionFile, Charset.defaultCharset())) {
             bufferedWriter.write("a/path");
             bufferedWriter.newLine();
+            bufferedWriter.write("a/directory/**");
+            bufferedWriter.newLine();
+            bufferedWriter.write("**/*.log");
+            bufferedWriter.newLine();
+            bufferedWriter.write("regex:.*/cache[0-9]+");
+            bufferedWriter.newLine();
         }
     }
 
@@ -55,6 +61,26 @@ public class ExceptionDatabaseTest {
     public void testExceptionDatabase() throws IOException {
         ExceptionDatabase database = new ExceptionDatabase(exceptionFile);
         Assert.assertTrue(database.contains("a/path"));
+        Assert.assertFalse(database.contains("a/path/below"));
+        Assert.assertFalse(database.contains("another/path"));
+    }
+
+    @Test
+    public void testSubtree() throws IOException {
+        ExceptionDatabase database = new ExceptionDatabase(exceptionFile);
+        Assert.assertTrue(database.contains("a/directory"));
+        Assert.assertTrue(database.contains("a/directory/below"));
+        Assert.assertFalse(database.contains("a/directory2"));
+        Assert.assertFalse(database.contains("a"));
+    }
+
+    @Test
+    public void testPatterns() throws IOException {
+        ExceptionDatabase database = new ExceptionDatabase(exceptionFile);
+        Assert.assertTrue(database.contains("some/file.log"));
+        Assert.assertFalse(database.contains("some/file.txt"));
+        Assert.assertTrue(database.contains("some/cache42"));
+        Assert.assertFalse(database.contains("some/cache"));
     }
 
 }
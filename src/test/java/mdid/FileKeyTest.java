@@ -0,0 +1,78 @@
+/*
+** Copyright 2012 Phokham Nonava
+**
+** This file is part of Message Digest Integrity Database.
+**
+** Message Digest Integrity Database is free software: you can redistribute it and/or modify
+** it under the terms of the GNU Lesser General Public License as published by
+** the Free Software Foundation, either version 3 of the License, or
+** (at your option) any later version.
+**
+** Message Digest Integrity Database is distributed in the hope that it will be useful,
+** but WITHOUT ANY WARRANTY; without even the implied warranty of
+** MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+** GNU Lesser General Public License for more details.
+**
+** You should have received a copy of the GNU Lesser General Public License
+** along with Message Digest Integrity Database.  If not, see <http://www.gnu.org/licenses/>.
+*/
+package mdid;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+
+import org.junit.Assert;
+import org.junit.Assume;
+import org.junit.Test;
+
+/**
+ * @author Phokham Nonava
+ */
+public class FileKeyTest {
+
+    @Test
+    public void testParse() {
+        FileKey fileKey = FileKey.parse("(dev=fe00,ino=12042404)");
+        Assert.assertEquals(0xfe00, fileKey.getDevice());
+        Assert.assertEquals(12042404, fileKey.getInode());
+        Assert.assertEquals("(dev=fe00,ino=12042404)", fileKey.toString());
+
+        fileKey = FileKey.parse("(dev=ffffffffffffffff,ino=-1)");
+        Assert.assertEquals(-1, fileKey.getDevice());
+        Assert.assertEquals(-1, fileKey.getInode());
+
+        Assert.assertNull(FileKey.parse(null));
+        Assert.assertNull(FileKey.parse("(dev=,ino=1)"));
+        Assert.assertNull(FileKey.parse("(dev=fe00,ino=)"));
+        Assert.assertNull(FileKey.parse("(dev=fe0g,ino=1)"));
+        Assert.assertNull(FileKey.parse("(dev=1ffffffffffffffff,ino=1)"));
+        Assert.assertNull(FileKey.parse("(dev=FE00,ino=1)"));
+        Assert.assertNull(FileKey.parse("(dev=0fe00,ino=1)"));
+        Assert.assertNull(FileKey.parse("(ino=1,dev=fe00)"));
+        Assert.assertNull(FileKey.parse("fe00:1"));
+    }
+
+    /**
+     * The form of the file keys is internal to the JDK, so check that the
+     * file keys of this platform still parse.
+     */
+    @Test
+    public void testPlatformFileKey() throws IOException {
+        Path file = Files.createTempFile("mdid", null);
+        try {
+            Object fileKey = Files.readAttributes(file, BasicFileAttributes.class).fileKey();
+            Assume.assumeTrue(fileKey != null && file.getFileSystem().supportedFileAttributeViews().contains("unix"));
+
+            FileKey unixKey = FileKey.parse(fileKey.toString());
+            Assert.assertNotNull(fileKey.toString(), unixKey);
+            Assert.assertEquals(fileKey.toString(), unixKey.toString());
+            Assert.assertEquals(((Number) Files.getAttribute(file, "unix:ino")).longValue(), unixKey.getInode());
+            Assert.assertEquals(((Number) Files.getAttribute(file, "unix:dev")).longValue(), unixKey.getDevice());
+        } finally {
+            Files.delete(file);
+        }
+    }
+
+}
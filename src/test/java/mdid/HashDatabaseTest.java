@@ -19,8 +19,13 @@
 package mdid;
 
 import java.io.IOException;
+import java.nio.channels.FileChannel;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
 
 import org.junit.After;
 import org.junit.AfterClass;
@@ -55,6 +60,7 @@ public class HashDatabaseTest {
     @After
     public void after() throws IOException {
         Files.deleteIfExists(hashFile);
+        Files.deleteIfExists(Journal.getJournalFile(hashFile));
     }
 
     @Test
@@ -112,4 +118,229 @@ public class HashDatabaseTest {
         }
     }
 
+    @Test
+    public void testMetadata() throws IOException {
+        try (HashDatabase database = new HashDatabase(hashFile)) {
+            database.putAndMark("a/path", new HashEntry(HexCodec.decode("1234"), 42, 1000, "(dev=1,ino=2)"));
+            database.putAndMark("another/path", "5678");
+            database.putAndMark("yet/another/path", new HashEntry(HexCodec.decode("9abc"), 42, 1000, "(dev=01,ino=2)"));
+            Assert.assertEquals("(dev=1,ino=2)", database.getEntry("a/path").getFileKey());
+            Assert.assertEquals("(dev=01,ino=2)", database.getEntry("yet/another/path").getFileKey());
+        }
+
+        try (HashDatabase database = new HashDatabase(hashFile, false)) {
+            Assert.assertEquals("(dev=01,ino=2)", database.getEntry("yet/another/path").getFileKey());
+
+            HashEntry entry = database.getEntry("a/path");
+            Assert.assertEquals("1234", entry.getHash());
+            Assert.assertEquals(42, entry.getSize());
+            Assert.assertEquals(1000, entry.getLastModified());
+            Assert.assertEquals("(dev=1,ino=2)", entry.getFileKey());
+
+            entry = database.getEntry("another/path");
+            Assert.assertEquals("5678", entry.getHash());
+            Assert.assertFalse(entry.hasMetadata());
+        }
+    }
+
+    @Test
+    public void testSampled() throws IOException {
+        for (HashDatabase.Format format : HashDatabase.Format.values()) {
+            try (HashDatabase database = new HashDatabase(hashFile, format)) {
+                database.putAndMark("a/path", new HashEntry(HexCodec.decode("1234"), 42, 1000, null, HashEntry.Kind.SAMPLED));
+                database.putAndMark("another/path", new HashEntry(HexCodec.decode("5678"), 42, 1000, null));
+                database.putAndMark("yet/another/path", new HashEntry(HexCodec.decode("9abc"), 42, 1000, null, HashEntry.Kind.TREE));
+            }
+
+            try (HashDatabase database = new HashDatabase(hashFile, false)) {
+                Assert.assertTrue(database.getEntry("a/path").isSampled());
+                Assert.assertNull(database.getEntry("a/path").getFileKey());
+                Assert.assertFalse(database.getEntry("another/path").isSampled());
+                Assert.assertEquals(HashEntry.Kind.FULL, database.getEntry("another/path").getKind());
+                Assert.assertEquals(HashEntry.Kind.TREE, database.getEntry("yet/another/path").getKind());
+            }
+
+            Files.delete(hashFile);
+        }
+    }
+
+    @Test
+    public void testAlgorithm() throws IOException {
+        try (HashDatabase database = new HashDatabase(hashFile, HashDatabase.Format.TEXT, Algorithms.XXH64)) {
+            database.putAndMark("a/path", "0123456789abcdef");
+        }
+
+        Assert.assertEquals(Algorithms.XXH64, HashDatabase.readAlgorithm(hashFile));
+        try (HashDatabase database = new HashDatabase(hashFile, false)) {
+            Assert.assertEquals(Algorithms.XXH64, database.getAlgorithm());
+            Assert.assertEquals("0123456789abcdef", database.get("a/path"));
+        }
+
+        // Hash files without header were written with the default algorithm
+        Files.write(hashFile, "1234 a/path\n".getBytes());
+        try (HashDatabase database = new HashDatabase(hashFile, false)) {
+            Assert.assertEquals(HashDatabase.MESSAGEDIGEST, database.getAlgorithm());
+            Assert.assertEquals("1234", database.get("a/path"));
+        }
+    }
+
+    @Test
+    public void testGetPaths() throws IOException {
+        try (HashDatabase database = new HashDatabase(hashFile, HashDatabase.Format.BINARY)) {
+            database.putAndMark("a/b/1", "1234");
+            database.putAndMark("a/b/2", "1234");
+            database.putAndMark("a/b/c/3", "1234");
+            database.putAndMark("a/bc", "1234");
+            database.putAndMark("b/1", "1234");
+        }
+
+        try (HashDatabase database = new HashDatabase(hashFile, true)) {
+            database.putAndMark("a/b/4", "5678");
+            database.putAndMark("a/bd/5", "5678");
+            database.remove("a/b/1");
+
+            List<String> paths = database.getPaths("a/b");
+            Collections.sort(paths);
+            Assert.assertEquals(Arrays.asList("a/b/2", "a/b/4", "a/b/c/3"), paths);
+            Assert.assertEquals(paths.size(), database.getPaths("a/b/").size());
+            Assert.assertTrue(database.getPaths("c").isEmpty());
+            Assert.assertEquals(7 - 1, database.getPaths("").size());
+        }
+    }
+
+    @Test
+    public void testRecovery() throws IOException {
+        try (HashDatabase database = new HashDatabase(hashFile)) {
+            database.putAndMark("a/path", "1234");
+            database.putAndMark("another/path", "5678");
+        }
+
+        // Simulate a killed run
+        HashDatabase killed = new HashDatabase(hashFile, true);
+        killed.begin("/root");
+        killed.putAndMark("new/path", "9abc");
+        killed.remove("a/path");
+        killed.mark("another/path");
+        killed.complete("another");
+        killed.flush();
+        Assert.assertTrue(Files.exists(Journal.getJournalFile(hashFile)));
+
+        try (HashDatabase database = new HashDatabase(hashFile, true)) {
+            database.begin("/root");
+            Assert.assertEquals("9abc", database.get("new/path"));
+            Assert.assertNull(database.get("a/path"));
+            Assert.assertTrue(database.getUnmarked().isEmpty());
+            Assert.assertTrue(database.isComplete("another"));
+            Assert.assertFalse(database.isComplete("new"));
+        }
+
+        Assert.assertFalse(Files.exists(Journal.getJournalFile(hashFile)));
+        try (HashDatabase database = new HashDatabase(hashFile, false)) {
+            Assert.assertEquals("9abc", database.get("new/path"));
+            Assert.assertEquals("5678", database.get("another/path"));
+        }
+    }
+
+    @Test
+    public void testRecoveryOfOtherRoot() throws IOException {
+        try (HashDatabase database = new HashDatabase(hashFile)) {
+            database.putAndMark("a/path", "1234");
+        }
+
+        // Simulate a killed run
+        HashDatabase killed = new HashDatabase(hashFile, true);
+        killed.begin("/root");
+        killed.remove("a/path");
+        killed.complete("a");
+        killed.flush();
+
+        try (HashDatabase database = new HashDatabase(hashFile, true)) {
+            database.begin("/other");
+            Assert.assertEquals("1234", database.get("a/path"));
+            Assert.assertFalse(database.isComplete("a"));
+        }
+    }
+
+    @Test
+    public void testRecoveryOfPartialLine() throws IOException {
+        try (HashDatabase database = new HashDatabase(hashFile)) {
+            database.putAndMark("a/path", "1234");
+        }
+
+        // Simulate a run killed while writing the last line
+        HashDatabase killed = new HashDatabase(hashFile, true);
+        killed.begin("/root");
+        killed.putAndMark("new/path", "9abc");
+        killed.putAndMark("another/path", "5678");
+        killed.flush();
+        Path journalFile = Journal.getJournalFile(hashFile);
+        try (FileChannel channel = FileChannel.open(journalFile, StandardOpenOption.WRITE)) {
+            channel.truncate(channel.size() - 2);
+        }
+
+        try (HashDatabase database = new HashDatabase(hashFile, true)) {
+            database.begin("/root");
+            Assert.assertEquals("9abc", database.get("new/path"));
+            Assert.assertNull(database.get("another/pat"));
+            Assert.assertNull(database.get("another/path"));
+        }
+    }
+
+    @Test
+    public void testRecoveryOfPartialCompletion() throws IOException {
+        try (HashDatabase database = new HashDatabase(hashFile)) {
+            database.putAndMark("a/b/path", "1234");
+        }
+
+        // Simulate a run killed while completing a/bc, leaving "C a/b"
+        HashDatabase killed = new HashDatabase(hashFile, true);
+        killed.begin("/root");
+        killed.complete("x");
+        killed.complete("a/bc");
+        killed.flush();
+        Path journalFile = Journal.getJournalFile(hashFile);
+        try (FileChannel channel = FileChannel.open(journalFile, StandardOpenOption.WRITE)) {
+            channel.truncate(channel.size() - 2);
+        }
+
+        // The directory is visited again on resume
+        try (HashDatabase database = new HashDatabase(hashFile, true)) {
+            database.begin("/root");
+            Assert.assertTrue(database.isComplete("x"));
+            Assert.assertFalse(database.isComplete("a/b"));
+            Assert.assertFalse(database.isComplete("a/bc"));
+        }
+    }
+
+    @Test
+    public void testRecoveryOfTwoPartialRuns() throws IOException {
+        try (HashDatabase database = new HashDatabase(hashFile)) {
+            database.putAndMark("a/path", "1234");
+        }
+
+        // Simulate a run killed while writing the last line
+        HashDatabase killed = new HashDatabase(hashFile, true);
+        killed.begin("/root");
+        killed.putAndMark("another/path", "5678");
+        killed.flush();
+        Path journalFile = Journal.getJournalFile(hashFile);
+        try (FileChannel channel = FileChannel.open(journalFile, StandardOpenOption.WRITE)) {
+            channel.truncate(channel.size() - 2);
+        }
+
+        // The resumed run is killed too, after completing a directory
+        killed = new HashDatabase(hashFile, true);
+        killed.begin("/root");
+        killed.putAndMark("third/path", "def0");
+        killed.complete("third");
+        killed.flush();
+
+        try (HashDatabase database = new HashDatabase(hashFile, true)) {
+            database.begin("/root");
+            Assert.assertNull(database.get("another/path"));
+            Assert.assertEquals("def0", database.get("third/path"));
+            Assert.assertTrue(database.isComplete("third"));
+        }
+    }
+
 }
@@ -0,0 +1,200 @@
+/*
+** Copyright 2012 Phokham Nonava
+**
+** This file is part of Message Digest Integrity Database.
+**
+** Message Digest Integrity Database is free software: you can redistribute it and/or modify
+** it under the terms of the GNU Lesser General Public License as published by
+** the Free Software Foundation, either version 3 of the License, or
+** (at your option) any later version.
+**
+** Message Digest Integrity Database is distributed in the hope that it will be useful,
+** but WITHOUT ANY WARRANTY; without even the implied warranty of
+** MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+** GNU Lesser General Public License for more details.
+**
+** You should have received a copy of the GNU Lesser General Public License
+** along with Message Digest Integrity Database.  If not, see <http://www.gnu.org/licenses/>.
+*/
+package mdid;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * @author Phokham Nonava
+ */
+public class HashFileComparisonTest {
+
+    private Path tempDirectory = null;
+    private Path oldFile = null;
+    private Path newFile = null;
+
+    @Before
+    public void before() throws IOException {
+        tempDirectory = Files.createTempDirectory("mdid");
+        oldFile = tempDirectory.resolve("old.db");
+        newFile = tempDirectory.resolve("new.db");
+    }
+
+    @After
+    public void after() throws IOException {
+        Files.deleteIfExists(oldFile);
+        Files.deleteIfExists(newFile);
+        Files.delete(tempDirectory);
+    }
+
+    @Test
+    public void testText() throws IOException {
+        write(oldFile, HashDatabase.Format.TEXT, false);
+        write(newFile, HashDatabase.Format.TEXT, true);
+
+        HashFileComparison comparison = compare(oldFile, newFile);
+        Assert.assertEquals(0, comparison.getSkipped());
+    }
+
+    @Test
+    public void testBinary() throws IOException {
+        write(oldFile, HashDatabase.Format.BINARY, false);
+        write(newFile, HashDatabase.Format.BINARY, true);
+
+        // Only the directories on the way to the changes are descended, all
+        // other subdirectories are skipped
+        HashFileComparison comparison = compare(oldFile, newFile);
+        Assert.assertEquals(8 * 100 + 2 * 90, comparison.getSkipped());
+    }
+
+    @Test(expected = IOException.class)
+    public void testUnsorted() throws IOException {
+        Files.write(oldFile, "1234 b/path\n5678 a/path\n".getBytes());
+        Files.write(newFile, "1234 b/path\n".getBytes());
+
+        try (HashFileReader oldReader = HashDatabase.newReader(oldFile); HashFileReader newReader = HashDatabase.newReader(newFile)) {
+            new HashFileComparison(oldReader, newReader, new HashFileComparison.Handler() {
+                @Override
+                public void added(String path, HashEntry entry) {
+                }
+
+                @Override
+                public void modified(String path, HashEntry oldEntry, HashEntry newEntry) {
+                }
+
+                @Override
+                public void removed(String path, HashEntry entry) {
+                }
+            }).run();
+        }
+    }
+
+    @Test
+    public void testKinds() throws IOException {
+        Files.write(oldFile, "1234 a/path\n5678 b/path\n".getBytes());
+        Files.write(newFile, "9abc:42:1000:-:sampled a/path\n9abc b/path\n".getBytes());
+
+        final List<String> differences = new ArrayList<>();
+        try (HashFileReader oldReader = HashDatabase.newReader(oldFile); HashFileReader newReader = HashDatabase.newReader(newFile)) {
+            HashFileComparison comparison = new HashFileComparison(oldReader, newReader, new HashFileComparison.Handler() {
+                @Override
+                public void added(String path, HashEntry entry) {
+                    differences.add("added " + path);
+                }
+
+                @Override
+                public void modified(String path, HashEntry oldEntry, HashEntry newEntry) {
+                    differences.add("modified " + path);
+                }
+
+                @Override
+                public void removed(String path, HashEntry entry) {
+                    differences.add("removed " + path);
+                }
+            });
+            comparison.run();
+
+            Assert.assertEquals(1, comparison.getIncomparable());
+        }
+
+        Assert.assertEquals(Arrays.asList("modified b/path"), differences);
+    }
+
+    @Test
+    public void testDirectoryDigest() throws IOException {
+        write(oldFile, HashDatabase.Format.BINARY, false);
+        write(newFile, HashDatabase.Format.BINARY, true);
+
+        try (BinaryHashFile oldHashFile = new BinaryHashFile(oldFile); BinaryHashFile newHashFile = new BinaryHashFile(newFile)) {
+            Assert.assertEquals("", oldHashFile.getDirectoryPath(0));
+            Assert.assertEquals(0, oldHashFile.getDirectoryFirst(0));
+            Assert.assertEquals(1000, oldHashFile.getDirectoryEnd(0));
+
+            int oldDirectory = oldHashFile.findDirectory(path(0, 0).substring(0, path(0, 0).lastIndexOf('/')));
+            int newDirectory = newHashFile.findDirectory(path(0, 0).substring(0, path(0, 0).lastIndexOf('/')));
+            Assert.assertTrue(Arrays.equals(oldHashFile.getDirectoryDigest(oldDirectory), newHashFile.getDirectoryDigest(newDirectory)));
+            Assert.assertFalse(Arrays.equals(oldHashFile.getDirectoryDigest(0), newHashFile.getDirectoryDigest(0)));
+        }
+    }
+
+    private static HashFileComparison compare(Path oldFile, Path newFile) throws IOException {
+        final List<String> differences = new ArrayList<>();
+
+        HashFileComparison comparison;
+        try (HashFileReader oldReader = HashDatabase.newReader(oldFile); HashFileReader newReader = HashDatabase.newReader(newFile)) {
+            comparison = new HashFileComparison(oldReader, newReader, new HashFileComparison.Handler() {
+                @Override
+                public void added(String path, HashEntry entry) {
+                    differences.add("added " + path);
+                }
+
+                @Override
+                public void modified(String path, HashEntry oldEntry, HashEntry newEntry) {
+                    differences.add("modified " + path);
+                }
+
+                @Override
+                public void removed(String path, HashEntry entry) {
+                    differences.add("removed " + path);
+                }
+            });
+            comparison.run();
+        }
+
+        Assert.assertEquals(Arrays.asList("modified " + path(3, 5), "removed " + path(7, 9), "added " + path(7, 100)), differences);
+
+        return comparison;
+    }
+
+    /**
+     * Writes ten directories with a hundred files each in ten subdirectories.
+     * The changed version modifies one file and renames another.
+     */
+    private static void write(Path hashFile, HashDatabase.Format format, boolean changed) throws IOException {
+        try (HashDatabase database = new HashDatabase(hashFile, format)) {
+            for (int directory = 0; directory < 10; ++directory) {
+                for (int file = 0; file < 100; ++file) {
+                    String hash = String.format("%040x", directory * 100 + file);
+                    if (changed && directory == 3 && file == 5) {
+                        database.putAndMark(path(directory, file), String.format("%040x", 4242));
+                    } else if (changed && directory == 7 && file == 9) {
+                        database.putAndMark(path(directory, 100), hash);
+                    } else {
+                        database.putAndMark(path(directory, file), hash);
+                    }
+                }
+            }
+        }
+    }
+
+    private static String path(int directory, int file) {
+        return "/srv/directory" + directory + "/subdirectory" + (file / 10) + "/file" + file;
+    }
+
+}
@@ -0,0 +1,214 @@
+/*
+** Copyright 2012 Phokham Nonava
+**
+** This file is part of Message Digest Integrity Database.
+**
+** Message Digest Integrity Database is free software: you can redistribute it and/or modify
+** it under the terms of the GNU Lesser General Public License as published by
+** the Free Software Foundation, either version 3 of the License, or
+** (at your option) any later version.
+**
+** Message Digest Integrity Database is distributed in the hope that it will be useful,
+** but WITHOUT ANY WARRANTY; without even the implied warranty of
+** MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+** GNU Lesser General Public License for more details.
+**
+** You should have received a copy of the GNU Lesser General Public License
+** along with Message Digest Integrity Database.  If not, see <http://www.gnu.org/licenses/>.
+*/
+package mdid;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.AfterClass;
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/**
+ * @author Phokham Nonava
+ */
+public class HashPipelineTest {
+
+    private static final int FILES = 100;
+
+    private static Path tempDirectory = null;
+    private static List<Path> files = new ArrayList<>();
+
+    @BeforeClass
+    public static void beforeClass() throws IOException {
+        tempDirectory = Files.createTempDirectory("mdid");
+
+        for (int i = 0; i < FILES; ++i) {
+            Path file = tempDirectory.resolve("file" + i);
+            try (BufferedWriter bufferedWriter = Files.newBufferedWriter(file, Charset.defaultCharset())) {
+                for (int j = 0; j < i * 100; ++j) {
+                    bufferedWriter.write("content");
+                }
+            }
+            files.add(file);
+        }
+    }
+
+    @AfterClass
+    public static void afterClass() throws IOException {
+        for (Path file : files) {
+            Files.delete(file);
+        }
+        Files.delete(tempDirectory);
+    }
+
+    @Test
+    public void testOrder() throws Exception {
+        final List<String> expected = hashAll(1);
+        final List<String> actual = hashAll(4);
+
+        Assert.assertEquals(FILES * 2, actual.size());
+        Assert.assertEquals(expected, actual);
+    }
+
+    @Test
+    public void testPerDevice() throws Exception {
+        // Reading in inode order must not change the order of the results
+        Assert.assertEquals(hashAll(1), hashAll(2, true));
+    }
+
+    @Test
+    public void testHash() throws Exception {
+        Hasher hasher = new Hasher(HashDatabase.MESSAGEDIGEST);
+        Assert.assertEquals("da39a3ee5e6b4b0d3255bfef95601890afd80709", hasher.hash(files.get(0)));
+    }
+
+    @Test
+    public void testStrategy() throws Exception {
+        for (String algorithm : Algorithms.getNames()) {
+            Hasher readHasher = new Hasher(algorithm, 1000, Hasher.Strategy.READ);
+            Hasher mmapHasher = new Hasher(algorithm, 1000, Hasher.Strategy.MMAP);
+            Hasher defaultHasher = new Hasher(algorithm);
+
+            for (Path file : files) {
+                String hash = defaultHasher.hash(file);
+                Assert.assertEquals(hash, readHasher.hash(file));
+                Assert.assertEquals(hash, mmapHasher.hash(file));
+            }
+        }
+    }
+
+    @Test
+    public void testEdges() throws Exception {
+        Hasher hasher = new Hasher(HashDatabase.MESSAGEDIGEST, 1000, Hasher.Strategy.READ);
+
+        // Small files are hashed completely
+        Assert.assertEquals(hasher.hash(files.get(2)), HexCodec.encode(hasher.digest(files.get(2), 1000)));
+
+        // All larger files start and end with the same bytes
+        String edges = HexCodec.encode(hasher.digest(files.get(10), 1000));
+        Assert.assertNotEquals(hasher.hash(files.get(10)), edges);
+        Assert.assertEquals(edges, HexCodec.encode(hasher.digest(files.get(FILES - 1), 1000)));
+    }
+
+    @Test
+    public void testTree() throws Exception {
+        Path file = tempDirectory.resolve("large");
+        byte[] bytes = new byte[2 * Hasher.BLOCK_SIZE + 1000];
+        for (int i = 0; i < bytes.length; ++i) {
+            bytes[i] = (byte) i;
+        }
+        Files.write(file, bytes);
+
+        try {
+            List<byte[]> single = hashTree(file, bytes.length, null, 1);
+            List<byte[]> parallel = hashTree(file, bytes.length, null, 4);
+
+            // The root digest comes last
+            Assert.assertEquals(4, single.size());
+            for (int i = 0; i < single.size(); ++i) {
+                Assert.assertArrayEquals(single.get(i), parallel.get(i));
+            }
+            Assert.assertArrayEquals(single.get(0), new Hasher(HashDatabase.MESSAGEDIGEST).digestBlock(file, 0));
+
+            // Matching blocks verify
+            byte[][] expected = single.subList(0, 3).toArray(new byte[3][]);
+            Assert.assertArrayEquals(single.get(3), hashTree(file, bytes.length, expected, 4).get(3));
+
+            // A changed block stops verification
+            expected[0] = new byte[expected[0].length];
+            Metrics metrics = new Metrics();
+            List<byte[]> changed = hashTree(file, bytes.length, expected, 1, metrics);
+            Assert.assertNotNull(changed.get(0));
+            Assert.assertNull(changed.get(1));
+            Assert.assertNull(changed.get(3));
+            Assert.assertEquals(Hasher.BLOCK_SIZE, metrics.getBytesHashed());
+
+            // A tree counts as one file
+            metrics = new Metrics();
+            hashTree(file, bytes.length, null, 4, metrics);
+            Assert.assertEquals(1, metrics.getFilesHashed());
+            Assert.assertEquals(bytes.length, metrics.getBytesHashed());
+        } finally {
+            Files.delete(file);
+        }
+    }
+
+    private static List<byte[]> hashTree(Path file, long size, byte[][] expected, int threads) throws Exception {
+        return hashTree(file, size, expected, threads, new Metrics());
+    }
+
+    private static List<byte[]> hashTree(Path file, long size, byte[][] expected, int threads, Metrics metrics) throws Exception {
+        final List<byte[]> results = new ArrayList<>();
+
+        try (HashPipeline hashPipeline = new HashPipeline(new Hasher(HashDatabase.MESSAGEDIGEST), threads)) {
+            hashPipeline.setMetrics(metrics);
+            hashPipeline.submitTree(file, null, size, expected, new HashPipeline.TreeCallback() {
+                @Override
+                public void blocks(byte[][] digests) {
+                    results.addAll(Arrays.asList(digests));
+                }
+
+                @Override
+                public void done(byte[] digest) {
+                    results.add(digest);
+                }
+            });
+            hashPipeline.flush();
+        }
+
+        return results;
+    }
+
+    private List<String> hashAll(int threads) throws Exception {
+        return hashAll(threads, false);
+    }
+
+    private List<String> hashAll(int threads, boolean perDevice) throws Exception {
+        final List<String> results = new ArrayList<>();
+
+        try (HashPipeline hashPipeline = new HashPipeline(new Hasher(HashDatabase.MESSAGEDIGEST), threads, perDevice)) {
+            for (final Path file : files) {
+                hashPipeline.submit(file, new HashPipeline.Callback() {
+                    @Override
+                    public void done(byte[] digest) {
+                        results.add(HexCodec.encode(digest));
+                    }
+                });
+                hashPipeline.submit(new HashPipeline.Callback() {
+                    @Override
+                    public void done(byte[] digest) {
+                        results.add(file.toString());
+                    }
+                });
+            }
+            hashPipeline.flush();
+        }
+
+        return results;
+    }
+
+}
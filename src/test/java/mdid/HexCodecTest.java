@@ -0,0 +1,73 @@
+/*
+** Copyright 2012 Phokham Nonava
+**
+** This file is part of Message Digest Integrity Database.
+**
+** Message Digest Integrity Database is free software: you can redistribute it and/or modify
+** it under the terms of the GNU Lesser General Public License as published by
+** the Free Software Foundation, either version 3 of the License, or
+** (at your option) any later version.
+**
+** Message Digest Integrity Database is distributed in the hope that it will be useful,
+** but WITHOUT ANY WARRANTY; without even the implied warranty of
+** MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+** GNU Lesser General Public License for more details.
+**
+** You should have received a copy of the GNU Lesser General Public License
+** along with Message Digest Integrity Database.  If not, see <http://www.gnu.org/licenses/>.
+*/
+package mdid;
+
+import java.math.BigInteger;
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * @author Phokham Nonava
+ */
+public class HexCodecTest {
+
+    @Test
+    public void testEncode() {
+        Random random = new Random(42);
+
+        for (int length = 1; length <= 64; ++length) {
+            byte[] bytes = new byte[length];
+            random.nextBytes(bytes);
+            bytes[0] = 0;
+
+            BigInteger bi = new BigInteger(1, bytes);
+            String expected = String.format("%0" + (bytes.length << 1) + "x", bi);
+
+            Assert.assertEquals(expected, HexCodec.encode(bytes));
+            Assert.assertEquals(expected.substring(2), HexCodec.encode(bytes, 1, length - 1));
+        }
+    }
+
+    @Test
+    public void testDecode() {
+        byte[] bytes = new byte[256];
+        for (int i = 0; i < bytes.length; ++i) {
+            bytes[i] = (byte) i;
+        }
+
+        String hex = HexCodec.encode(bytes);
+        Assert.assertTrue(Arrays.equals(bytes, HexCodec.decode(hex)));
+        Assert.assertTrue(Arrays.equals(bytes, HexCodec.decode(hex.toUpperCase())));
+        Assert.assertTrue(Arrays.equals(new byte[] {0x12, 0x34}, HexCodec.decode("xx1234yy", 2, 6)));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testDecodeInvalidCharacter() {
+        HexCodec.decode("12g4");
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testDecodeInvalidLength() {
+        HexCodec.decode("123");
+    }
+
+}
@@ -0,0 +1,80 @@
+/*
+** Copyright 2012 Phokham Nonava
+**
+** This file is part of Message Digest Integrity Database.
+**
+** Message Digest Integrity Database is free software: you can redistribute it and/or modify
+** it under the terms of the GNU Lesser General Public License as published by
+** the Free Software Foundation, either version 3 of the License, or
+** (at your option) any later version.
+**
+** Message Digest Integrity Database is distributed in the hope that it will be useful,
+** but WITHOUT ANY WARRANTY; without even the implied warranty of
+** MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+** GNU Lesser General Public License for more details.
+**
+** You should have received a copy of the GNU Lesser General Public License
+** along with Message Digest Integrity Database.  If not, see <http://www.gnu.org/licenses/>.
+*/
+package mdid;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * @author Phokham Nonava
+ */
+public class MetricsTest {
+
+    @Test
+    public void testResults() throws IOException {
+        Metrics metrics = new Metrics();
+        try (ReportWriter reportWriter = metrics.newReportWriter(new TextReportWriter(new ByteArrayOutputStream()))) {
+            reportWriter.write(AbstractOperationMode.NEW, "a/path");
+            reportWriter.write(AbstractOperationMode.EQUAL, "another/path");
+            reportWriter.write(AbstractOperationMode.EQUAL, "yet/another/path");
+        }
+
+        Assert.assertEquals(1, metrics.getNew());
+        Assert.assertEquals(2, metrics.getEqual());
+        Assert.assertEquals(0, metrics.getModified());
+    }
+
+    @Test
+    public void testLatency() {
+        Metrics metrics = new Metrics();
+        for (int i = 0; i < 99; ++i) {
+            metrics.hashed(10, TimeUnit.MICROSECONDS.toNanos(100));
+        }
+        metrics.hashed(10, TimeUnit.MICROSECONDS.toNanos(5000));
+
+        Assert.assertEquals(100, metrics.getFilesHashed());
+        Assert.assertEquals(1000, metrics.getBytesHashed());
+        Assert.assertEquals(99, metrics.getLatencyHistogram()[6]);
+        Assert.assertEquals(1, metrics.getLatencyHistogram()[12]);
+        Assert.assertEquals(128, metrics.getLatencyMicros50());
+        Assert.assertEquals(128, metrics.getLatencyMicros99());
+        Assert.assertEquals(5000, metrics.getLatencyMicrosMax());
+    }
+
+    @Test
+    public void testPhases() {
+        Metrics metrics = new Metrics();
+        metrics.startPhase("walk");
+        metrics.startPhase("close");
+        metrics.startPhase("walk");
+        Assert.assertEquals("walk", metrics.getPhase());
+        metrics.stop();
+
+        String[] phases = metrics.getPhaseMillis();
+        Assert.assertEquals(2, phases.length);
+        Assert.assertTrue(phases[0].startsWith("walk "));
+        Assert.assertTrue(phases[1].startsWith("close "));
+        Assert.assertNull(metrics.getPhase());
+    }
+
+}
@@ -0,0 +1,75 @@
+/*
+** Copyright 2012 Phokham Nonava
+**
+** This file is part of Message Digest Integrity Database.
+**
+** Message Digest Integrity Database is free software: you can redistribute it and/or modify
+** it under the terms of the GNU Lesser General Public License as published by
+** the Free Software Foundation, either version 3 of the License, or
+** (at your option) any later version.
+**
+** Message Digest Integrity Database is distributed in the hope that it will be useful,
+** but WITHOUT ANY WARRANTY; without even the implied warranty of
+** MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+** GNU Lesser General Public License for more details.
+**
+** You should have received a copy of the GNU Lesser General Public License
+** along with Message Digest Integrity Database.  If not, see <http://www.gnu.org/licenses/>.
+*/
+package mdid;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.Charset;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * @author Phokham Nonava
+ */
+public class ReportWriterTest {
+
+    @Test
+    public void testText() throws IOException {
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        try (ReportWriter reportWriter = new TextReportWriter(outputStream)) {
+            reportWriter.write(AbstractOperationMode.NEW, "a/path");
+        }
+
+        Assert.assertEquals("NEW      a/path" + System.lineSeparator(), outputStream.toString());
+    }
+
+    @Test
+    public void testJson() throws IOException {
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        try (ReportWriter reportWriter = new JsonReportWriter(outputStream)) {
+            reportWriter.write(AbstractOperationMode.MODIFIED, "a/\"quoted\"\\path\n\u00e4");
+        }
+
+        Assert.assertEquals("{\"result\":\"MODIFIED\",\"path\":\"a/\\\"quoted\\\"\\\\path\\u000a\u00e4\"}\n",
+                new String(outputStream.toByteArray(), Charset.forName("UTF-8")));
+    }
+
+    @Test
+    public void testAsync() throws IOException {
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        StringBuilder expected = new StringBuilder();
+        try (ReportWriter reportWriter = new AsyncReportWriter(new TextReportWriter(outputStream), true)) {
+            for (int i = 0; i < 10000; ++i) {
+                reportWriter.write(AbstractOperationMode.NEW, "path" + i);
+                reportWriter.write(AbstractOperationMode.EQUAL, "equal" + i);
+                expected.append(AbstractOperationMode.NEW).append(" path").append(i).append(System.lineSeparator());
+            }
+
+            reportWriter.flush();
+            Assert.assertEquals(expected.toString(), outputStream.toString());
+
+            reportWriter.write(AbstractOperationMode.DELETED, "deleted");
+            expected.append(AbstractOperationMode.DELETED).append(" deleted").append(System.lineSeparator());
+        }
+
+        Assert.assertEquals(expected.toString(), outputStream.toString());
+    }
+
+}
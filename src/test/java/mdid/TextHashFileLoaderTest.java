@@ -0,0 +1,108 @@
+/*
+** Copyright 2012 Phokham Nonava
+**
+** This file is part of Message Digest Integrity Database.
+**
+** Message Digest Integrity Database is free software: you can redistribute it and/or modify
+** it under the terms of the GNU Lesser General Public License as published by
+** the Free Software Foundation, either version 3 of the License, or
+** (at your option) any later version.
+**
+** Message Digest Integrity Database is distributed in the hope that it will be useful,
+** but WITHOUT ANY WARRANTY; without even the implied warranty of
+** MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+** GNU Lesser General Public License for more details.
+**
+** You should have received a copy of the GNU Lesser General Public License
+** along with Message Digest Integrity Database.  If not, see <http://www.gnu.org/licenses/>.
+*/
+package mdid;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * @author Phokham Nonava
+ */
+public class TextHashFileLoaderTest {
+
+    private Path hashFile = null;
+
+    @Before
+    public void before() throws IOException {
+        hashFile = Files.createTempFile("mdid", null);
+    }
+
+    @After
+    public void after() throws IOException {
+        Files.deleteIfExists(hashFile);
+    }
+
+    @Test
+    public void testChunks() throws IOException {
+        try (BufferedWriter writer = Files.newBufferedWriter(hashFile, Charset.defaultCharset())) {
+            for (int i = 0; i < 1000; ++i) {
+                writer.write(String.format("%04x", i));
+                if (i % 2 == 0) {
+                    writer.write(":" + i + ":1000:" + (i % 4 == 0 ? "-" : "(ino=" + i + ")"));
+                }
+                writer.write(" a/path/" + i + "\n");
+                if (i % 100 == 0) {
+                    writer.write("invalid line\r\n");
+                }
+            }
+            // The last line has no line feed
+            writer.write("abcd  last/path ");
+        }
+
+        // Tiny chunks, so lines span the nominal chunk boundaries
+        for (int threads = 1; threads <= 4; threads += 3) {
+            final List<String> paths = new ArrayList<>();
+            final List<HashEntry> entries = new ArrayList<>();
+            try (TextHashFileLoader loader = new TextHashFileLoader(hashFile, threads, 100)) {
+                int count = loader.load(new TextHashFileLoader.Handler() {
+                    @Override
+                    public void entry(String path, HashEntry entry) {
+                        paths.add(path);
+                        entries.add(entry);
+                    }
+                });
+                Assert.assertEquals(1001, count);
+            }
+
+            for (int i = 0; i < 1000; ++i) {
+                Assert.assertEquals("a/path/" + i, paths.get(i));
+                Assert.assertEquals(String.format("%04x", i), entries.get(i).getHash());
+                if (i % 2 == 0) {
+                    Assert.assertEquals(i, entries.get(i).getSize());
+                    Assert.assertEquals(1000, entries.get(i).getLastModified());
+                    Assert.assertEquals(i % 4 == 0 ? null : "(ino=" + i + ")", entries.get(i).getFileKey());
+                } else {
+                    Assert.assertFalse(entries.get(i).hasMetadata());
+                }
+            }
+            Assert.assertEquals("last/path", paths.get(1000));
+            Assert.assertEquals("abcd", entries.get(1000).getHash());
+        }
+    }
+
+    @Test
+    public void testEstimateLines() throws IOException {
+        Files.write(hashFile, "1234 a/path\n5678 another/path\n".getBytes(Charset.defaultCharset()));
+
+        try (TextHashFileLoader loader = new TextHashFileLoader(hashFile, 2)) {
+            Assert.assertEquals(2, loader.estimateLines());
+        }
+    }
+
+}
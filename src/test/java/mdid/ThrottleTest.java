@@ -0,0 +1,94 @@
+/*
+** Copyright 2012 Phokham Nonava
+**
+** This file is part of Message Digest Integrity Database.
+**
+** Message Digest Integrity Database is free software: you can redistribute it and/or modify
+** it under the terms of the GNU Lesser General Public License as published by
+** the Free Software Foundation, either version 3 of the License, or
+** (at your option) any later version.
+**
+** Message Digest Integrity Database is distributed in the hope that it will be useful,
+** but WITHOUT ANY WARRANTY; without even the implied warranty of
+** MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+** GNU Lesser General Public License for more details.
+**
+** You should have received a copy of the GNU Lesser General Public License
+** along with Message Digest Integrity Database.  If not, see <http://www.gnu.org/licenses/>.
+*/
+package mdid;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * @author Phokham Nonava
+ */
+public class ThrottleTest {
+
+    @Test
+    public void testUnlimited() throws IOException {
+        Throttle throttle = new Throttle();
+        for (int i = 0; i < 1000; ++i) {
+            throttle.acquireFile();
+            throttle.acquireBytes(1024 * 1024);
+            throttle.read(TimeUnit.SECONDS.toNanos(1));
+        }
+
+        Assert.assertEquals(0, throttle.getThrottledMillis());
+        Assert.assertEquals(1, throttle.getDutyCycle(), 0);
+    }
+
+    @Test
+    public void testRate() throws IOException {
+        Throttle throttle = new Throttle();
+        throttle.setFilesPerSecond(100);
+
+        long start = System.nanoTime();
+        for (int i = 0; i < 20; ++i) {
+            throttle.acquireFile();
+        }
+        long elapsed = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+
+        // The bucket starts empty, so every file waits its turn
+        Assert.assertTrue(elapsed >= 150);
+        Assert.assertTrue(throttle.getThrottledMillis() >= 150);
+
+        // Removing the limit lets the hashers run freely again
+        throttle.setFilesPerSecond(0);
+        long throttled = throttle.getThrottledMillis();
+        for (int i = 0; i < 1000; ++i) {
+            throttle.acquireFile();
+        }
+        Assert.assertEquals(throttled, throttle.getThrottledMillis());
+    }
+
+    @Test
+    public void testBackoff() throws Exception {
+        Throttle throttle = new Throttle();
+        throttle.setLatencyTargetMillis(10);
+
+        // Slow reads halve the duty cycle
+        long slow = TimeUnit.MILLISECONDS.toNanos(20);
+        for (int i = 0; i < 30; ++i) {
+            throttle.read(slow);
+            Thread.sleep(5);
+        }
+        Assert.assertTrue(throttle.getDutyCycle() < 1);
+
+        // Fast reads give it back
+        double dutyCycle = throttle.getDutyCycle();
+        for (int i = 0; i < 100; ++i) {
+            throttle.read(0);
+            Thread.sleep(5);
+        }
+        Assert.assertTrue(throttle.getDutyCycle() > dutyCycle);
+
+        throttle.setLatencyTargetMillis(0);
+        Assert.assertEquals(1, throttle.getDutyCycle(), 0);
+    }
+
+}